@@ -0,0 +1,270 @@
+package im.bunch.patience.game;
+
+import android.graphics.Rect;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+import im.bunch.patience.R;
+import im.bunch.patience.game.graphics.Rectangle;
+import im.bunch.patience.game.graphics.TextureAtlas;
+import im.bunch.patience.geometry.Point;
+
+/**
+ * Checks that drawing a frame does not allocate anything once the renderer is warmed up, whether
+ * the board is still, animating to a new layout or being dragged. Frames are drawn into an
+ * offscreen EGL surface.
+ *
+ * @author Creston Bunch
+ */
+public class GameRendererTest extends AndroidTestCase {
+
+    private static final int WIDTH = 720;
+    private static final int HEIGHT = 1280;
+    private static final int SPRITES = 104;
+    private static final int WARMUP_FRAMES = 10;
+    private static final long LOAD_TIMEOUT = 10000;
+    private static final int FRAMES = 100;
+    // a new layout every few frames, so that tweens are started while others are in flight
+    private static final int FRAMES_PER_LAYOUT = 10;
+    // the cards of a pile being dragged
+    private static final int DRAGGED = 13;
+
+    private EGLDisplay mDisplay;
+    private EGLContext mContext;
+    private EGLSurface mSurface;
+
+    /**
+     * A rectangle component that draws the card back. Its bounds are only changed in place, the
+     * way cards are moved.
+     */
+    private static class Sprite implements RectangleComponent {
+        private final Rect mBounds;
+        private final int mOrder;
+
+        Sprite(int left, int top, int order) {
+            mBounds = new Rect(left, top, left + 100, top + 140);
+            mOrder = order;
+        }
+
+        /**
+         * Move the sprite like Card.offset() does while its pile is dragged.
+         */
+        void offset(int dx, int dy) {
+            mBounds.offset(dx, dy);
+        }
+
+        @Override
+        public Rectangle getRectangle(TextureAtlas atlas) {
+            return atlas.getRectangle(R.drawable.card_back);
+        }
+
+        @Override
+        public Rect getBounds() {
+            return new Rect(mBounds);
+        }
+
+        @Override
+        public boolean copyBounds(Rect out) {
+            out.set(mBounds);
+            return true;
+        }
+
+        @Override
+        public boolean isOpaque() {
+            return true;
+        }
+
+        @Override
+        public void onDragStart(List<Component> targets, Point p) {
+        }
+
+        @Override
+        public void onDrag(List<Component> targets, Point p) {
+        }
+
+        @Override
+        public void onDragEnd(List<Component> targets, Point p) {
+        }
+
+        @Override
+        public void onTap(List<Component> targets, Point p) {
+        }
+
+        @Override
+        public boolean onCancelDrag() {
+            return false;
+        }
+
+        @Override
+        public void onRegister(ComponentManager componentManager) {
+        }
+
+        @Override
+        public void onUnregister(ComponentManager componentManager) {
+        }
+
+        @Override
+        public void onUpdate() {
+        }
+
+        @Override
+        public void onSurfaceChange(int width, int height) {
+        }
+
+        @Override
+        public int getOrder() {
+            return mOrder;
+        }
+
+        @Override
+        public boolean collidesWithPoint(Point p) {
+            return mBounds.contains((int) p.x, (int) p.y);
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        assertTrue(EGL14.eglInitialize(mDisplay, version, 0, version, 1));
+
+        int[] attributes = {
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] count = new int[1];
+        assertTrue(EGL14.eglChooseConfig(mDisplay, attributes, 0, configs, 0, 1, count, 0));
+        assertTrue(count[0] > 0);
+
+        int[] contextAttributes = { EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE };
+        mContext = EGL14.eglCreateContext(
+                mDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0
+        );
+        int[] surfaceAttributes = {
+                EGL14.EGL_WIDTH, WIDTH, EGL14.EGL_HEIGHT, HEIGHT, EGL14.EGL_NONE
+        };
+        mSurface = EGL14.eglCreatePbufferSurface(mDisplay, configs[0], surfaceAttributes, 0);
+        assertTrue(EGL14.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        EGL14.eglMakeCurrent(
+                mDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT
+        );
+        EGL14.eglDestroySurface(mDisplay, mSurface);
+        EGL14.eglDestroyContext(mDisplay, mContext);
+        EGL14.eglTerminate(mDisplay);
+        super.tearDown();
+    }
+
+    public void testSteadyStateFramesDoNotAllocate() throws InterruptedException {
+        ComponentManager componentManager = new ComponentManager(getContext());
+        layOut(componentManager);
+        GameRenderer renderer = start(componentManager);
+
+        startCounting();
+        for (int i = 0; i < FRAMES; i++) {
+            renderer.onDrawFrame(null);
+        }
+        assertEquals("Objects allocated in " + FRAMES + " frames", 0, stopCounting());
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testAnimatedFramesDoNotAllocate() throws InterruptedException {
+        ComponentManager componentManager = new ComponentManager(getContext());
+        Sprite[] sprites = layOut(componentManager);
+        GameRenderer renderer = start(componentManager);
+
+        startCounting();
+        for (int i = 0; i < FRAMES; i++) {
+            if (i % FRAMES_PER_LAYOUT == 0) {
+                // laying out is not part of a frame, so it is not counted
+                Debug.stopAllocCounting();
+                for (Sprite sprite : sprites) {
+                    sprite.offset(i % (2 * FRAMES_PER_LAYOUT) == 0 ? 45 : -45, 20);
+                }
+                componentManager.update();
+                Debug.startAllocCounting();
+            }
+            renderer.onDrawFrame(null);
+        }
+        assertEquals("Objects allocated in " + FRAMES + " animated frames", 0, stopCounting());
+    }
+
+    public void testDraggedFramesDoNotAllocate() throws InterruptedException {
+        ComponentManager componentManager = new ComponentManager(getContext());
+        Sprite[] sprites = layOut(componentManager);
+        GameRenderer renderer = start(componentManager);
+
+        startCounting();
+        for (int i = 0; i < FRAMES; i++) {
+            // the dragged cards move without a new layout, the way a drag moves them
+            for (int j = 0; j < DRAGGED; j++) {
+                sprites[j].offset(3, 2);
+            }
+            renderer.onDrawFrame(null);
+        }
+        assertEquals("Objects allocated in " + FRAMES + " dragged frames", 0, stopCounting());
+    }
+
+    /**
+     * Register sprites laid out in overlapping rows.
+     */
+    private Sprite[] layOut(ComponentManager componentManager) {
+        componentManager.setCardSize(100, 140);
+        Sprite[] sprites = new Sprite[SPRITES];
+        for (int i = 0; i < SPRITES; i++) {
+            sprites[i] = new Sprite((i % 8) * 90, (i / 8) * 40, i);
+            componentManager.registerComponent(sprites[i]);
+        }
+        return sprites;
+    }
+
+    /**
+     * Create a renderer and draw frames until its atlas is loaded and it is warmed up.
+     */
+    private GameRenderer start(ComponentManager componentManager) throws InterruptedException {
+        GameRenderer renderer = new GameRenderer(componentManager);
+        renderer.onSurfaceCreated(null, null);
+        renderer.onSurfaceChanged(null, WIDTH, HEIGHT);
+
+        // the atlas is loaded over several frames, wait for it before counting
+        long deadline = System.currentTimeMillis() + LOAD_TIMEOUT;
+        do {
+            renderer.onDrawFrame(null);
+            Thread.sleep(10);
+        } while (renderer.isLoading() && System.currentTimeMillis() < deadline);
+        assertFalse("The atlas did not load", renderer.isLoading());
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            renderer.onDrawFrame(null);
+        }
+        return renderer;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void startCounting() {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static int stopCounting() {
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+}
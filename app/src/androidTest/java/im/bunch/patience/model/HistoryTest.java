@@ -0,0 +1,184 @@
+package im.bunch.patience.model;
+
+import android.test.AndroidTestCase;
+
+import com.google.gson.JsonParseException;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that packed game states and histories of them read back exactly as they were written,
+ * and that histories saved as JSON by older versions can still be read.
+ *
+ * @author Creston Bunch
+ */
+public class HistoryTest extends AndroidTestCase {
+
+    private static final int CARDS = 104;
+    private static final int MOVES = 100;
+
+    /**
+     * Make a state like one packed by common.js, with a card code changed by every move.
+     */
+    private static byte[][] play(long seed) {
+        Random random = new Random(seed);
+        int[] codes = new int[CARDS];
+        for (int i = 0; i < CARDS; i++) {
+            codes[i] = random.nextInt(512);
+        }
+        byte[][] states = new byte[MOVES][];
+        for (int move = 0; move < MOVES; move++) {
+            codes[random.nextInt(CARDS)] = random.nextInt(512);
+            states[move] = GameStateCodec.pack(codes, "{\"game\":{\"score\":" + move + "}}");
+        }
+        return states;
+    }
+
+    public void testStatesReadBack() {
+        int[] codes = { 3, 0, 64, 128 + 12, 256 + 64 + 51 };
+        byte[] state = GameStateCodec.pack(codes, "{\"cards\":{\"0\":{\"moved\":true}}}");
+        byte[] compressed = GameStateCodec.compress(state);
+
+        for (byte[] bytes : new byte[][] { state, compressed }) {
+            GameStateCodec.Unpacked unpacked = GameStateCodec.unpack(bytes);
+            assertTrue(Arrays.equals(codes, unpacked.codes));
+            assertEquals("{\"cards\":{\"0\":{\"moved\":true}}}", unpacked.json);
+        }
+        assertTrue(Arrays.equals(state, GameStateCodec.expand(compressed)));
+
+        GameStateCodec.Unpacked legacy = GameStateCodec.unpack(GameStateCodec.fromJson("{}"));
+        assertNull(legacy.codes);
+        assertEquals("{}", legacy.json);
+    }
+
+    public void testHistoryReadsBack() {
+        byte[][] states = play(1);
+        History history = new History();
+        for (int i = 0; i < states.length; i++) {
+            // compressed states are kept expanded so that they can be delta encoded
+            history.add(i % 2 == 0 ? states[i] : GameStateCodec.compress(states[i]));
+        }
+
+        History copy = History.fromBytes(history.toBytes());
+        assertEquals(states.length, copy.size());
+        for (int i = 0; i < states.length; i++) {
+            assertTrue(Arrays.equals(states[i], copy.get(i)));
+        }
+        for (int i = states.length - 1; i > 0; i--) {
+            assertTrue(Arrays.equals(states[i - 1], copy.pop()));
+        }
+    }
+
+    public void testHistoryAcrossCheckpoints() {
+        byte[][] states = play(3);
+        int split = 2 * History.CHECKPOINT_INTERVAL + 1;
+        History history = new History();
+        for (int i = 0; i < split; i++) {
+            history.add(states[i]);
+        }
+
+        // undo back past a checkpoint, then play on from there
+        int undo = History.CHECKPOINT_INTERVAL + 2;
+        for (int i = split - 1; i > split - 1 - undo; i--) {
+            assertTrue(Arrays.equals(states[i - 1], history.pop()));
+        }
+        assertEquals(split - undo, history.size());
+        for (int i = split - undo; i < states.length; i++) {
+            history.add(states[i]);
+        }
+
+        History copy = History.fromBytes(history.toBytes());
+        assertEquals(states.length, copy.size());
+        assertTrue(Arrays.equals(states[states.length - 1], copy.peek()));
+        for (int i = 0; i < states.length; i++) {
+            assertTrue(Arrays.equals(states[i], history.get(i)));
+            assertTrue(Arrays.equals(states[i], copy.get(i)));
+        }
+    }
+
+    public void testPopToEmpty() {
+        byte[][] states = play(4);
+        History history = History.fromStates(Arrays.asList(states).subList(0, 2));
+        History copy = new History(history);
+
+        assertTrue(Arrays.equals(states[0], history.pop()));
+        assertNull(history.pop());
+        assertTrue(history.isEmpty());
+        assertNull(history.peek());
+        assertNull(history.pop());
+
+        // popping a history does not change its copies
+        assertEquals(2, copy.size());
+        assertTrue(Arrays.equals(states[1], copy.peek()));
+
+        History empty = History.fromBytes(history.toBytes());
+        assertTrue(empty.isEmpty());
+        assertNull(empty.peek());
+    }
+
+    public void testCorruptStateIsRejected() {
+        // a state that claims to have Integer.MAX_VALUE codes
+        byte[] state = {
+                GameStateCodec.FORMAT_PACKED, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+                0x07, 1, 2
+        };
+        try {
+            GameStateCodec.unpack(state);
+            fail("Read a corrupt state.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testCorruptHistoryIsRejected() {
+        byte[] bytes = History.fromStates(Arrays.asList(play(2))).toBytes();
+        try {
+            History.fromBytes(Arrays.copyOf(bytes, bytes.length / 2));
+            fail("Read a truncated history.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testLegacyHistoriesAreRead() {
+        History list = History.fromJson("[\"{\\\"score\\\":1}\",\"{\\\"score\\\":2}\"]");
+        assertEquals(2, list.size());
+        assertEquals("{\"score\":1}", GameStateCodec.unpack(list.get(0)).json);
+        assertEquals("{\"score\":2}", GameStateCodec.unpack(list.peek()).json);
+
+        // a delta encoded history of two states: a checkpoint, then a copy and a literal
+        History deltas = History.fromJson("{\"mEntries\":["
+                + "{\"checkpoint\":\"{\\\"score\\\":1}\",\"length\":11},"
+                + "{\"ops\":[0,9,-1,2],\"literal\":\"2}\",\"length\":11}]}");
+        assertEquals(2, deltas.size());
+        assertEquals("{\"score\":2}", GameStateCodec.unpack(deltas.peek()).json);
+    }
+
+    public void testLongLegacyListsAreRead() {
+        StringBuilder json = new StringBuilder("[");
+        int count = 2 * History.CHECKPOINT_INTERVAL + 3;
+        for (int i = 0; i < count; i++) {
+            json.append(i > 0 ? "," : "").append("\"{\\\"score\\\":").append(i).append("}\"");
+        }
+        History history = History.fromJson(json.append("]").toString());
+        assertEquals(count, history.size());
+
+        // legacy states can be popped and saved in the compact form like any other
+        assertEquals("{\"score\":" + (count - 2) + "}",
+                GameStateCodec.unpack(history.pop()).json);
+        History copy = History.fromBytes(history.toBytes());
+        assertEquals(count - 1, copy.size());
+        for (int i = 0; i < count - 1; i++) {
+            assertEquals("{\"score\":" + i + "}", GameStateCodec.unpack(copy.get(i)).json);
+        }
+
+        assertTrue(History.fromJson(null).isEmpty());
+        try {
+            History.fromJson("{}");
+            fail("Read a history without entries.");
+        } catch (JsonParseException e) {
+            // expected
+        }
+    }
+}
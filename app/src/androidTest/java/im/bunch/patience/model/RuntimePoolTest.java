@@ -0,0 +1,65 @@
+package im.bunch.patience.model;
+
+import android.test.AndroidTestCase;
+
+import com.eclipsesource.v8.V8;
+
+/**
+ * Checks that a runtime returned to the pool can not be reached through the lease it was
+ * returned with, and that the next owner does not see the cards of the last game.
+ *
+ * @author Creston Bunch
+ */
+public class RuntimePoolTest extends AndroidTestCase {
+
+    private static final String SCRIPT = "var properties = { name: 'Test' };";
+
+    public void testLeasesAreNotReused() throws Exception {
+        RuntimePool pool = RuntimePool.get(getContext());
+        RuntimePool.Lease first = pool.obtain(SCRIPT);
+        V8 runtime = first.getRuntime();
+        first.release();
+
+        RuntimePool.Lease second = pool.obtain(SCRIPT);
+        try {
+            assertNotSame(first, second);
+            assertSame(runtime, second.getRuntime());
+
+            // releasing the old lease again must not take the runtime from its new owner
+            first.release();
+            RuntimePool.Lease third = pool.obtain(SCRIPT);
+            assertNotSame(runtime, third.getRuntime());
+            third.release();
+
+            try {
+                first.getRuntime();
+                fail("A released lease handed out its runtime.");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            second.release();
+        }
+    }
+
+    public void testRecycledRuntimesForgetTheLastGame() throws Exception {
+        RuntimePool pool = RuntimePool.get(getContext());
+        RuntimePool.Lease first = pool.obtain(SCRIPT);
+        V8 runtime = first.getRuntime();
+        runtime.getLocker().acquire();
+        runtime.executeVoidScript("FRAME.cards = [{}, {}]; FRAME.piles = [{}];");
+        runtime.getLocker().release();
+        first.release();
+
+        RuntimePool.Lease second = pool.obtain(SCRIPT);
+        try {
+            runtime = second.getRuntime();
+            runtime.getLocker().acquire();
+            assertEquals(0, runtime.executeIntegerScript("FRAME.cards.length"));
+            assertEquals(0, runtime.executeIntegerScript("FRAME.piles.length"));
+            runtime.getLocker().release();
+        } finally {
+            second.release();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package im.bunch.patience.storage;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+
+import im.bunch.patience.model.GameStateCodec;
+import im.bunch.patience.model.History;
+import im.bunch.patience.storage.SavedGameStorage.SavedGameEntry;
+
+/**
+ * Checks that the migrations turn a database created by the first version of the app into the
+ * current schema without losing or changing any saved game. The database is seeded with many
+ * rows in the first version, where scores are stored as text. Also checks that the statistics
+ * table agrees with the saved games as they are inserted, updated and reset.
+ *
+ * @author Creston Bunch
+ */
+public class SavedGameStorageTest extends AndroidTestCase {
+
+    private static final int ROWS = 2000;
+    private static final String[] SCRIPTS = { "klondike.js", "spider.js", "freecell.js" };
+    private static final byte[] STATE = GameStateCodec.pack(new int[] { 1, 64 }, "{}");
+    private static final byte[] HISTORY = new History().toBytes();
+
+    private SavedGameStorage mStorage;
+    private SQLiteDatabase mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStorage = new SavedGameStorage(getContext());
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL(SavedGameStorage.SQL_CREATE_TABLE);
+        mDatabase.setVersion(1);
+        seed();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDatabase.close();
+        super.tearDown();
+    }
+
+    /**
+     * Insert rows the way the first version did. Scores go from 0 to 999, so sorting them as
+     * text would put 99 above 100.
+     */
+    private void seed() {
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                ContentValues values = new ContentValues();
+                values.put(SavedGameEntry.COLUMN_NAME_NAME, "Game " + i);
+                values.put(SavedGameEntry.COLUMN_NAME_SCRIPT, SCRIPTS[i % SCRIPTS.length]);
+                values.put(SavedGameEntry.COLUMN_NAME_STATE, "{}");
+                values.put(SavedGameEntry.COLUMN_NAME_TIMESTAMP, 1000000 + i);
+                values.put(SavedGameEntry.COLUMN_NAME_HISTORY, "[]");
+                values.put(SavedGameEntry.COLUMN_NAME_SCORE, Integer.toString(i % 1000));
+                values.put(SavedGameEntry.COLUMN_NAME_PLAY_TIME, 10000 + (i * 7919) % 50000);
+                values.put(SavedGameEntry.COLUMN_NAME_WON, i % 2);
+                values.put(SavedGameEntry.COLUMN_NAME_ARCHIVED, i % 5 == 0 ? 1 : 0);
+                values.put(SavedGameEntry.COLUMN_NAME_DELETED, 0);
+                mDatabase.insert(SavedGameEntry.TABLE_NAME, null, values);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    private void upgrade() {
+        mDatabase.beginTransaction();
+        try {
+            mStorage.onUpgrade(mDatabase, 1, SavedGameStorage.DATABASE_VERSION);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    private long queryLong(String sql, String... args) {
+        Cursor c = mDatabase.rawQuery(sql, args);
+        try {
+            assertTrue(c.moveToFirst());
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    private String queryPlan(String sql, String... args) {
+        Cursor c = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        StringBuilder plan = new StringBuilder();
+        try {
+            while (c.moveToNext()) {
+                plan.append(c.getString(c.getColumnIndex("detail"))).append('\n');
+            }
+        } finally {
+            c.close();
+        }
+        return plan.toString();
+    }
+
+    public void testUpgradeKeepsEveryRow() {
+        long sum = queryLong("SELECT SUM(CAST(score AS INTEGER) + play_time + won + archived)"
+                + " FROM saved_games");
+        upgrade();
+
+        assertEquals(ROWS, queryLong("SELECT COUNT(*) FROM saved_games"));
+        assertEquals(sum, queryLong("SELECT SUM(score + play_time + won + archived)"
+                + " FROM saved_games"));
+        Cursor c = mStorage.getSavedGame(mDatabase, 42);
+        try {
+            assertTrue(c.moveToFirst());
+            assertEquals("Game 41", c.getString(1));
+        } finally {
+            c.close();
+        }
+    }
+
+    public void testUpgradeStoresScoresAsIntegers() {
+        upgrade();
+
+        assertEquals(0, queryLong(
+                "SELECT COUNT(*) FROM saved_games WHERE typeof(score) != 'integer'"
+        ));
+        // the highest score of a won game is 999, which would lose to 99 if sorted as text
+        assertEquals(999, mStorage.highScore(mDatabase, "klondike.js"));
+    }
+
+    public void testUpgradeKeepsStatistics() {
+        upgrade();
+
+        for (String script : SCRIPTS) {
+            assertStatistics(script);
+        }
+        assertEquals(0, mStorage.gamesPlayed(mDatabase, "unplayed.js"));
+        assertEquals(-1, mStorage.highScore(mDatabase, "unplayed.js"));
+        assertSame(GameStats.NONE, mStorage.getStats(mDatabase, "unplayed.js"));
+    }
+
+    public void testStatisticsFollowSavedGames() {
+        upgrade();
+
+        // a new script, a game that is won, a game that is lost and then won, and a game that
+        // held the high score and best time until an undo took the win away
+        long first = mStorage.insertGame(mDatabase, "new.js", "New", STATE, HISTORY, 50, 900, 1);
+        assertStatistics("new.js");
+        long second = mStorage.insertGame(mDatabase, "new.js", "New", STATE, HISTORY, 10, 300, 0);
+        assertStatistics("new.js");
+        mStorage.updateGame(mDatabase, second, "new.js", "New", STATE, HISTORY, 80, 400, 1);
+        assertStatistics("new.js");
+        assertEquals(80, mStorage.highScore(mDatabase, "new.js"));
+        assertEquals(400, mStorage.bestTime(mDatabase, "new.js"));
+        mStorage.updateGame(mDatabase, second, "new.js", "New", STATE, HISTORY, 70, 450, 0);
+        assertStatistics("new.js");
+        assertEquals(50, mStorage.highScore(mDatabase, "new.js"));
+        assertEquals(900, mStorage.bestTime(mDatabase, "new.js"));
+
+        // games of other scripts are not affected
+        mStorage.updateGame(mDatabase, first, "new.js", "New", STATE, HISTORY, 60, 800, 1);
+        mStorage.insertGame(mDatabase, "klondike.js", "Klondike", STATE, HISTORY, 5000, 1, 1);
+        for (String script : SCRIPTS) {
+            assertStatistics(script);
+        }
+        assertStatistics("new.js");
+
+        mStorage.reset(mDatabase, "new.js");
+        assertEquals(0, mStorage.gamesPlayed(mDatabase, "new.js"));
+        assertEquals(-1, mStorage.bestTime(mDatabase, "new.js"));
+        assertEquals(0, queryLong("SELECT COUNT(*) FROM game_stats WHERE script_filename = ?",
+                "new.js"));
+    }
+
+    /**
+     * Check that the statistics of a script are the same as when they are computed from every
+     * saved game of the script.
+     */
+    private void assertStatistics(String script) {
+        assertEquals(queryLong("SELECT COUNT(*) FROM saved_games WHERE script_filename = ?",
+                script), mStorage.gamesPlayed(mDatabase, script));
+        assertEquals(queryLong("SELECT COUNT(*) FROM saved_games WHERE script_filename = ?"
+                + " AND won = 1", script), mStorage.gamesWon(mDatabase, script));
+        assertEquals(queryLong("SELECT IFNULL(MAX(score), -1) FROM saved_games"
+                + " WHERE script_filename = ? AND won = 1", script),
+                mStorage.highScore(mDatabase, script));
+        assertEquals(queryLong("SELECT IFNULL(MIN(play_time), -1) FROM saved_games"
+                + " WHERE script_filename = ? AND won = 1", script),
+                mStorage.bestTime(mDatabase, script));
+        GameStats stats = mStorage.getStats(mDatabase, script);
+        assertEquals(queryLong("SELECT IFNULL(SUM(score), 0) FROM saved_games"
+                + " WHERE script_filename = ?", script), stats.totalScore);
+        assertEquals(queryLong("SELECT IFNULL(SUM(play_time), 0) FROM saved_games"
+                + " WHERE script_filename = ?", script), stats.totalTime);
+    }
+
+    public void testReadsStatesOfEveryFormat() {
+        upgrade();
+
+        // the first version saved the state and history as JSON text
+        Cursor c = mStorage.getSavedGame(mDatabase, 1);
+        try {
+            assertTrue(c.moveToFirst());
+            assertEquals("{}", GameStateCodec.unpack(SavedGameStorage.getState(c, 3)).json);
+            assertTrue(SavedGameStorage.getHistory(c, 5).isEmpty());
+        } finally {
+            c.close();
+        }
+
+        History history = new History();
+        history.add(STATE);
+        long id = mStorage.insertGame(mDatabase, "new.js", "New", GameStateCodec.compress(STATE),
+                history.toBytes(), 0, 0, 0);
+        c = mStorage.getSavedGame(mDatabase, id);
+        try {
+            assertTrue(c.moveToFirst());
+            GameStateCodec.Unpacked state = GameStateCodec.unpack(SavedGameStorage.getState(c, 3));
+            assertTrue(Arrays.equals(new int[] { 1, 64 }, state.codes));
+            assertTrue(Arrays.equals(STATE, SavedGameStorage.getHistory(c, 5).peek()));
+        } finally {
+            c.close();
+        }
+    }
+
+    public void testUpgradeIndexesLookups() {
+        upgrade();
+
+        assertTrue(queryPlan("SELECT _id FROM saved_games WHERE archived = ?"
+                + " ORDER BY timestamp DESC", "0")
+                .contains(SavedGameEntry.INDEX_ARCHIVED_TIMESTAMP));
+        assertTrue(queryPlan("SELECT _id FROM saved_games WHERE script_filename = ?"
+                + " AND won = ?", "klondike.js", "1")
+                .contains("COVERING INDEX"));
+        String highScore = queryPlan("SELECT score FROM saved_games WHERE script_filename = ?"
+                + " AND won = 1 ORDER BY score DESC", "klondike.js");
+        assertTrue(highScore.contains(SavedGameEntry.INDEX_SCRIPT_WON_SCORE));
+        assertFalse(highScore.contains("TEMP B-TREE"));
+        String bestTime = queryPlan("SELECT play_time FROM saved_games WHERE script_filename = ?"
+                + " AND won = 1 ORDER BY play_time ASC", "klondike.js");
+        assertTrue(bestTime.contains(SavedGameEntry.INDEX_SCRIPT_WON_TIME));
+        assertFalse(bestTime.contains("TEMP B-TREE"));
+    }
+
+    public void testListReadsSummaryPages() {
+        upgrade();
+        // games saved in the same second must not be skipped or repeated across pages
+        for (int i = 0; i < SavedGameStorage.PAGE_SIZE * 2; i++) {
+            mStorage.insertGame(mDatabase, "new.js", "New", STATE, HISTORY, 0, 0, 0);
+        }
+        mDatabase.execSQL("UPDATE saved_games SET timestamp = 3000000 WHERE script_filename = ?",
+                new Object[] { "new.js" });
+
+        Cursor all = mDatabase.rawQuery("SELECT _id FROM saved_games WHERE archived = 0"
+                + " ORDER BY timestamp DESC, _id DESC", null);
+        Cursor page = mStorage.getCursor(mDatabase);
+        try {
+            assertEquals(-1, page.getColumnIndex(SavedGameEntry.COLUMN_NAME_STATE));
+            assertEquals(-1, page.getColumnIndex(SavedGameEntry.COLUMN_NAME_HISTORY));
+            int timestamp = page.getColumnIndex(SavedGameEntry.COLUMN_NAME_TIMESTAMP);
+
+            // walking every page gives every game that is not archived, newest first
+            while (true) {
+                assertTrue(page.getCount() <= SavedGameStorage.PAGE_SIZE);
+                while (page.moveToNext()) {
+                    assertTrue(all.moveToNext());
+                    assertEquals(all.getLong(0), page.getLong(0));
+                }
+                if (page.getCount() < SavedGameStorage.PAGE_SIZE) {
+                    break;
+                }
+                page.moveToLast();
+                Cursor next = mStorage.getCursorAfter(mDatabase, page.getLong(timestamp),
+                        page.getLong(0));
+                page.close();
+                page = next;
+            }
+            assertFalse(all.moveToNext());
+        } finally {
+            page.close();
+            all.close();
+        }
+
+        String plan = queryPlan("SELECT _id FROM saved_games WHERE archived = ?"
+                + " AND timestamp <= ? AND (timestamp < ? OR _id < ?)"
+                + " ORDER BY timestamp DESC, _id DESC LIMIT 50", "0", "5", "5", "9");
+        assertTrue(plan.contains(SavedGameEntry.INDEX_ARCHIVED_TIMESTAMP));
+        assertFalse(plan.contains("TEMP B-TREE"));
+    }
+
+    public void testNewDatabaseMatchesUpgradedDatabase() {
+        upgrade();
+        String upgraded = schema(mDatabase);
+
+        SQLiteDatabase fresh = SQLiteDatabase.create(null);
+        try {
+            mStorage.onCreate(fresh);
+            assertEquals(upgraded, schema(fresh));
+        } finally {
+            fresh.close();
+        }
+    }
+
+    private static String schema(SQLiteDatabase db) {
+        Cursor c = db.rawQuery(
+                "SELECT type, name, sql FROM sqlite_master WHERE name NOT LIKE 'sqlite%'"
+                + " AND name != 'android_metadata'"
+                + " ORDER BY name", null
+        );
+        StringBuilder schema = new StringBuilder();
+        try {
+            while (c.moveToNext()) {
+                schema.append(c.getString(0)).append(' ').append(c.getString(1)).append(' ')
+                        .append(c.getString(2)).append('\n');
+            }
+        } finally {
+            c.close();
+        }
+        return schema.toString();
+    }
+}
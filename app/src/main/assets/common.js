@@ -111,6 +111,246 @@ var LAYOUTS = {
 }
 
 
+/**
+ * A frame is a flat array of numbers describing every card in play, so that the Java view can read
+ * the whole board with a single call instead of asking for each card property separately. A frame
+ * starts with FRAME.HEADER numbers: the number of cards and the number of piles. Every card is
+ * given an id by index() and occupies FRAME.STRIDE numbers starting at HEADER + id * STRIDE. The
+ * version of every pile, by pile id, follows the cards. Card positions are not part of the frame,
+ * they are laid out by the Java view.
+ */
+var FRAME = {
+    HEADER: 2,
+    STRIDE: 5,
+    FLAGS: 0,
+    OFFSET_X: 1,
+    OFFSET_Y: 2,
+    SUIT: 3,
+    RANK: 4,
+
+    FLAG_ALIVE: 1,
+    FLAG_VISIBLE: 2,
+    FLAG_SELECTED: 4,
+
+    cards: [], // every indexed card, by id
+    piles: [] // every indexed pile, by id
+};
+
+/**
+ * The layouts the Java view can compute by itself, in the order of its layout constants. Any other
+ * layout function is run through positions().
+ */
+var BUILTIN_LAYOUTS = [LAYOUTS.SQUARED, LAYOUTS.FANNED, LAYOUTS.FANNED_RIGHT, LAYOUTS.PYRAMID];
+
+/**
+ * Give every card and pile in the game an id and remember it, so it can be found in a frame even
+ * while it is being dragged around outside of its pile. Returns the number of cards indexed.
+ */
+function index(game) {
+    FRAME.cards = [];
+    FRAME.piles = [];
+    for (var key in game.piles) {
+        var pile = game.piles[key];
+        pile.id = FRAME.piles.length;
+        pile.version = pile.version || 0;
+        FRAME.piles.push(pile);
+        for (var i = 0; i < pile.cards.length; i++) {
+            var card = pile.cards[i];
+            card.id = FRAME.cards.length;
+            FRAME.cards.push(card);
+        }
+    }
+    return FRAME.cards.length;
+}
+
+/**
+ * Get the flags of a card as they are stored in a frame.
+ */
+function cardFlags(card) {
+    var flags = 0;
+    if (card.alive !== false) { flags |= FRAME.FLAG_ALIVE; }
+    if (card.visible) { flags |= FRAME.FLAG_VISIBLE; }
+    if (card.selected) { flags |= FRAME.FLAG_SELECTED; }
+    return flags;
+}
+
+/**
+ * Pack the state of every indexed card into a frame.
+ */
+function snapshot() {
+    var cards = FRAME.cards;
+    var piles = FRAME.piles;
+    var versions = FRAME.HEADER + cards.length * FRAME.STRIDE;
+    var result = new Array(versions + piles.length);
+    result[0] = cards.length;
+    result[1] = piles.length;
+    for (var i = 0; i < cards.length; i++) {
+        var card = cards[i];
+        var o = FRAME.HEADER + i * FRAME.STRIDE;
+        result[o + FRAME.FLAGS] = cardFlags(card);
+        result[o + FRAME.OFFSET_X] = card.offsetX || 0;
+        result[o + FRAME.OFFSET_Y] = card.offsetY || 0;
+        result[o + FRAME.SUIT] = SUITS.indexOf(card.suit);
+        result[o + FRAME.RANK] = RANKS.indexOf(card.rank);
+    }
+    for (var i = 0; i < piles.length; i++) {
+        result[versions + i] = piles[i].version || 0;
+    }
+    return result;
+}
+
+/**
+ * Mark a pile as changed. Anything that adds, removes or reorders the cards of a pile, or changes
+ * its layout, must touch it so that the Java view lays it out again. Changes to the cards
+ * themselves, like flipping them over, are picked up from the frame without touching the pile.
+ */
+function touch(pile) {
+    pile.version = (pile.version || 0) + 1;
+}
+
+/**
+ * Mark every pile in the game as changed.
+ */
+function touchAll(game) {
+    for (var key in game.piles) {
+        touch(game.piles[key]);
+    }
+}
+
+/**
+ * Describe a pile for the Java layout engine: [layout, count, id0, flags0, id1, flags1, ...] where
+ * layout is the index of a built in layout, or -1 for a layout only the script can run.
+ */
+function describe(pile) {
+    var result = [BUILTIN_LAYOUTS.indexOf(pile.layout), pile.cards.length];
+    for (var i = 0; i < pile.cards.length; i++) {
+        var card = pile.cards[i];
+        result.push(card.id, cardFlags(card));
+    }
+    return result;
+}
+
+/**
+ * Run the layout of a pile inside of the given rectangle. Returns the positions of every card as a
+ * flat array [x0, y0, x1, y1, ...].
+ */
+function positions(pile, left, top, right, bottom, width, height) {
+    var rect = {left: left, top: top, right: right, bottom: bottom};
+    var layout = pile.layout(rect, width, height, pile);
+    var result = new Array(layout.length * 2);
+    for (var i = 0; i < layout.length; i++) {
+        result[i * 2] = layout[i].x;
+        result[i * 2 + 1] = layout[i].y;
+    }
+    return result;
+}
+
+/**
+ * A packed state is a code for every card, plus the JSON of everything else in the game. The codes
+ * go pile by pile in the order of game.piles: the number of cards in the pile, then a code for each
+ * card. A code is suit * 13 + rank, below STATE.FLAG_VISIBLE, with the flags of the card above it.
+ * Card fields that are not part of the code are only kept, in the JSON and by the position of the
+ * card, when they differ from a new Card, so scripts are free to add fields to their cards.
+ */
+var STATE = {
+    FLAG_VISIBLE: 64,
+    FLAG_SELECTED: 128,
+    FLAG_DEAD: 256,
+
+    // card fields that are part of the code, or laid out again by the Java view
+    CARD_FIELDS: {
+        suit: true, rank: true, visible: true, selected: true, alive: true, id: true,
+        x: true, y: true, z: true, width: true, height: true
+    }
+};
+
+/**
+ * Get the code of a card in a packed state.
+ */
+function cardCode(card) {
+    var code = SUITS.indexOf(card.suit) * RANKS.length + RANKS.indexOf(card.rank);
+    if (card.visible) { code |= STATE.FLAG_VISIBLE; }
+    if (card.selected) { code |= STATE.FLAG_SELECTED; }
+    if (card.alive === false) { code |= STATE.FLAG_DEAD; }
+    return code;
+}
+
+/**
+ * Pack a game for storage. Returns {codes: [...], json: "..."}, see STATE.
+ */
+function pack(game) {
+    var blank = new Card(SUITS[0], RANKS[0]);
+    var codes = [];
+    var extras = {};
+    var piles = {};
+    var n = 0;
+    for (var key in game.piles) {
+        var pile = game.piles[key];
+        var copy = {};
+        for (var field in pile) {
+            if (field !== 'cards') { copy[field] = pile[field]; }
+        }
+        piles[key] = copy;
+        codes.push(pile.cards.length);
+        for (var i = 0; i < pile.cards.length; i++, n++) {
+            var card = pile.cards[i];
+            codes.push(cardCode(card));
+            var extra = null;
+            for (var field in card) {
+                if (!STATE.CARD_FIELDS.hasOwnProperty(field) && card[field] !== blank[field]) {
+                    extra = extra || {};
+                    extra[field] = card[field];
+                }
+            }
+            if (extra !== null) { extras[n] = extra; }
+        }
+    }
+    var rest = {};
+    for (var field in game) {
+        rest[field] = field === 'piles' ? piles : game[field];
+    }
+    return {codes: codes, json: JSON.stringify({game: rest, cards: extras})};
+}
+
+/**
+ * Rebuild a game packed by pack(). The functions of the game are reattached by the deserialize
+ * function of the script.
+ */
+function unpack(codes, json) {
+    var state = JSON.parse(json);
+    var game = state.game;
+    var k = 0;
+    var n = 0;
+    for (var key in game.piles) {
+        var pile = game.piles[key];
+        var count = codes[k++];
+        pile.cards = [];
+        for (var i = 0; i < count; i++, n++) {
+            var code = codes[k++];
+            var identity = code % STATE.FLAG_VISIBLE;
+            var card = new Card(SUITS[Math.floor(identity / RANKS.length)],
+                    RANKS[identity % RANKS.length]);
+            card.visible = (code & STATE.FLAG_VISIBLE) !== 0;
+            card.selected = (code & STATE.FLAG_SELECTED) !== 0;
+            card.alive = (code & STATE.FLAG_DEAD) === 0;
+            var extra = state.cards[n];
+            for (var field in extra) {
+                card[field] = extra[field];
+            }
+            pile.cards.push(card);
+        }
+    }
+    return game;
+}
+
+/**
+ * Get the game passed to the deserialize function of a script: a game rebuilt by unpack(), or the
+ * JSON of a whole game saved before states were packed.
+ */
+function parseState(state) {
+    return typeof state === 'string' ? JSON.parse(state) : state;
+}
+
 var Card = function(suit, rank) {
     this.suit = suit;
     this.rank = rank;
@@ -241,7 +481,7 @@ function top(pile) {
 }
 
 /**
- * Flip a card over.
+ * Flip a card over. The pile does not need to be touched, see touch().
  */
 function flip(card) {
     if (card !== null && card !== undefined) {
@@ -273,6 +513,16 @@ function move(a, b, visibility) {
         c.visible = visibility;
         b.cards.push(c);
     }
+    touch(a);
+    touch(b);
+}
+
+/**
+ * Push a card on top of a pile.
+ */
+function push(pile, card) {
+    pile.cards.push(card);
+    touch(pile);
 }
 
 /**
@@ -282,6 +532,7 @@ function pop(pile) {
     var card = top(pile);
     var i = pile.cards.indexOf(card);
     pile.cards.splice(i, i+1);
+    touch(pile);
     return card;
 }
 
@@ -290,6 +541,7 @@ function pop(pile) {
  */
 function reverse(pile) {
     pile.cards.reverse();
+    touch(pile);
     return pile;
 }
 
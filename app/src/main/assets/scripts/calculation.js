@@ -313,18 +313,11 @@ function foursMerge(game, pile, addon) {
 }
 
 
-/**
- * Serialize a game for storage.
- */
-function serialize(game) {
-    return JSON.stringify(game);
-}
-
 /**
  * Deserialize a game by reattaching callback functions.
  */
-function deserialize(json) {
-    var game = JSON.parse(json);
+function deserialize(state) {
+    var game = parseState(state);
     // reattach functions
     game.piles.stock.tap = stockTap;
     game.piles.stock.split = stockSplit;
@@ -520,7 +520,8 @@ function autoFoundation(game) {
 
                 if (merged) {
                     var card = pile.cards.splice(pile.cards.length-1, pile.cards.length);
-                    foundation.cards.push(card[0]);
+                    touch(pile);
+                    push(foundation, card[0]);
                     moveMade = true;
                 }
             }
@@ -528,18 +529,11 @@ function autoFoundation(game) {
     }
 }
 
-/**
- * Serialize a game for storage.
- */
-function serialize(game) {
-    return JSON.stringify(game);
-}
-
 /**
  * Deserialize a game by reattaching callback functions.
  */
-function deserialize(json) {
-    var game = JSON.parse(json);
+function deserialize(state) {
+    var game = parseState(state);
 
     // reattach functions
     for (var key in game.piles) {
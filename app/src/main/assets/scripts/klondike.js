@@ -292,7 +292,7 @@ function stockTap(game) {
         if (!game.options.tripleDraw.value) {
             // move top card from stock to waste
             var card = pop(stock);
-            waste.cards.push(card);
+            push(waste, card);
             flip(card);
         } else {
             // move top 3 cards from stock to waste
@@ -300,7 +300,7 @@ function stockTap(game) {
             for (var i = 0; i < cards.length; i++) {
                 var card = cards[i];
                 if (card !== null) {
-                    waste.cards.push(card);
+                    push(waste, card);
                     flip(card);
                 }
             }
@@ -448,18 +448,11 @@ function foundationMerge(game, pile, addon) {
     return merged;
 }
 
-/**
- * Serialize a game for storage.
- */
-function serialize(game) {
-    return JSON.stringify(game);
-}
-
 /**
  * Deserialize a game by reattaching callback functions.
  */
-function deserialize(json) {
-    var game = JSON.parse(json);
+function deserialize(state) {
+    var game = parseState(state);
     // reattach functions
     game.piles.stock.tap = stockTap;
     game.piles.stock.split = noSplit;
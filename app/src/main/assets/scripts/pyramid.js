@@ -271,7 +271,7 @@ function stockTap(game) {
         move(temp, waste, true);
         // move top card from stock to temp
         var card = pop(stock);
-        temp.cards.push(card);
+        push(temp, card);
         card.moved = true; // don't automatically select this card when onTap() gets called
         flip(card);
     } else {
@@ -288,18 +288,11 @@ function stockTap(game) {
 }
 
 
-/**
- * Serialize a game for storage.
- */
-function serialize(game) {
-    return JSON.stringify(game);
-}
-
 /**
  * Deserialize a game by reattaching callback functions.
  */
-function deserialize(json) {
-    var game = JSON.parse(json);
+function deserialize(state) {
+    var game = parseState(state);
 
     for (var key in game.piles) {
         var pile = game.piles[key];
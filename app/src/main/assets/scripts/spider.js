@@ -317,6 +317,7 @@ function clearPiles(game) {
                 var index = pile.cards.indexOf(cards[j]);
                 pile.cards.splice(index, index + 1);
             }
+            touch(pile);
             // clearing a pile scores 100 points
             score(100);
         }
@@ -340,7 +341,7 @@ function stockTap(game) {
 
     if (!empty(stock)) {
         for (var i in tableaux) {
-            tableaux[i].cards.push(pop(stock));
+            push(tableaux[i], pop(stock));
         }
 
         // flip over every top card
@@ -367,18 +368,11 @@ function stockTap(game) {
 }
 
 
-/**
- * Serialize a game for storage.
- */
-function serialize(game) {
-    return JSON.stringify(game);
-}
-
 /**
  * Deserialize a game by reattaching callback functions.
  */
-function deserialize(json) {
-    var game = JSON.parse(json);
+function deserialize(state) {
+    var game = parseState(state);
 
     game.piles.tableaux1.tap = tableauxTap('tableaux1');
     game.piles.tableaux2.tap = tableauxTap('tableaux2');
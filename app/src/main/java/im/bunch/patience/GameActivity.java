@@ -20,21 +20,18 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Chronometer;
 import android.widget.TextView;
+import android.widget.Toast;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
+import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
-import im.bunch.patience.game.Component;
 import im.bunch.patience.game.ComponentManager;
 import im.bunch.patience.game.GameSurfaceView;
-import im.bunch.patience.game.RectangleComponent;
+import im.bunch.patience.metrics.Metrics;
+import im.bunch.patience.model.GameStateCodec;
+import im.bunch.patience.model.History;
 import im.bunch.patience.model.JavascriptModel;
 import im.bunch.patience.storage.SavedGameStorage;
 import im.bunch.patience.view.Pile;
@@ -61,6 +58,8 @@ public class GameActivity extends AppCompatActivity
     private SQLiteDatabase mDatabase;
     private SavedGameStorage mGameStorage;
     private boolean mDirty; // flag set when history is modified
+    private SaveAsyncTask mSaveTask;
+    private boolean mReleaseAfterSave;
 
     private GLSurfaceView mSurfaceView;
 
@@ -127,13 +126,10 @@ public class GameActivity extends AppCompatActivity
                     Cursor cursor = mGameStorage.getSavedGame(mDatabase, id);
                     cursor.moveToFirst();
                     String filename = cursor.getString(2);
-                    String state = cursor.getString(3);
-                    String historyJson = cursor.getString(5);
+                    byte[] state = SavedGameStorage.getState(cursor, 3);
+                    History history = SavedGameStorage.getHistory(cursor, 5);
                     long time = cursor.getLong(7);
-
-                    Gson gson = new Gson();
-                    Type collectionType = new TypeToken<List<String>>(){}.getType();
-                    List<String> history = gson.fromJson(historyJson, collectionType);
+                    cursor.close();
 
                     // load the state and history
                     mModel.deserialize(state, history);
@@ -166,7 +162,7 @@ public class GameActivity extends AppCompatActivity
                 Log.i(LOG_TAG, "Resuming from saved instance state.");
                 // resume game
                 mScript = savedInstanceState.getString(BUNDLE_KEY_SCRIPT);
-                String state = savedInstanceState.getString(BUNDLE_KEY_STATE);
+                byte[] state = savedInstanceState.getByteArray(BUNDLE_KEY_STATE);
                 mModel = new JavascriptModel(this, mScript);
                 mModel.deserialize(state);
                 mTime = savedInstanceState.getLong(BUNDLE_KEY_TIME);
@@ -196,10 +192,14 @@ public class GameActivity extends AppCompatActivity
     public void onResume() {
         Log.i(LOG_TAG, "Resuming activity.");
         super.onResume();
-        // TODO: so this is really bad, but since I can't figure out a convenient way to reload
-        // GLES textures, I just create an entirely new GLSurfaceView when the activity resumes
-        this.setup();
-        //surfaceView.onResume();
+        if (mSurfaceView == null) {
+            this.setup();
+        } else {
+            // the components and the GL context survive a pause, so only restart the surface
+            mSurfaceView.onResume();
+            mChronometer.setBase(SystemClock.elapsedRealtime() - mTime);
+            mChronometer.start();
+        }
     }
     @Override
     public void onPause() {
@@ -207,31 +207,39 @@ public class GameActivity extends AppCompatActivity
         mSurfaceView.onPause();
         mTime = getGameTime();
 
-        // TODO: move this to an onPause() component manager method
-        for (Component c : new ArrayList<>(mComponentManager.getComponents())) {
-            if (c instanceof RectangleComponent) {
-                ((RectangleComponent) c).clearRectangle();
-            }
-        }
-
         // cancel any ongoing drags
         boolean dragged = mComponentManager.cancelDrag();
 
         // save the game if something was being/has been dragged or the game is old
         if (dragged || mDirty || !mUnsaved) {
-            new SaveAsyncTask().execute();
+            mSaveTask = new SaveAsyncTask();
+            mSaveTask.execute();
         }
 
         super.onPause();
     }
 
+    @Override
+    public void onDestroy() {
+        // give the runtime back to the pool, but not while it is still being saved
+        if (mSaveTask != null && mSaveTask.getStatus() != AsyncTask.Status.FINISHED) {
+            mReleaseAfterSave = true;
+        } else {
+            releaseModel();
+        }
+        super.onDestroy();
+    }
+
     @Override
     public void onRestoreInstanceState(Bundle state) {
         Log.i(LOG_TAG, "Restoring instance state.");
         super.onRestoreInstanceState(state);
         try {
             mScript = state.getString(BUNDLE_KEY_SCRIPT);
-            String oldState = state.getString(BUNDLE_KEY_STATE);
+            byte[] oldState = state.getByteArray(BUNDLE_KEY_STATE);
+            if (mModel != null) {
+                mModel.release();
+            }
             mModel = new JavascriptModel(this, mScript);
             mModel.deserialize(oldState);
             mTime = state.getLong(BUNDLE_KEY_TIME);
@@ -246,12 +254,7 @@ public class GameActivity extends AppCompatActivity
     public void onSaveInstanceState(Bundle state) {
         Log.i(LOG_TAG, "Saving instance state.");
         state.putString(BUNDLE_KEY_SCRIPT, mScript);
-        synchronized (mModel) {
-            mModel.acquireLock();
-            state.putString(BUNDLE_KEY_STATE, mModel.serialize());
-            state.putString(BUNDLE_KEY_SCRIPT, mScript);
-            mModel.releaseLock();
-        }
+        state.putByteArray(BUNDLE_KEY_STATE, GameStateCodec.compress(mModel.serialize()));
         state.putLong(BUNDLE_KEY_TIME, getGameTime());
         super.onSaveInstanceState(state);
     }
@@ -275,12 +278,20 @@ public class GameActivity extends AppCompatActivity
             return true;
         }
 
+        if (id == R.id.action_save_metrics) {
+            new SaveMetricsAsyncTask().execute();
+            return true;
+        }
+
         return super.onOptionsItemSelected(item);
     }
 
     private void setup() {
         mDirty = false; // nothing has changed yet
 
+        if (mComponentManager != null) {
+            mModel.clearView(mComponentManager);
+        }
         mComponentManager = new ComponentManager(this);
 
         // register view components from the model
@@ -331,7 +342,6 @@ public class GameActivity extends AppCompatActivity
         );
         mComponentManager.update();
         mScoreListener.run();
-        mSurfaceView.requestRender();
 
         // update saved game
         mSaveListener.run();
@@ -420,8 +430,55 @@ public class GameActivity extends AppCompatActivity
 
             return null;
         }
+
+        @Override
+        protected void onPostExecute(Object result) {
+            if (mReleaseAfterSave) {
+                releaseModel();
+            }
+        }
     };
 
+    /**
+     * Called to write the timings of the game loop to a file, for reporting jank.
+     */
+    private class SaveMetricsAsyncTask extends AsyncTask<Object, Object, File> {
+        @Override
+        protected File doInBackground(Object... params) {
+            File dir = getExternalFilesDir(null);
+            if (dir == null) {
+                dir = getFilesDir();
+            }
+            try {
+                return Metrics.dump(dir);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Could not save metrics.", e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(File file) {
+            String message = file != null
+                    ? getString(R.string.metrics_saved, file.getPath())
+                    : getString(R.string.metrics_not_saved);
+            Toast.makeText(GameActivity.this, message, Toast.LENGTH_LONG).show();
+        }
+    }
+
+    /**
+     * Clear the view and return the model runtime to the pool.
+     */
+    private void releaseModel() {
+        if (mModel != null) {
+            if (mComponentManager != null) {
+                mModel.clearView(mComponentManager);
+            }
+            mModel.release();
+            mModel = null;
+        }
+    }
+
     private void notifyEnd() {
         if (mModel.hasWon()) {
             new AlertDialog.Builder(GameActivity.this)
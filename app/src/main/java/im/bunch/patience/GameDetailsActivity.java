@@ -17,20 +17,18 @@ import android.webkit.WebView;
 import android.widget.Button;
 import android.widget.TextView;
 
-import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Objects;
 import java.util.TimeZone;
 
-import im.bunch.patience.model.JavascriptModel;
+import im.bunch.patience.files.ScriptCatalog;
+import im.bunch.patience.storage.GameStats;
 import im.bunch.patience.storage.SavedGameStorage;
 
 public class GameDetailsActivity extends AppCompatActivity {
 
     String mFilename;
-    String mScript;
-    JavascriptModel mModel;
     SavedGameStorage mGameStorage;
     SQLiteDatabase mDatabase;
 
@@ -44,21 +42,8 @@ public class GameDetailsActivity extends AppCompatActivity {
         mGameStorage = new SavedGameStorage(this);
         mDatabase = mGameStorage.getReadableDatabase();
 
-        try {
-            mScript = GamesList.loadScript(this, mFilename);
-            mModel = new JavascriptModel(this, mScript);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        // fill in stats
-        new UpdateBestTimeTask().execute();
-        new UpdateGamesPlayedTask().execute();
-        new UpdateGamesWon().execute();
-        new UpdateHighScoreTask().execute();
-        new UpdateWonPercentage().execute();
-        new UpdateTitle().execute();
-        new UpdateRules().execute();
+        // fill in the details and stats in one trip to the background
+        new LoadDetailsTask().execute();
 
         Button resetButton = (Button) findViewById(R.id.reset_stats);
         resetButton.setOnClickListener(new View.OnClickListener() {
@@ -75,210 +60,89 @@ public class GameDetailsActivity extends AppCompatActivity {
     }
 
     /**
-     * This task asynchronously updates the high score.
-     */
-    private class UpdateHighScoreTask extends AsyncTask<Object, Object, Integer> {
-
-        @Override
-        protected Integer doInBackground(Object... params) {
-            return mGameStorage.highScore(mDatabase, mFilename);
-        }
-
-        @Override
-        protected void onProgressUpdate(Object... progress) {
-            // update progress here
-        }
-
-        @Override
-        protected void onPostExecute(Integer result) {
-            TextView highScoreView = (TextView) findViewById(R.id.high_score);
-            if (result > -1) {
-                highScoreView.setText(String.format("%d", result));
-            } else {
-                highScoreView.setText("--");
-            }
-        }
-    }
-
-    /**
-     * This task asynchronously updates the best time.
-     */
-    private class UpdateBestTimeTask extends AsyncTask<Object, Object, Integer> {
-
-        @Override
-        protected Integer doInBackground(Object... params) {
-            return mGameStorage.bestTime(mDatabase, mFilename);
-        }
-
-        @Override
-        protected void onProgressUpdate(Object... progress) {
-            // update progress here
-        }
-
-        @Override
-        protected void onPostExecute(Integer result) {
-            TextView bestTimeView = (TextView) findViewById(R.id.best_time);
-            if (result > -1) {
-                TimeZone tz = TimeZone.getTimeZone("UTC");
-                SimpleDateFormat df = new SimpleDateFormat("HH:mm:ss");
-                df.setTimeZone(tz);
-                String time = df.format(new Date(result));
-                bestTimeView.setText(String.format("%s", time));
-            } else {
-                bestTimeView.setText("--:--");
-            }
-        }
-    }
-
-    /**
-     * This task asynchronously updates the games played.
+     * Everything the details screen shows, loaded together.
      */
-    private class UpdateGamesPlayedTask extends AsyncTask<Object, Object, Integer> {
-
-        @Override
-        protected Integer doInBackground(Object... params) {
-            return mGameStorage.gamesPlayed(mDatabase, mFilename);
-        }
-
-        @Override
-        protected void onProgressUpdate(Object... progress) {
-            // update progress here
-        }
-
-        @Override
-        protected void onPostExecute(Integer result) {
-            if (result > -1) {
-                TextView bestTimeView = (TextView) findViewById(R.id.games_played);
-                bestTimeView.setText(String.format("%d", result));
-            }
-        }
+    private static class Details {
+        ScriptCatalog.ScriptInfo info;
+        GameStats stats;
     }
 
     /**
-     * This task asynchronously updates the games won.
+     * This task asynchronously loads the title, rules and stats. The title and rules come from
+     * the script catalog, so no script has to be run, and the stats are one database lookup.
      */
-    private class UpdateGamesWon extends AsyncTask<Object, Object, Integer> {
+    private class LoadDetailsTask extends AsyncTask<Object, Object, Details> {
 
         @Override
-        protected Integer doInBackground(Object... params) {
-            return mGameStorage.gamesWon(mDatabase, mFilename);
+        protected Details doInBackground(Object... params) {
+            Details details = new Details();
+            details.info = ScriptCatalog.get(GameDetailsActivity.this).get(mFilename);
+            details.stats = mGameStorage.getStats(mDatabase, mFilename);
+            return details;
         }
 
         @Override
-        protected void onProgressUpdate(Object... progress) {
-            // update progress here
-        }
-
-        @Override
-        protected void onPostExecute(Integer result) {
-            TextView bestTimeView = (TextView) findViewById(R.id.games_won);
-            if (result > -1) {
-                bestTimeView.setText(String.format("%d", result));
-            } else {
-                bestTimeView.setText("--");
-            }
-        }
-    }
-
-    /**
-     * This task asynchronously updates the win percentage.
-     */
-    private class UpdateWonPercentage extends AsyncTask<Object, Object, Integer> {
-
-        @Override
-        protected Integer doInBackground(Object... params) {
-            int gamesPlayed = mGameStorage.gamesPlayed(mDatabase, mFilename);
-            int gamesWon = mGameStorage.gamesWon(mDatabase, mFilename);
-            if (gamesPlayed > 0) {
-                return (int) (((float) gamesWon / gamesPlayed) * 100);
-            } else {
-                return -1;
-            }
-        }
-
-        @Override
-        protected void onProgressUpdate(Object... progress) {
-            // update progress here
-        }
-
-        @Override
-        protected void onPostExecute(Integer result) {
-            TextView bestTimeView = (TextView) findViewById(R.id.percent_won);
-            if (result > -1) {
-                bestTimeView.setText(String.format("(%d%%)", result));
-            } else {
-                bestTimeView.setText("(--%)");
-            }
-        }
-    }
-
-    /**
-     * This task asynchronously updates the details title.
-     */
-    private class UpdateTitle extends AsyncTask<Object, Object, String> {
-
-        @Override
-        protected String doInBackground(Object... params) {
-             return mModel.getName();
-        }
-
-        @Override
-        protected void onProgressUpdate(Object... progress) {
-            // update progress here
-        }
+        protected void onPostExecute(Details result) {
+            ScriptCatalog.ScriptInfo info = result.info;
+            GameDetailsActivity.this.setTitle(info != null ? info.name : "");
+            TextView rulesView = (TextView) findViewById(R.id.rules);
+            rulesView.setText(Html.fromHtml(info != null ? info.rules : ""));
 
-        @Override
-        protected void onPostExecute(String result) {
-            GameDetailsActivity.this.setTitle(result);
+            showStats(result.stats);
         }
     }
 
-
     /**
-     * This task asynchronously updates the rules webview.
+     * This class asynchronously resets game stats, and reads them again in the same trip.
      */
-    private class UpdateRules extends AsyncTask<Object, Object, String> {
+    private class ResetStatsTask extends AsyncTask<Object, Object, GameStats> {
 
         @Override
-        protected String doInBackground(Object... params) {
-            return mModel.getRules();
+        protected GameStats doInBackground(Object... params) {
+            mGameStorage.reset(mDatabase, mFilename);
+            return mGameStorage.getStats(mDatabase, mFilename);
         }
 
         @Override
-        protected void onProgressUpdate(Object... progress) {
-            // update progress here
-        }
-
-        @Override
-        protected void onPostExecute(String result) {
-            TextView rulesView = (TextView) findViewById(R.id.rules);
-            rulesView.setText(Html.fromHtml(result));
+        protected void onPostExecute(GameStats result) {
+            showStats(result);
         }
     }
 
     /**
-     * This class asynchronously resets game stats
+     * Fill in every stat view.
      */
-    private class ResetStatsTask extends AsyncTask<Object, Object, Boolean> {
-
-        @Override
-        protected Boolean doInBackground(Object... params) {
-            mGameStorage.reset(mDatabase, mFilename);
-            return true;
-        }
-
-        @Override
-        protected void onProgressUpdate(Object... progress) {
-            // update progress here
-        }
-
-        @Override
-        protected void onPostExecute(Boolean result) {
-            new UpdateBestTimeTask().execute();
-            new UpdateGamesPlayedTask().execute();
-            new UpdateGamesWon().execute();
-            new UpdateHighScoreTask().execute();
-            new UpdateWonPercentage().execute();
+    private void showStats(GameStats stats) {
+        TextView highScoreView = (TextView) findViewById(R.id.high_score);
+        if (stats.highScore > -1) {
+            highScoreView.setText(String.format("%d", stats.highScore));
+        } else {
+            highScoreView.setText("--");
+        }
+
+        TextView bestTimeView = (TextView) findViewById(R.id.best_time);
+        if (stats.bestTime > -1) {
+            TimeZone tz = TimeZone.getTimeZone("UTC");
+            SimpleDateFormat df = new SimpleDateFormat("HH:mm:ss");
+            df.setTimeZone(tz);
+            String time = df.format(new Date(stats.bestTime));
+            bestTimeView.setText(String.format("%s", time));
+        } else {
+            bestTimeView.setText("--:--");
+        }
+
+        TextView gamesPlayedView = (TextView) findViewById(R.id.games_played);
+        gamesPlayedView.setText(String.format("%d", stats.played));
+
+        TextView gamesWonView = (TextView) findViewById(R.id.games_won);
+        gamesWonView.setText(String.format("%d", stats.won));
+
+        TextView percentWonView = (TextView) findViewById(R.id.percent_won);
+        int percent = stats.getWinPercentage();
+        if (percent > -1) {
+            percentWonView.setText(String.format("(%d%%)", percent));
+        } else {
+            percentWonView.setText("(--%)");
         }
     }
 
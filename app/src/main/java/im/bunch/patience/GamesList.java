@@ -3,6 +3,7 @@ package im.bunch.patience;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.os.AsyncTask;
 import android.os.Bundle;
@@ -14,11 +15,13 @@ import android.support.v4.widget.CursorAdapter;
 import android.support.v4.widget.SimpleCursorAdapter;
 import android.support.v7.app.AppCompatActivity;
 import android.text.format.DateUtils;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.SimpleAdapter;
@@ -40,8 +43,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import im.bunch.patience.model.JavascriptModel;
+import im.bunch.patience.files.ScriptCatalog;
+import im.bunch.patience.game.graphics.TextureLoader;
+import im.bunch.patience.model.RuntimePool;
 import im.bunch.patience.storage.SavedGameStorage;
+import im.bunch.patience.view.Card;
 
 public class GamesList extends AppCompatActivity {
 
@@ -50,9 +56,20 @@ public class GamesList extends AppCompatActivity {
 
     public static final String SCRIPTS_DIR = "scripts";
 
+    // most games lay out seven columns of cards, like klondike
+    private static final int PREWARM_COLUMNS = 7;
+
+    // start reading the next page of saved games this many rows before the end of the list
+    private static final int PREFETCH_DISTANCE = 10;
+
     private SQLiteDatabase mDatabase;
     private SavedGameStorage mGameStorage;
+    // the pages of saved games read so far, merged into the cursor shown by the list; another
+    // page is read after the last one as the end of the list comes into view
+    private List<Page> mPages;
     private Cursor mCursor;
+    private boolean mLoadingMore;
+    private boolean mLastPage;
     private ListView mGamesListView;
     private SwipeActionAdapter mSavesSwipeAdapter;
     private SimpleCursorAdapter mSavesCursorAdapter;
@@ -63,6 +80,13 @@ public class GamesList extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_games_list);
 
+        // start decoding card images while the user picks a game, sized for a typical board
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int cardWidth = metrics.widthPixels / PREWARM_COLUMNS;
+        TextureLoader.get(this).prewarm(
+                cardWidth, (int) (cardWidth * Card.HEIGHT_WIDTH_RATIO)
+        );
+
         mGamesListView = (ListView) findViewById(R.id.gamesList);
 
         // initialize views
@@ -135,24 +159,17 @@ public class GamesList extends AppCompatActivity {
 
             @Override
             protected Boolean doInBackground(Object... params) {
-                for (String filename : getScripts()) {
-                    try {
-                        String script = loadScript(GamesList.this, filename);
-                        JavascriptModel model = new JavascriptModel(GamesList.this, script);
-
-                        Map<String, String> entry = new HashMap<>();
-                        entry.put("filename", filename);
-                        scripts.add(entry);
-
-                        namesMap.put(filename, model.getName());
-                        descriptionsMap.put(filename, model.getDescription());
+                // script properties come from the catalog, which only runs scripts that changed
+                ScriptCatalog catalog = ScriptCatalog.get(GamesList.this);
+                for (ScriptCatalog.ScriptInfo info : catalog.list()) {
+                    Map<String, String> entry = new HashMap<>();
+                    entry.put("filename", info.filename);
+                    scripts.add(entry);
 
-                        adapter.notifyDataSetChanged();
-
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                    namesMap.put(info.filename, info.name);
+                    descriptionsMap.put(info.filename, info.description);
 
+                    adapter.notifyDataSetChanged();
                 }
                 return true;
             }
@@ -200,23 +217,6 @@ public class GamesList extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
-    /**
-     * Enumerate a list of script file names.
-     *
-     * @return
-     */
-    private List<String> getScripts() {
-
-        File dir = this.getDir(SCRIPTS_DIR, Context.MODE_PRIVATE);
-        List<String> result = new ArrayList<>();
-
-        for (final File f : dir.listFiles()) {
-            result.add(f.getName());
-        }
-
-        return result;
-    }
-
     /**
      * Load a script from a given filename.
      *
@@ -244,17 +244,37 @@ public class GamesList extends AppCompatActivity {
      */
     private class PopulateSavesTask extends AsyncTask<Object, Object, Object> {
 
+        private String mRecent;
+
         @Override
         protected Object doInBackground(Object... params) {
             mGameStorage = new SavedGameStorage(GamesList.this);
             mDatabase = mGameStorage.getReadableDatabase();
-            mCursor = mGameStorage.getCursor(mDatabase);
+            List<Page> pages = readPages(SavedGameStorage.PAGE_SIZE);
+
+            // the most recently played game is the one most likely to be opened next
+            Cursor first = pages.get(0).cursor;
+            if (first.moveToFirst()) {
+                mRecent = first.getString(first.getColumnIndex(
+                        SavedGameStorage.SavedGameEntry.COLUMN_NAME_SCRIPT));
+            }
+            mPages = pages;
+            mLastPage = isLastPage(pages);
+            mCursor = merge(pages);
 
             String[] fromColumns = {SavedGameStorage.SavedGameEntry.COLUMN_NAME_NAME,
                     SavedGameStorage.SavedGameEntry.COLUMN_NAME_TIMESTAMP};
             int[] toViews = {R.id.game_name, R.id.timestamp};
             mSavesCursorAdapter = new SimpleCursorAdapter(GamesList.this,
-                    R.layout.games_list_item, mCursor, fromColumns, toViews, 0);
+                    R.layout.games_list_item, mCursor, fromColumns, toViews, 0) {
+                @Override
+                public View getView(int position, View convertView, ViewGroup parent) {
+                    if (position >= getCount() - PREFETCH_DISTANCE) {
+                        loadMore();
+                    }
+                    return super.getView(position, convertView, parent);
+                }
+            };
 
             mSavesSwipeAdapter = new SwipeActionAdapter(mSavesCursorAdapter);
             // Pass a reference of your ListView to the SwipeActionAdapter
@@ -291,37 +311,180 @@ public class GamesList extends AppCompatActivity {
 
             // add a click listener that opens the saved game
             mGamesListView.setOnItemClickListener(new SavesClickListener());
+
+            if (mRecent != null) {
+                new PrewarmTask().executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, mRecent);
+            }
+        }
+    }
+
+    /**
+     * This asynchronous task gets a runtime of a game script ready in the RuntimePool, so that
+     * opening a game of it does not have to wait for the script to run. It does not wait behind
+     * the other tasks, and they do not wait behind it.
+     */
+    private class PrewarmTask extends AsyncTask<String, Object, Object> {
+
+        @Override
+        protected Object doInBackground(String... filenames) {
+            try {
+                String script = loadScript(GamesList.this, filenames[0]);
+                RuntimePool.get(GamesList.this).prewarm(script);
+            } catch (IOException e) {
+                Log.w("List", "Could not prewarm " + filenames[0], e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A page of saved games and the timestamp and id of its last row, which the next page is read
+     * after. They are read along with the page because its cursor must not be moved once it is
+     * shown.
+     */
+    private static class Page {
+        final Cursor cursor;
+        final long lastTimestamp;
+        final long lastId;
+
+        /**
+         * Must be called before the cursor is shown.
+         */
+        Page(Cursor cursor) {
+            this.cursor = cursor;
+            if (cursor.moveToLast()) {
+                int timestamp = cursor.getColumnIndex(
+                        SavedGameStorage.SavedGameEntry.COLUMN_NAME_TIMESTAMP);
+                lastTimestamp = cursor.getLong(timestamp);
+                lastId = cursor.getLong(0);
+            } else {
+                lastTimestamp = 0;
+                lastId = 0;
+            }
+        }
+    }
+
+    /**
+     * Read pages of saved games from the start of the list, until at least a number of rows or
+     * the last page has been read. Must not be called on the UI thread.
+     */
+    private List<Page> readPages(int rows) {
+        List<Page> pages = new ArrayList<>();
+        Page page = new Page(mGameStorage.getCursor(mDatabase));
+        pages.add(page);
+        int count = page.cursor.getCount();
+        while (count < rows && page.cursor.getCount() == SavedGameStorage.PAGE_SIZE) {
+            page = new Page(mGameStorage.getCursorAfter(mDatabase, page.lastTimestamp,
+                    page.lastId));
+            pages.add(page);
+            count += page.cursor.getCount();
+        }
+        return pages;
+    }
+
+    private static boolean isLastPage(List<Page> pages) {
+        return pages.get(pages.size() - 1).cursor.getCount() < SavedGameStorage.PAGE_SIZE;
+    }
+
+    private static Cursor merge(List<Page> pages) {
+        Cursor[] cursors = new Cursor[pages.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = pages.get(i).cursor;
+        }
+        return new MergeCursor(cursors);
+    }
+
+    /**
+     * Show pages of saved games in the list, and close the pages shown before that are not part
+     * of them.
+     */
+    private void showPages(List<Page> pages) {
+        List<Page> old = mPages;
+        mPages = pages;
+        mLastPage = isLastPage(pages);
+        mCursor = merge(pages);
+        // the old merged cursor is not closed, it shares pages with the new one
+        mSavesCursorAdapter.swapCursor(mCursor);
+        mSavesSwipeAdapter.notifyDataSetChanged();
+        for (Page page : old) {
+            if (!pages.contains(page)) {
+                page.cursor.close();
+            }
         }
     }
 
     /**
-     * This asynchronous task archives saved games.
+     * Read the page after the last one, unless one is already being read or every saved game
+     * has been read.
      */
-    private class ArchiveTask extends AsyncTask<Integer, Integer, Cursor> {
+    private void loadMore() {
+        if (mLoadingMore || mCursor == null || mLastPage) {
+            return;
+        }
+        Page last = mPages.get(mPages.size() - 1);
+        mLoadingMore = true;
+        new LoadMoreTask(mPages).execute(last.lastTimestamp, last.lastId);
+    }
 
+    /**
+     * This asynchronous task reads the page of saved games after a given timestamp and id, and
+     * adds it to the end of the list.
+     */
+    private class LoadMoreTask extends AsyncTask<Long, Object, Page> {
+
+        private final List<Page> mBase;
+
+        LoadMoreTask(List<Page> base) {
+            mBase = base;
+        }
+
+        @Override
+        protected Page doInBackground(Long... params) {
+            return new Page(mGameStorage.getCursorAfter(mDatabase, params[0], params[1]));
+        }
+
+        @Override
+        protected void onPostExecute(Page result) {
+            mLoadingMore = false;
+            if (mPages != mBase) {
+                // the list was read again while this page was read
+                result.cursor.close();
+                return;
+            }
+            List<Page> pages = new ArrayList<>(mPages);
+            pages.add(result);
+            showPages(pages);
+        }
+    }
+
+    /**
+     * This asynchronous task archives saved games, by id, and reads the list again.
+     */
+    private class ArchiveTask extends AsyncTask<Long, Integer, List<Page>> {
+
+        private final int mRows;
         Long[] mTargets;
 
+        /**
+         * @param rows The number of saved games in the list now, to read back.
+         */
+        ArchiveTask(int rows) {
+            mRows = rows;
+        }
+
         @Override
-        protected Cursor doInBackground(Integer... positions) {
-            int count = positions.length;
+        protected List<Page> doInBackground(Long... ids) {
+            int count = ids.length;
             int i = 0;
-            mTargets = new Long[count];
-
-            // get a new cursor to avoid modifying the old one
-            Cursor temp = mGameStorage.getCursor(mDatabase);
-
-            for (int pos : positions) {
-                if (temp.moveToPosition(pos)) {
-                    long id = temp.getLong(0);
-                    mGameStorage.archiveGame(mDatabase, id);
-                    publishProgress((int) ((float) i / count) * 100);
-                    mTargets[i] = id;
-                    i++;
-                }
+            mTargets = ids;
+
+            for (long id : ids) {
+                mGameStorage.archiveGame(mDatabase, id);
+                publishProgress((int) ((float) i / count) * 100);
+                i++;
             }
-            temp.close();
 
-            return mGameStorage.getCursor(mDatabase);
+            return readPages(mRows);
         }
 
         @Override
@@ -330,14 +493,8 @@ public class GamesList extends AppCompatActivity {
         }
 
         @Override
-        protected void onPostExecute(Cursor cursor) {
-            // TODO: synchronize the cursor?
-            mSavesCursorAdapter.swapCursor(cursor);
-            //mSavesCursorAdapter.notifyDataSetChanged();
-            // TODO: Testing with this line
-            mSavesSwipeAdapter.notifyDataSetChanged();
-            mCursor.close();
-            mCursor = cursor;
+        protected void onPostExecute(List<Page> pages) {
+            showPages(pages);
             Log.i("List", "Updated cursor.");
 
             //CoordinatorLayout coordinatorLayout = new CoordinatorLayout(GamesList.this);
@@ -353,12 +510,21 @@ public class GamesList extends AppCompatActivity {
     };
 
     /**
-     * This asynchronous unarchives saved games.
+     * This asynchronous unarchives saved games, by id, and reads the list again.
      */
-    private class UnarchiveTask extends AsyncTask<Long, Integer, Cursor> {
+    private class UnarchiveTask extends AsyncTask<Long, Integer, List<Page>> {
+
+        private final int mRows;
+
+        /**
+         * @param rows The number of saved games in the list once they are unarchived.
+         */
+        UnarchiveTask(int rows) {
+            mRows = rows;
+        }
 
         @Override
-        protected Cursor doInBackground(Long... ids) {
+        protected List<Page> doInBackground(Long... ids) {
             int count = ids.length;
             int i = 0;
 
@@ -368,7 +534,7 @@ public class GamesList extends AppCompatActivity {
                 i++;
             }
 
-            return mGameStorage.getCursor(mDatabase);
+            return readPages(mRows);
         }
 
         @Override
@@ -377,12 +543,8 @@ public class GamesList extends AppCompatActivity {
         }
 
         @Override
-        protected void onPostExecute(Cursor result) {
-            mSavesCursorAdapter.swapCursor(result);
-            //mSavesCursorAdapter.notifyDataSetChanged();
-            mCursor.close();
-            mCursor = result;
-            mSavesSwipeAdapter.notifyDataSetChanged();
+        protected void onPostExecute(List<Page> pages) {
+            showPages(pages);
         }
     }
 
@@ -401,9 +563,10 @@ public class GamesList extends AppCompatActivity {
         @Override
         public boolean shouldDismiss(int position, SwipeDirection direction) {
             // Only dismiss an item when swiping normal right
-            if (direction == SwipeDirection.DIRECTION_NORMAL_RIGHT) {
-                ArchiveTask archiveTask = new ArchiveTask();
-                archiveTask.execute(position);
+            if (direction == SwipeDirection.DIRECTION_NORMAL_RIGHT
+                    && mCursor.moveToPosition(position)) {
+                ArchiveTask archiveTask = new ArchiveTask(mCursor.getCount());
+                archiveTask.execute(mCursor.getLong(0));
                 return true;
             }
             return false;
@@ -438,16 +601,13 @@ public class GamesList extends AppCompatActivity {
 
         @Override
         public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-            // Use a temporary cursor to avoid crashes? Does this work?
-            Cursor temp = mGameStorage.getCursor(mDatabase);
-            if (temp.moveToPosition(position)) {
-                if (temp.getColumnCount() > 0) {
-                    long index = temp.getLong(0);
-                    String filename = temp.getString(2);
+            if (mCursor.moveToPosition(position)) {
+                if (mCursor.getColumnCount() > 0) {
+                    long index = mCursor.getLong(0);
+                    String filename = mCursor.getString(2);
                     Intent intent = new Intent(GamesList.this, GameActivity.class);
                     intent.putExtra(EXTRA_SAVE_ID, index);
                     intent.putExtra(EXTRA_SCRIPT_FILENAME, filename);
-                    temp.close();
                     startActivity(intent);
                 } else {
                     Log.w("List", "No columns?");
@@ -464,7 +624,8 @@ public class GamesList extends AppCompatActivity {
 
         @Override
         public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
-            if (columnIndex == 4) {
+            if (columnIndex == cursor.getColumnIndex(
+                    SavedGameStorage.SavedGameEntry.COLUMN_NAME_TIMESTAMP)) {
                 TextView timeView = (TextView) view;
                 long timestamp = cursor.getLong(columnIndex);
 
@@ -493,7 +654,7 @@ public class GamesList extends AppCompatActivity {
 
         @Override
         public void onClick(View v) {
-            new UnarchiveTask().execute(mTargets);
+            new UnarchiveTask(mCursor.getCount() + mTargets.length).execute(mTargets);
         }
     }
 
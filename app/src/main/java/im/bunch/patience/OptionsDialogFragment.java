@@ -44,32 +44,35 @@ public class OptionsDialogFragment extends DialogFragment {
 
     // TODO: use setArguments() poperly
     public void setModel(JavascriptModel model) {
-        V8Object options = model.getOptions();
-        synchronized (model) {
-            model.acquireLock();
-            mOptions = new HashMap<>();
-
-            // build the option arrays
-            List<String> keys = new ArrayList<>();
-            List<String> names = new ArrayList<>();
-            List<Boolean> defaults = new ArrayList<>();
-            for (String key : options.getKeys()) {
-                keys.add(key);
-                V8Object option = options.getObject(key);
-                names.add(option.getString("display"));
-                boolean d = option.getBoolean("value");
-                defaults.add(d);
-                mOptions.put(key, d);
-            }
-            boolean[] temp = new boolean[defaults.size()];
-            mOptionKeys = keys.toArray(new String[keys.size()]);
-            mOptionNames = names.toArray(new String[names.size()]);
-            for (int i = 0; i < defaults.size(); i++) {
-                temp[i] = defaults.get(i);
+        final V8Object options = model.getOptions();
+        model.run(new Runnable() {
+            @Override
+            public void run() {
+                mOptions = new HashMap<>();
+
+                // build the option arrays
+                List<String> keys = new ArrayList<>();
+                List<String> names = new ArrayList<>();
+                List<Boolean> defaults = new ArrayList<>();
+                for (String key : options.getKeys()) {
+                    keys.add(key);
+                    V8Object option = options.getObject(key);
+                    names.add(option.getString("display"));
+                    boolean d = option.getBoolean("value");
+                    defaults.add(d);
+                    mOptions.put(key, d);
+                    option.release();
+                }
+                options.release();
+                boolean[] temp = new boolean[defaults.size()];
+                mOptionKeys = keys.toArray(new String[keys.size()]);
+                mOptionNames = names.toArray(new String[names.size()]);
+                for (int i = 0; i < defaults.size(); i++) {
+                    temp[i] = defaults.get(i);
+                }
+                mOptionDefaults = temp;
             }
-            mOptionDefaults = temp;
-            model.releaseLock();
-        }
+        });
     }
 
     /**
@@ -1,12 +1,8 @@
 package im.bunch.patience.files;
 
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.util.Log;
 
-import com.eclipsesource.v8.JavaVoidCallback;
-import com.eclipsesource.v8.Releasable;
-import com.eclipsesource.v8.V8Array;
 import com.eclipsesource.v8.V8Object;
 
 import org.apache.commons.io.IOUtils;
@@ -22,6 +18,7 @@ import java.util.List;
 import com.eclipsesource.v8.V8;
 
 import im.bunch.patience.GameActivity;
+import im.bunch.patience.model.RuntimePool;
 
 /**
  * A class designed to mediate between Android storage and program logic so that activities are not
@@ -35,6 +32,7 @@ public class GameRules {
     public static final String LOG_TAG = "GameRules";
     public static final String SHEBANG = "//#!GameRules";
 
+    private RuntimePool.Lease lease;
     private V8 runtime;
     private String filename;
     private String script;
@@ -44,13 +42,14 @@ public class GameRules {
     /**
      * Initialize a game rule with a context and script.
      *
-     * @param runtime the V8 runtime used to run the script.
+     * @param lease the leased V8 runtime used to run the script.
      * @param script The script used.
      * @throws IOException
      */
-    public GameRules(V8 runtime, String filename, String script)
+    public GameRules(RuntimePool.Lease lease, String filename, String script)
             throws IOException {
-        this.runtime = runtime;
+        this.lease = lease;
+        this.runtime = lease.getRuntime();
         this.filename = filename;
         this.script = script;
     }
@@ -68,7 +67,12 @@ public class GameRules {
      * @return The name.
      */
     public String getName() {
-        return runtime.getObject("properties").getString("name");
+        runtime.getLocker().acquire();
+        V8Object properties = runtime.getObject("properties");
+        String name = properties.getString("name");
+        properties.release();
+        runtime.getLocker().release();
+        return name;
     }
 
     /**
@@ -110,41 +114,25 @@ public class GameRules {
     }
 
     /**
-     * Load a game rule from a script and an Android application context.
+     * Load a game rule from a script and an Android application context. The runtime comes from
+     * the RuntimePool, so destroy() should be called to give it back.
      *
      * @param ctx The application context to load common.js from.
      * @param script The script to read
      * @return The game rule.
      */
     public static GameRules load(Context ctx, String name, String script) throws IOException {
-        final AssetManager am = ctx.getAssets();
-        // load common.js
-        String common = IOUtils.toString(am.open("common.js"));
-
-        V8 runtime = V8.createV8Runtime("","/tmp");
-        final GameRules rules = new GameRules(runtime, name, script);
-
-        JavaVoidCallback callback = new JavaVoidCallback() {
-            public void invoke(final V8Object receiver, final V8Array parameters) {
-                if (parameters.length() > 0) {
-                    Object arg1 = parameters.get(0);
-                    System.out.println(arg1);
-                    if (arg1 instanceof Releasable) {
-                        ((Releasable) arg1).release();
-                    }
-                }
-            }
-        };
-        // allow printing
-        runtime.registerJavaMethod(callback, "print");
-
-        runtime.executeScript(common);
-        runtime.executeScript(script);
-
-        return rules;
+        return new GameRules(RuntimePool.get(ctx).obtain(script), name, script);
     }
 
+    /**
+     * Return the runtime to the pool. The game rule must not be used afterwards.
+     */
     public void destroy() {
-        this.runtime.release();
+        if (this.lease != null) {
+            this.lease.release();
+            this.lease = null;
+            this.runtime = null;
+        }
     }
 }
@@ -0,0 +1,252 @@
+package im.bunch.patience.files;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.eclipsesource.v8.V8Object;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import im.bunch.patience.GamesList;
+import im.bunch.patience.model.JavascriptModel;
+
+/**
+ * A persistent catalog of the properties of every game script, so that lists of games can be
+ * shown without starting a V8 runtime. The properties of a script are only extracted again when
+ * the checksum of the script file or of common.js, which every script runs on top of, changes.
+ *
+ * @author Creston Bunch
+ */
+public class ScriptCatalog {
+
+    public static final String LOG_TAG = "ScriptCatalog";
+    public static final String CATALOG_FILENAME = "script_catalog.json";
+
+    /** Bump this whenever ScriptInfo changes so that old catalogs are thrown away. */
+    public static final int CATALOG_VERSION = 1;
+
+    private static ScriptCatalog sInstance;
+
+    private final Context mContext;
+    private final Gson mGson;
+    private Catalog mCatalog;
+    private String mCommon;
+
+    /**
+     * The properties of a single game script.
+     */
+    public static class ScriptInfo {
+        public String filename;
+        public String checksum;
+        public String name;
+        public String description;
+        public String rules;
+        public LinkedHashMap<String, Option> options;
+    }
+
+    /**
+     * A game option and its default value.
+     */
+    public static class Option {
+        public String display;
+        public boolean value;
+    }
+
+    /**
+     * The on-disk representation of the catalog.
+     */
+    private static class Catalog {
+        int version;
+        HashMap<String, ScriptInfo> scripts;
+    }
+
+    /**
+     * Get the script catalog for this application.
+     *
+     * @param ctx Any context in the application.
+     */
+    public static synchronized ScriptCatalog get(Context ctx) {
+        if (sInstance == null) {
+            sInstance = new ScriptCatalog(ctx.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ScriptCatalog(Context context) {
+        mContext = context;
+        mGson = new Gson();
+    }
+
+    /**
+     * List the properties of every script in the scripts directory, sorted by filename.
+     */
+    public synchronized List<ScriptInfo> list() {
+        File dir = mContext.getDir(GamesList.SCRIPTS_DIR, Context.MODE_PRIVATE);
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+
+        List<ScriptInfo> result = new ArrayList<>();
+        for (File f : files) {
+            ScriptInfo info = get(f.getName());
+            if (info != null) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the properties of a script from its filename. Returns null if the script cannot be
+     * read.
+     */
+    public synchronized ScriptInfo get(String filename) {
+        load();
+
+        String script;
+        try {
+            if (mCommon == null) {
+                mCommon = IOUtils.toString(mContext.getAssets().open("common.js"));
+            }
+            script = GamesList.loadScript(mContext, filename);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not read script " + filename, e);
+            return null;
+        }
+
+        String checksum = checksum(mCommon, script);
+        ScriptInfo info = mCatalog.scripts.get(filename);
+        if (info != null && checksum.equals(info.checksum)) {
+            return info;
+        }
+
+        try {
+            Log.i(LOG_TAG, "Extracting properties from " + filename);
+            info = extract(filename, script);
+            info.checksum = checksum;
+            mCatalog.scripts.put(filename, info);
+            save();
+            return info;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not extract properties from " + filename, e);
+            return null;
+        }
+    }
+
+    /**
+     * Run the script to read its properties and the options of a new game.
+     */
+    private ScriptInfo extract(String filename, String script) throws IOException {
+        final ScriptInfo info = new ScriptInfo();
+        info.filename = filename;
+        info.options = new LinkedHashMap<>();
+
+        JavascriptModel model = new JavascriptModel(mContext, script);
+        try {
+            info.name = model.getName();
+            info.description = model.getDescription();
+            info.rules = model.getRules();
+
+            model.initialize();
+            final V8Object options = model.getOptions();
+            model.run(new Runnable() {
+                @Override
+                public void run() {
+                    for (String key : options.getKeys()) {
+                        V8Object jsOption = options.getObject(key);
+                        Option option = new Option();
+                        option.display = jsOption.getString("display");
+                        option.value = jsOption.getBoolean("value");
+                        info.options.put(key, option);
+                        jsOption.release();
+                    }
+                    options.release();
+                }
+            });
+        } finally {
+            model.release();
+        }
+
+        return info;
+    }
+
+    /**
+     * Read the catalog from disk, or start a new one if it is missing or out of date.
+     */
+    private void load() {
+        if (mCatalog != null) {
+            return;
+        }
+
+        File file = new File(mContext.getFilesDir(), CATALOG_FILENAME);
+        if (file.exists()) {
+            Reader reader = null;
+            try {
+                reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+                mCatalog = mGson.fromJson(reader, Catalog.class);
+            } catch (IOException | JsonParseException e) {
+                Log.w(LOG_TAG, "Could not read the script catalog, rebuilding it.", e);
+            } finally {
+                IOUtils.closeQuietly(reader);
+            }
+        }
+
+        if (mCatalog == null || mCatalog.version != CATALOG_VERSION || mCatalog.scripts == null) {
+            mCatalog = new Catalog();
+            mCatalog.version = CATALOG_VERSION;
+            mCatalog.scripts = new HashMap<>();
+        }
+    }
+
+    /**
+     * Write the catalog to disk.
+     */
+    private void save() {
+        File file = new File(mContext.getFilesDir(), CATALOG_FILENAME);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            mGson.toJson(mCatalog, writer);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not write the script catalog.", e);
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Calculate an MD5 checksum of a script and the common.js it runs on.
+     */
+    private static String checksum(String common, String script) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(common.getBytes("UTF-8"));
+            byte[] hash = digest.digest(script.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder();
+            for (byte b : hash) {
+                builder.append(String.format("%02x", b & 0xff));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // every platform has MD5 and UTF-8, so fall back to something that still changes
+            return Integer.toHexString(31 * common.hashCode() + script.hashCode());
+        }
+    }
+}
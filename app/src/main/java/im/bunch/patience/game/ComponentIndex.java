@@ -0,0 +1,191 @@
+package im.bunch.patience.game;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ordered store of components, sorted by getOrder(). Components are inserted in order when they
+ * are added, and only moved when reorder() finds that their order has changed, so the whole list
+ * never has to be sorted again.
+ *
+ * The sorted components are published as immutable snapshots. Each change builds a new snapshot,
+ * so a snapshot can be iterated on any thread without copying it, even while components are being
+ * registered or unregistered. Components with the same order keep the order they were added in.
+ *
+ * This class is not thread safe for writers; the ComponentManager serializes changes.
+ *
+ * @author Creston Bunch
+ */
+public class ComponentIndex {
+
+    private static final Component[] EMPTY = new Component[0];
+
+    private final Map<Component, Boolean> mMembers;
+    private Component[] mComponents;
+    private int[] mOrders;
+    private volatile List<Component> mSnapshot;
+
+    /**
+     * Construct an empty index.
+     */
+    public ComponentIndex() {
+        mMembers = new IdentityHashMap<>();
+        publish(EMPTY, new int[0]);
+    }
+
+    /**
+     * Get an immutable snapshot of every component, sorted by order.
+     */
+    public List<Component> snapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Check if a component is in the index.
+     */
+    public boolean contains(Component c) {
+        return mMembers.containsKey(c);
+    }
+
+    /**
+     * Get the number of components in the index.
+     */
+    public int size() {
+        return mComponents.length;
+    }
+
+    /**
+     * Insert a component after every component with the same or a lower order.
+     */
+    public void add(Component c) {
+        if (mMembers.put(c, Boolean.TRUE) != null) {
+            return;
+        }
+        int order = c.getOrder();
+        int index = upperBound(mOrders, mOrders.length, order);
+
+        int n = mComponents.length;
+        Component[] components = new Component[n + 1];
+        int[] orders = new int[n + 1];
+        System.arraycopy(mComponents, 0, components, 0, index);
+        System.arraycopy(mOrders, 0, orders, 0, index);
+        components[index] = c;
+        orders[index] = order;
+        System.arraycopy(mComponents, index, components, index + 1, n - index);
+        System.arraycopy(mOrders, index, orders, index + 1, n - index);
+        publish(components, orders);
+    }
+
+    /**
+     * Remove a component. Returns false if it was not in the index.
+     */
+    public boolean remove(Component c) {
+        if (mMembers.remove(c) == null) {
+            return false;
+        }
+        int n = mComponents.length;
+        int index = indexOf(c);
+        Component[] components = new Component[n - 1];
+        int[] orders = new int[n - 1];
+        System.arraycopy(mComponents, 0, components, 0, index);
+        System.arraycopy(mOrders, 0, orders, 0, index);
+        System.arraycopy(mComponents, index + 1, components, index, n - index - 1);
+        System.arraycopy(mOrders, index + 1, orders, index, n - index - 1);
+        publish(components, orders);
+        return true;
+    }
+
+    /**
+     * Remove every component.
+     */
+    public void clear() {
+        mMembers.clear();
+        publish(EMPTY, new int[0]);
+    }
+
+    /**
+     * Move every component whose order changed since it was last keyed. Nothing is allocated
+     * unless at least one order changed.
+     *
+     * @return true if a new snapshot was published.
+     */
+    public boolean reorder() {
+        int n = mComponents.length;
+        int first = -1;
+        for (int i = 0; i < n; i++) {
+            if (mComponents[i].getOrder() != mOrders[i]) {
+                first = i;
+                break;
+            }
+        }
+        if (first < 0) {
+            return false;
+        }
+
+        Component[] components = mComponents.clone();
+        int[] orders = mOrders.clone();
+        for (int i = first; i < n; i++) {
+            orders[i] = components[i].getOrder();
+        }
+
+        // the list is nearly sorted, so a stable insertion sort only moves the changed components
+        for (int i = Math.max(first, 1); i < n; i++) {
+            Component c = components[i];
+            int order = orders[i];
+            int j = i - 1;
+            if (orders[j] <= order) {
+                continue;
+            }
+            int index = upperBound(orders, j, order);
+            System.arraycopy(components, index, components, index + 1, i - index);
+            System.arraycopy(orders, index, orders, index + 1, i - index);
+            components[index] = c;
+            orders[index] = order;
+        }
+        publish(components, orders);
+        return true;
+    }
+
+    private void publish(Component[] components, int[] orders) {
+        mComponents = components;
+        mOrders = orders;
+        mSnapshot = Collections.unmodifiableList(Arrays.asList(components));
+    }
+
+    private int indexOf(Component c) {
+        // start from the last known order of the component and search outwards from there
+        int order = c.getOrder();
+        int index = upperBound(mOrders, mOrders.length, order) - 1;
+        for (int i = index; i >= 0 && mOrders[i] == order; i--) {
+            if (mComponents[i] == c) {
+                return i;
+            }
+        }
+        for (int i = 0; i < mComponents.length; i++) {
+            if (mComponents[i] == c) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Component is not in the index.");
+    }
+
+    /**
+     * Find the first index in orders[0, length) with an order greater than the given order.
+     */
+    private static int upperBound(int[] orders, int length, int order) {
+        int lo = 0;
+        int hi = length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (orders[mid] <= order) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
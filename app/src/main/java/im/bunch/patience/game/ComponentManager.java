@@ -1,14 +1,13 @@
 package im.bunch.patience.game;
 
 import android.content.Context;
-import android.util.Log;
+import android.graphics.Rect;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 import im.bunch.patience.geometry.Point;
+import im.bunch.patience.metrics.Metrics;
 
 /**
  * Tracks game components. These are components that are views and can be interacted with. Each
@@ -21,14 +20,23 @@ public class ComponentManager {
 
     public static final String LOG_TAG = "CmptMgr";
 
-    private List<Component> mComponentList;
+    private ComponentIndex mComponents;
+    private SpatialIndex mGrid;
+    private Draggable mDragged;
+    private FrameScheduler mScheduler;
     private Context mContext;
+    // written by the cards when the surface changes, read by the renderer every frame
+    private volatile int mCardWidth;
+    private volatile int mCardHeight;
+    // changed around every update, so the renderer can tell layout changes from dragging
+    private volatile int mLayoutVersion;
 
     /**
      * Initialize the ComponentManager with an empty list of components.
      */
     public ComponentManager(Context context) {
-        mComponentList = new ArrayList<>();
+        mComponents = new ComponentIndex();
+        mGrid = new SpatialIndex(1, 1);
         mContext = context;
     }
 
@@ -38,87 +46,193 @@ public class ComponentManager {
      * @param c
      */
     public synchronized void registerComponent(Component c) {
-        mComponentList.add(c);
+        mComponents.add(c);
         c.onRegister(this);
     }
 
     public synchronized void unregisterComponent(Component c) {
-        boolean result = mComponentList.remove(c);
+        boolean result = mComponents.remove(c);
+        mGrid.remove(c);
+        if (c == mDragged) {
+            setDragged(null);
+        }
         c.onUnregister(this);
     }
 
-    // TODO: components should be in some kind of priority queue
-    public synchronized List<Component> getComponents() {
-        Collections.sort(mComponentList, new Comparator<Component>() {
-            @Override
-            public int compare(Component lhs, Component rhs) {
-                if (lhs != null && rhs == null) {
-                    return lhs.getOrder();
-                } else if (rhs != null && lhs == null) {
-                    return 0 - rhs.getOrder();
-                } else if (lhs == null && rhs == null) {
-                    return 0;
-                }
-                return lhs.getOrder() - rhs.getOrder();
-            }
-        });
-        return mComponentList;
+    /**
+     * Get an immutable snapshot of every registered component, sorted by order. The snapshot does
+     * not change when components are registered or unregistered, so it can be iterated without
+     * holding a lock or copying it.
+     */
+    public List<Component> getComponents() {
+        return mComponents.snapshot();
+    }
+
+    /**
+     * Check if a component is registered with this component manager.
+     */
+    public synchronized boolean isRegistered(Component c) {
+        return mComponents.contains(c);
+    }
+
+    /**
+     * Start dragging a component. Until the drag ends or is canceled, drag events only move this
+     * component, and other components are not updated.
+     */
+    public synchronized void beginDrag(Draggable c) {
+        setDragged(c);
+    }
+
+    /**
+     * Set the scheduler that is told when components change, so that frames are only drawn when
+     * needed.
+     */
+    public synchronized void setFrameScheduler(FrameScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Get the component being dragged, or null if nothing is being dragged.
+     */
+    public synchronized Draggable getDragged() {
+        return mDragged;
+    }
+
+    /**
+     * Get every component at a point. The components are looked up in a grid that is refreshed
+     * after each update, so only the components near the point are tested.
+     */
+    public synchronized List<Component> getComponentsAt(Point p) {
+        List<Component> targets = new ArrayList<>();
+        mGrid.findAt(p, targets);
+        return targets;
+    }
+
+    /**
+     * Get every rectangle component whose bounds intersect a rectangle.
+     */
+    public synchronized List<Component> getComponentsIn(Rect r) {
+        List<Component> targets = new ArrayList<>();
+        mGrid.findIn(r, targets);
+        return targets;
     }
 
     /**
      * Runs the update function on all components.
      */
     public synchronized void update() {
-        Long start = System.currentTimeMillis();
-        for (Component c : new ArrayList<>(this.getComponents())) {
+        long start = System.nanoTime();
+        mLayoutVersion++;
+        for (Component c : this.getComponents()) {
             c.onUpdate();
         }
-        Long end = System.currentTimeMillis();
-        Log.d(LOG_TAG, "Update cycle: " + Double.toString((end - start) / 1000.0) + "s");
+        // updating may have changed the order of components
+        mComponents.reorder();
+        refreshGrid();
+        mLayoutVersion++;
+        if (mScheduler != null) {
+            mScheduler.invalidate();
+        }
+        Metrics.UPDATE.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Change the dragged component. Frames are drawn continuously while something is dragged,
+     * because the dragged component moves without an update.
+     */
+    private void setDragged(Draggable c) {
+        if (mScheduler != null) {
+            if (mDragged == null && c != null) {
+                mScheduler.beginContinuous();
+            } else if (mDragged != null && c == null) {
+                mScheduler.endContinuous();
+            }
+        }
+        mDragged = c;
+    }
+
+    /**
+     * Copy the bounds of every component into the grid. Components that were unregistered are
+     * already out of the grid.
+     */
+    private void refreshGrid() {
+        List<Component> components = this.getComponents();
+        for (int i = 0; i < components.size(); i++) {
+            mGrid.update(components.get(i));
+        }
     }
 
     public Context getContext() {
         return this.mContext;
     }
 
+    /**
+     * Set the size cards are drawn at, so that card images can be loaded at that size.
+     */
+    public void setCardSize(int width, int height) {
+        mCardWidth = width;
+        mCardHeight = height;
+    }
+
+    public int getCardWidth() {
+        return mCardWidth;
+    }
+
+    public int getCardHeight() {
+        return mCardHeight;
+    }
+
+    /**
+     * Get a number that changes whenever components are laid out by an update. It changes both
+     * before and after the update, so a frame drawn during an update also sees a new version.
+     * Dragging moves components without changing it.
+     */
+    public int getLayoutVersion() {
+        return mLayoutVersion;
+    }
+
     /**
      * Activate drag start events for components at the given point.
      *
      * @param p
      */
-    public synchronized void onDragStart(Point p) {
-        // gather all components at this point
-        List<Component> targets = new ArrayList<>();
-        for (Component c : new ArrayList<>(this.getComponents())) {
-            if (c.collidesWithPoint(p)) {
-                targets.add(c);
-            }
-        }
+    public void onDragStart(Point p) {
+        long wait = System.nanoTime();
+        synchronized (this) {
+            Metrics.LOCK_WAIT.record(System.nanoTime() - wait);
+            // gather all components at this point
+            List<Component> targets = getComponentsAt(p);
 
-        for (Component c : new ArrayList<>(this.getComponents())) {
-            c.onDragStart(targets, p);
+            for (Component c : this.getComponents()) {
+                c.onDragStart(targets, p);
+            }
+            update();
         }
-        update();
     }
 
     /**
-     * Activate drag events for components at the given point.
+     * Activate drag events for components at the given point. While a component is being dragged,
+     * only that component is moved.
      *
      * @param p
      */
-    public synchronized void onDrag(Point p) {
-        // gather all components at this point
-        List<Component> targets = new ArrayList<>();
-        for (Component c : new ArrayList<>(this.getComponents())) {
-            if (c.collidesWithPoint(p)) {
-                targets.add(c);
+    public void onDrag(Point p) {
+        long wait = System.nanoTime();
+        synchronized (this) {
+            Metrics.LOCK_WAIT.record(System.nanoTime() - wait);
+            if (mDragged != null) {
+                mDragged.onDragMove(p);
+                return;
             }
-        }
 
-        for (Component c : new ArrayList<>(this.getComponents())) {
+            // gather all components at this point
+            List<Component> targets = getComponentsAt(p);
+
+            for (Component c : this.getComponents()) {
                 c.onDrag(targets, p);
+            }
+            update();
         }
-        update();
     }
 
     /**
@@ -126,20 +240,25 @@ public class ComponentManager {
      *
      * @param p
      */
-    public synchronized void onDragEnd(Point p) {
-        // gather all components at this point
-        List<Component> targets = new ArrayList<>();
-        for (Component c : new ArrayList<>(this.getComponents())) {
-            if (c.collidesWithPoint(p)) {
-                targets.add(c);
+    public void onDragEnd(Point p) {
+        long wait = System.nanoTime();
+        synchronized (this) {
+            Metrics.LOCK_WAIT.record(System.nanoTime() - wait);
+            if (mDragged != null) {
+                // the dragged component has moved since the grid was last refreshed
+                refreshGrid();
+                setDragged(null);
             }
-        }
 
-        // each component gets a list of all targets
-        for (Component c : new ArrayList<>(this.getComponents())) {
-            c.onDragEnd(targets, p);
+            // gather all components at this point
+            List<Component> targets = getComponentsAt(p);
+
+            // each component gets a list of all targets
+            for (Component c : this.getComponents()) {
+                c.onDragEnd(targets, p);
+            }
+            update();
         }
-        update();
     }
 
     /**
@@ -147,43 +266,52 @@ public class ComponentManager {
      *
      * @param p
      */
-    public synchronized void onTap(Point p) {
-        // gather all components at this point
-        List<Component> targets = new ArrayList<>();
-        for (Component c : new ArrayList<>(this.getComponents())) {
-            if (c.collidesWithPoint(p)) {
-                targets.add(c);
-            }
-        }
+    public void onTap(Point p) {
+        long wait = System.nanoTime();
+        synchronized (this) {
+            Metrics.LOCK_WAIT.record(System.nanoTime() - wait);
+            // gather all components at this point
+            List<Component> targets = getComponentsAt(p);
 
-        for (Component c : new ArrayList<>(this.getComponents())) {
-            c.onTap(targets, p);
+            for (Component c : this.getComponents()) {
+                c.onTap(targets, p);
+            }
+            update();
         }
-        update();
     }
 
     /**
      * Activate events when the surface shape changes.
      */
-    public synchronized void onSurfaceChanged(int width, int height) {
-        for (Component c : new ArrayList<>(this.getComponents())) {
-            c.onSurfaceChange(width, height);
+    public void onSurfaceChanged(int width, int height) {
+        long wait = System.nanoTime();
+        synchronized (this) {
+            Metrics.LOCK_WAIT.record(System.nanoTime() - wait);
+            mGrid.resize(width, height);
+            for (Component c : this.getComponents()) {
+                c.onSurfaceChange(width, height);
+            }
+            update();
         }
-        update();
     }
 
     /**
      * Cancels the drag event for components.
      */
-    public synchronized boolean cancelDrag() {
-        // each component gets canceled
-        boolean changed = false;
-        for (Component c : new ArrayList<>(this.getComponents())) {
-            if (c.onCancelDrag()) {
-                changed = true;
+    public boolean cancelDrag() {
+        long wait = System.nanoTime();
+        synchronized (this) {
+            Metrics.LOCK_WAIT.record(System.nanoTime() - wait);
+            // each component gets canceled
+            setDragged(null);
+            boolean changed = false;
+            for (Component c : this.getComponents()) {
+                if (c.onCancelDrag()) {
+                    changed = true;
+                }
             }
+            update();
+            return changed;
         }
-        update();
-        return changed;
     }
 }
@@ -0,0 +1,20 @@
+package im.bunch.patience.game;
+
+import im.bunch.patience.geometry.Point;
+
+/**
+ * A component that can be dragged around by itself. While a component is being dragged, the
+ * ComponentManager only moves that component on each drag event instead of running a whole update
+ * cycle. Everything else is updated again when the drag ends.
+ *
+ * @author Creston Bunch
+ */
+public interface Draggable extends Component {
+
+    /**
+     * Follow the pointer to a new point. Only this component and the components it carries should
+     * be moved, and nothing should call into the model.
+     */
+    void onDragMove(Point p);
+
+}
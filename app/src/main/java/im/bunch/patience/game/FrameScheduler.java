@@ -0,0 +1,117 @@
+package im.bunch.patience.game;
+
+import android.opengl.GLSurfaceView;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Decides when a GLSurfaceView in RENDERMODE_WHEN_DIRTY draws. Normally a frame is only drawn
+ * when something is invalidated, so nothing is drawn between moves. While something is moving
+ * on its own, like a dragged pile or an animation, frames are requested on every vsync instead,
+ * and the scheduler goes back to idle as soon as the last of them ends.
+ *
+ * Every method can be called from any thread. Vsync callbacks always run on the main thread.
+ *
+ * @author Creston Bunch
+ */
+public class FrameScheduler implements Choreographer.FrameCallback {
+
+    private final GLSurfaceView mView;
+    private final Handler mHandler;
+    private final Choreographer mChoreographer;
+
+    // guarded by this
+    private int mContinuous;
+    private boolean mPaused;
+    // only touched on the main thread
+    private boolean mPosted;
+
+    private final Runnable mPost = new Runnable() {
+        @Override
+        public void run() {
+            post();
+        }
+    };
+
+    /**
+     * Create a scheduler for a surface view. Must be called on the main thread.
+     */
+    public FrameScheduler(GLSurfaceView view) {
+        mView = view;
+        mHandler = new Handler(Looper.getMainLooper());
+        mChoreographer = Choreographer.getInstance();
+    }
+
+    /**
+     * Draw one more frame, because something visible changed.
+     */
+    public void invalidate() {
+        mView.requestRender();
+    }
+
+    /**
+     * Start drawing a frame on every vsync, until a matching call to endContinuous(). Calls can
+     * be nested, for example an animation that runs while a pile is dragged.
+     */
+    public synchronized void beginContinuous() {
+        mContinuous++;
+        if (mContinuous == 1 && !mPaused) {
+            mHandler.post(mPost);
+        }
+    }
+
+    /**
+     * Stop drawing a frame on every vsync, unless something else still needs it. One last frame
+     * is drawn so the final position is shown.
+     */
+    public synchronized void endContinuous() {
+        if (mContinuous > 0) {
+            mContinuous--;
+        }
+        invalidate();
+    }
+
+    /**
+     * Check if frames are being drawn on every vsync.
+     */
+    public synchronized boolean isContinuous() {
+        return mContinuous > 0 && !mPaused;
+    }
+
+    /**
+     * Stop requesting frames while the surface is paused.
+     */
+    public synchronized void pause() {
+        mPaused = true;
+    }
+
+    /**
+     * Start requesting frames again after a pause, if anything is still moving.
+     */
+    public synchronized void resume() {
+        mPaused = false;
+        if (mContinuous > 0) {
+            mHandler.post(mPost);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mPosted = false;
+        if (isContinuous()) {
+            mView.requestRender();
+            post();
+        }
+    }
+
+    /**
+     * Ask for a callback on the next vsync, unless one is already coming.
+     */
+    private void post() {
+        if (!mPosted && isContinuous()) {
+            mPosted = true;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+}
@@ -4,14 +4,17 @@ import android.graphics.Rect;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
-import android.util.Log;
 
-import java.util.ArrayList;
+import java.util.List;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import im.bunch.patience.game.graphics.GlResources;
 import im.bunch.patience.game.graphics.Rectangle;
+import im.bunch.patience.game.graphics.SpriteBatch;
+import im.bunch.patience.game.graphics.TextureAtlas;
+import im.bunch.patience.metrics.Metrics;
 import im.bunch.patience.model.JavascriptModel;
 import im.bunch.patience.view.Card;
 
@@ -22,7 +25,21 @@ import im.bunch.patience.view.Card;
  */
 public class GameRenderer implements GLSurfaceView.Renderer {
 
+    public static final String LOG_TAG = "Renderer";
+
+    /** The most card images uploaded to the atlas in one frame. */
+    public static final int UPLOADS_PER_FRAME = 4;
+
     private ComponentManager componentManager;
+    private GlResources mResources;
+    private TextureAtlas mAtlas;
+    private SpriteBatch mBatch;
+    private Tweener mTweener;
+    private OcclusionCuller mCuller;
+    private FrameScheduler mScheduler;
+    private int mLayoutVersion;
+    private boolean mAnimating;
+    private long mModelCalls;
     private int width;
     private int height;
 
@@ -30,19 +47,31 @@ public class GameRenderer implements GLSurfaceView.Renderer {
     private final float[] mMVPMatrix = new float[16];
     private final float[] mProjectionMatrix = new float[16];
     private final float[] mViewMatrix = new float[16];
+    private final Rect mBounds = new Rect();
 
     public GameRenderer(ComponentManager componentManager) {
         this.componentManager = componentManager;
+        mTweener = new Tweener();
+        mCuller = new OcclusionCuller();
     }
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
         //GLES20.glClearColor(0.0f, 0.415f, 0.051f, 1.0f);
         GLES20.glClearColor(0.38f, 0.49f, 0.55f, 1.0f);
+
+        // a new context has none of the old programs or textures, so build them again, once
+        mResources = new GlResources();
+        // the atlas is filled in over the first frames, once the card size is known
+        mAtlas = new TextureAtlas(componentManager.getContext(), mResources);
+        mBatch = new SpriteBatch(mResources);
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
+        // the surface is changed again after every resume, but the components only have to be
+        // laid out again if the size is different
+        boolean resized = width != this.width || height != this.height;
         this.width = width;
         this.height = height;
         GLES20.glViewport(0,0, width, height);
@@ -53,75 +82,97 @@ public class GameRenderer implements GLSurfaceView.Renderer {
         // in the onDrawFrame() method
         Matrix.frustumM(mProjectionMatrix, 0, 0, 1, ratio, 0, 1, 3);
 
+        // Set the camera position (View matrix)
+        Matrix.setLookAtM(mViewMatrix, 0, 0, 0, 1, 0f, 0f, 0f, 0f, 1.0f, 0.0f);
+
+        // Calculate the projection and view transformation once, it only changes with the size
+        Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mViewMatrix, 0);
+
         // update components
-        componentManager.onSurfaceChanged(width, height);
+        if (resized) {
+            componentManager.onSurfaceChanged(width, height);
+            // everything is laid out again, which should not look like every card moving
+            mTweener.clear();
+            mLayoutVersion = componentManager.getLayoutVersion();
+        }
+    }
+
+    /**
+     * Set the scheduler to ask for more frames, while the atlas is still loading or components
+     * are moving and nothing else would ask for them.
+     */
+    public void setFrameScheduler(FrameScheduler scheduler) {
+        mScheduler = scheduler;
     }
 
+    /**
+     * Check if card images are still being loaded into the atlas.
+     */
+    public boolean isLoading() {
+        return mAtlas == null || mAtlas.isLoading();
+    }
+
+    /**
+     * Draw every component. Nothing in here allocates: the matrices, the bounds and the component
+     * snapshot are all reused from frame to frame, so drawing never causes garbage collection.
+     */
     @Override
     public void onDrawFrame(GL10 gl) {
-        // update logic
-        //this.componentManager.update();
+        long start = System.nanoTime();
 
-        Long start = System.currentTimeMillis();
-        // draw
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        // pack the card images at the size cards are drawn at, a few of them every frame
+        mAtlas.setImageSize(componentManager.getCardWidth(), componentManager.getCardHeight());
+        if (mAtlas.upload(UPLOADS_PER_FRAME) && mScheduler != null) {
+            mScheduler.invalidate();
+        }
 
-        // Set the camera position (View matrix)
-        Matrix.setLookAtM(mViewMatrix, 0, 0, 0, 1, 0f, 0f, 0f, 0f, 1.0f, 0.0f);
+        // components that were laid out somewhere else since the last frame move there smoothly
+        int version = componentManager.getLayoutVersion();
+        mTweener.begin(start, version != mLayoutVersion);
+        mLayoutVersion = version;
 
-        // Calculate the projection and view transformation
-        Matrix.multiplyMM(mMVPMatrix, 0, mProjectionMatrix, 0, mViewMatrix, 0);
+        // draw
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
-        for (Component c : new ArrayList<>(this.componentManager.getComponents())) {
+        // collect every component in order, then drop what is hidden behind opaque cards
+        mCuller.reset();
+        List<Component> components = this.componentManager.getComponents();
+        for (int i = 0; i < components.size(); i++) {
+            Component c = components.get(i);
             if (c instanceof RectangleComponent) {
-
-                Rect r = ((RectangleComponent) c).getBounds();
-                if (r != null) {
-                    float scaleX = (float) r.width() / this.width;
-                    float scaleY = (float) r.height() / r.width() * scaleX;
-                    float translateX = (float) r.left / this.width;
-                    float translateY = (float) r.top / this.width;
-
-                    // calculate transformation matrix
-                    float[] transform = new float[16];
-                    float[] translate = new float[16];
-                    float[] scale = new float[16];
-
-                    Matrix.setIdentityM(transform, 0);
-                    Matrix.setIdentityM(translate, 0);
-                    Matrix.setIdentityM(scale, 0);
-                    // build scale and translation matrices
-                    Matrix.scaleM(scale, 0, scaleX, scaleY, 1.0f);
-                    Matrix.translateM(translate, 0, translateX, translateY, 0.0f);
-                    // build transformation matrix
-                    Matrix.multiplyMM(transform, 0, translate, 0, scale, 0);
-
-                    // combine transformation matrix with the projection and camera view
-                    Matrix.multiplyMM(transform, 0, mMVPMatrix, 0, transform, 0);
-
-                    Rectangle rect = ((RectangleComponent) c).getRectangle();
+                RectangleComponent rc = (RectangleComponent) c;
+                if (rc.copyBounds(mBounds)) {
+                    mTweener.apply(c, mBounds);
+                    Rectangle rect = rc.getRectangle(mAtlas);
                     if (rect != null) {
-                        rect.draw(transform);
+                        mCuller.add(rect, mBounds, rc.isOpaque());
                     }
                 }
             }
         }
-        Long end = System.currentTimeMillis();
-
-        Log.d("Renderer", "Render cycle: " + Double.toString((end - start) / 1000.0) + "s");
-    }
-
-    public static int loadShader(int type, String shaderCode){
-
-        // create a vertex shader type (GLES20.GL_VERTEX_SHADER)
-        // or a fragment shader type (GLES20.GL_FRAGMENT_SHADER)
-        int shader = GLES20.glCreateShader(type);
-
-        // add the source code to the shader and compile it
-        GLES20.glShaderSource(shader, shaderCode);
-        GLES20.glCompileShader(shader);
+        mCuller.cull();
+
+        // everything that can be seen goes into one batch, in component order
+        mBatch.begin(mMVPMatrix, this.width);
+        mCuller.draw(mBatch);
+        mBatch.end();
+
+        // keep drawing on every vsync while anything is moving
+        boolean animating = mTweener.end(components);
+        if (animating != mAnimating && mScheduler != null) {
+            if (animating) {
+                mScheduler.beginContinuous();
+            } else {
+                mScheduler.endContinuous();
+            }
+        }
+        mAnimating = animating;
 
-        return shader;
+        // recording a sample does not allocate, unlike logging
+        long modelCalls = Metrics.getModelCalls();
+        Metrics.MODEL_CALLS_PER_FRAME.record(modelCalls - mModelCalls);
+        mModelCalls = modelCalls;
+        Metrics.RENDER.record(System.nanoTime() - start);
     }
 
 }
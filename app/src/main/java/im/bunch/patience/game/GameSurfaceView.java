@@ -17,6 +17,7 @@ import im.bunch.patience.model.JavascriptModel;
 public class GameSurfaceView extends GLSurfaceView {
 
     private final GameRenderer renderer;
+    private final FrameScheduler scheduler;
     private Context context;
     private ComponentManager componentManager;
     private InputManager inputManager;
@@ -28,20 +29,45 @@ public class GameSurfaceView extends GLSurfaceView {
         this.inputManager = new InputManager(this.componentManager);
 
         setEGLContextClientVersion(2);
+        // keep the textures when the activity is paused, if the device can
+        setPreserveEGLContextOnPause(true);
+
+        // frames are only drawn when the components change, or on every vsync while something
+        // is moving
+        this.scheduler = new FrameScheduler(this);
+        this.componentManager.setFrameScheduler(this.scheduler);
 
         this.renderer = new GameRenderer(componentManager);
+        this.renderer.setFrameScheduler(this.scheduler);
         setRenderer(this.renderer);
 
         setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
     }
 
+    /**
+     * Get the scheduler that decides when this view draws.
+     */
+    public FrameScheduler getFrameScheduler() {
+        return this.scheduler;
+    }
+
+    @Override
+    public void onPause() {
+        this.scheduler.pause();
+        super.onPause();
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        this.scheduler.resume();
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent e) {
+        // the components invalidate the scheduler themselves when a touch changes them
         this.inputManager.registerTouch(e);
-        requestRender();
         return true;
     }
 
-
-
 }
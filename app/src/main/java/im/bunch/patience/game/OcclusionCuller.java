@@ -0,0 +1,124 @@
+package im.bunch.patience.game;
+
+import android.graphics.Rect;
+
+import im.bunch.patience.game.graphics.Rectangle;
+import im.bunch.patience.game.graphics.SpriteBatch;
+
+/**
+ * Skips drawing what cannot be seen. Rectangles are added back to front, and before they are
+ * drawn every rectangle is checked against the opaque rectangles in front of it. A rectangle that
+ * is completely covered is not drawn at all, like the cards under the top of a squared pile. A
+ * rectangle whose bottom is covered by one in front of it with the same left and right edges,
+ * like the cards of a fanned pile, only has its exposed top drawn.
+ *
+ * Opaque rectangles still have rounded corners, so a little more than the exposed part is drawn
+ * to show through them. The storage for rectangles is reused from frame to frame, so a frame does
+ * not allocate once the culler has seen the most rectangles it will hold.
+ *
+ * @author Creston Bunch
+ */
+public class OcclusionCuller {
+
+    /** How much of an opaque rectangle's width is taken up by each of its rounded corners. */
+    public static final float CORNER_RATIO = 0.1f;
+
+    private Rectangle[] mRectangles = new Rectangle[0];
+    private Rect[] mBounds = new Rect[0];
+    private boolean[] mOpaque = new boolean[0];
+    private int[] mVisibleHeight = new int[0];
+    private int mCount;
+    private int mCulled;
+
+    /**
+     * Forget the rectangles of the last frame.
+     */
+    public void reset() {
+        // drop references so that destroyed rectangles are not kept alive
+        for (int i = 0; i < mCount; i++) {
+            mRectangles[i] = null;
+        }
+        mCount = 0;
+        mCulled = 0;
+    }
+
+    /**
+     * Add a rectangle in front of every rectangle added so far.
+     *
+     * @param rectangle The rectangle to draw.
+     * @param bounds    Where to draw it, copied.
+     * @param opaque    Whether it hides everything behind it, apart from its corners.
+     */
+    public void add(Rectangle rectangle, Rect bounds, boolean opaque) {
+        if (mCount == mRectangles.length) {
+            grow();
+        }
+        mRectangles[mCount] = rectangle;
+        mBounds[mCount].set(bounds);
+        mOpaque[mCount] = opaque;
+        mCount++;
+    }
+
+    /**
+     * Work out how much of each rectangle can be seen.
+     */
+    public void cull() {
+        for (int i = 0; i < mCount; i++) {
+            Rect b = mBounds[i];
+            int visible = b.height();
+            for (int j = i + 1; j < mCount && visible > 0; j++) {
+                if (!mOpaque[j]) {
+                    continue;
+                }
+                Rect a = mBounds[j];
+                if (a.contains(b)) {
+                    visible = 0;
+                } else if (a.left == b.left && a.right == b.right && a.top > b.top
+                        && a.top < b.bottom && a.bottom >= b.bottom) {
+                    // only the top of b shows above a, and behind the top corners of a
+                    int corner = (int) Math.ceil(a.width() * CORNER_RATIO);
+                    visible = Math.min(visible, a.top - b.top + corner);
+                }
+            }
+            mVisibleHeight[i] = visible;
+            if (visible == 0) {
+                mCulled++;
+            }
+        }
+    }
+
+    /**
+     * Draw the visible part of every rectangle, back to front.
+     */
+    public void draw(SpriteBatch batch) {
+        for (int i = 0; i < mCount; i++) {
+            if (mVisibleHeight[i] > 0) {
+                mRectangles[i].draw(batch, mBounds[i], mVisibleHeight[i]);
+            }
+        }
+    }
+
+    /**
+     * Get the number of rectangles that were completely hidden in the last frame.
+     */
+    public int getCulled() {
+        return mCulled;
+    }
+
+    private void grow() {
+        int size = Math.max(16, mRectangles.length * 2);
+        Rectangle[] rectangles = new Rectangle[size];
+        Rect[] bounds = new Rect[size];
+        boolean[] opaque = new boolean[size];
+        System.arraycopy(mRectangles, 0, rectangles, 0, mCount);
+        System.arraycopy(mBounds, 0, bounds, 0, mCount);
+        System.arraycopy(mOpaque, 0, opaque, 0, mCount);
+        for (int i = mCount; i < size; i++) {
+            bounds[i] = new Rect();
+        }
+        mRectangles = rectangles;
+        mBounds = bounds;
+        mOpaque = opaque;
+        mVisibleHeight = new int[size];
+    }
+}
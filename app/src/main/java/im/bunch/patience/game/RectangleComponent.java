@@ -5,6 +5,7 @@ import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 
 import im.bunch.patience.game.graphics.Rectangle;
+import im.bunch.patience.game.graphics.TextureAtlas;
 
 /**
  * Compenent views are objects that contain drawables that can be drawn to a canvas.
@@ -13,10 +14,28 @@ import im.bunch.patience.game.graphics.Rectangle;
  */
 public interface RectangleComponent extends Component {
 
-    Rectangle getRectangle();
-
-    void clearRectangle();
+    /**
+     * Get the rectangle to draw this component with, taken from the atlas of the renderer.
+     */
+    Rectangle getRectangle(TextureAtlas atlas);
 
+    /**
+     * Get a new rectangle with the bounds of this component, or null if it has none yet.
+     */
     Rect getBounds();
 
+    /**
+     * Copy the bounds of this component into an existing rectangle without allocating anything.
+     * Used by the renderer every frame.
+     *
+     * @return false if the component has no bounds yet, in which case out is unchanged.
+     */
+    boolean copyBounds(Rect out);
+
+    /**
+     * Check if this component hides everything under its bounds, apart from rounded corners.
+     * Whatever an opaque component hides is not drawn.
+     */
+    boolean isOpaque();
+
 }
@@ -0,0 +1,214 @@
+package im.bunch.patience.game;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import im.bunch.patience.geometry.Point;
+
+/**
+ * A uniform grid over the game surface that finds the components at a point or inside of a
+ * rectangle without testing every component. Each cell is about the size of a card, so a query
+ * only looks at the few components stacked in one or two cells.
+ *
+ * The grid keeps its own copy of the bounds of every component and is refreshed from the
+ * components after each update cycle. Components that are partly off the surface are kept in the
+ * cells at its edge. Components that are not rectangles are kept aside and tested one by one with
+ * collidesWithPoint(). This class is not thread safe; the ComponentManager serializes access to it.
+ *
+ * @author Creston Bunch
+ */
+public class SpatialIndex {
+
+    /** The number of cells across the surface. Boards are 7 to 10 cards wide. */
+    public static final int CELLS_ACROSS = 10;
+
+    private final Map<RectangleComponent, Entry> mEntries;
+    private final List<Component> mOthers;
+    private final Rect mBounds;
+    private List<RectangleComponent>[] mCells;
+    private int mColumns;
+    private int mRows;
+    private int mCellSize;
+
+    /**
+     * The bounds of a component and the range of cells it was added to.
+     */
+    private static class Entry {
+        final Rect bounds = new Rect();
+        int left;
+        int top;
+        int right;
+        int bottom;
+    }
+
+    /**
+     * Construct an empty index over a surface of the given size.
+     */
+    public SpatialIndex(int width, int height) {
+        mEntries = new IdentityHashMap<>();
+        mOthers = new ArrayList<>();
+        mBounds = new Rect();
+        resize(width, height);
+    }
+
+    /**
+     * Change the size of the surface. Every component is added to the new cells again.
+     */
+    @SuppressWarnings("unchecked")
+    public void resize(int width, int height) {
+        mCellSize = Math.max(1, width / CELLS_ACROSS);
+        mColumns = Math.max(1, (width + mCellSize - 1) / mCellSize);
+        mRows = Math.max(1, (height + mCellSize - 1) / mCellSize);
+        mCells = new List[mColumns * mRows];
+        for (int i = 0; i < mCells.length; i++) {
+            mCells[i] = new ArrayList<>();
+        }
+        for (Map.Entry<RectangleComponent, Entry> e : mEntries.entrySet()) {
+            insert(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Update the bounds of a component, adding it if it is new. Rectangle components without
+     * bounds are removed from the grid until they have some.
+     */
+    public void update(Component c) {
+        if (!(c instanceof RectangleComponent)) {
+            if (!mOthers.contains(c)) {
+                mOthers.add(c);
+            }
+            return;
+        }
+        place((RectangleComponent) c);
+    }
+
+    private void place(RectangleComponent c) {
+        Rect bounds = c.copyBounds(mBounds) ? mBounds : null;
+        Entry entry = mEntries.get(c);
+        if (bounds == null) {
+            if (entry != null) {
+                remove(c);
+            }
+            return;
+        }
+        if (entry == null) {
+            entry = new Entry();
+            entry.bounds.set(bounds);
+            mEntries.put(c, entry);
+            insert(c, entry);
+        } else if (!entry.bounds.equals(bounds)) {
+            erase(c, entry);
+            entry.bounds.set(bounds);
+            insert(c, entry);
+        }
+    }
+
+    /**
+     * Remove a component from the grid.
+     */
+    public void remove(Component c) {
+        if (!(c instanceof RectangleComponent)) {
+            mOthers.remove(c);
+            return;
+        }
+        Entry entry = mEntries.remove(c);
+        if (entry != null) {
+            erase((RectangleComponent) c, entry);
+        }
+    }
+
+    /**
+     * Remove every component from the grid.
+     */
+    public void clear() {
+        mEntries.clear();
+        mOthers.clear();
+        for (List<RectangleComponent> cell : mCells) {
+            cell.clear();
+        }
+    }
+
+    /**
+     * Add every component whose bounds contain a point to a list.
+     */
+    public void findAt(Point p, List<Component> out) {
+        int x = (int) p.x;
+        int y = (int) p.y;
+        List<RectangleComponent> cell = mCells[row(y) * mColumns + column(x)];
+        for (int i = 0; i < cell.size(); i++) {
+            RectangleComponent c = cell.get(i);
+            if (mEntries.get(c).bounds.contains(x, y)) {
+                out.add(c);
+            }
+        }
+        for (int i = 0; i < mOthers.size(); i++) {
+            if (mOthers.get(i).collidesWithPoint(p)) {
+                out.add(mOthers.get(i));
+            }
+        }
+    }
+
+    /**
+     * Add every rectangle component whose bounds intersect a rectangle to a list. Each component
+     * is only added once.
+     */
+    public void findIn(Rect r, List<Component> out) {
+        int left = column(r.left);
+        int right = column(r.right);
+        int top = row(r.top);
+        int bottom = row(r.bottom);
+        int start = out.size();
+        for (int row = top; row <= bottom; row++) {
+            for (int col = left; col <= right; col++) {
+                List<RectangleComponent> cell = mCells[row * mColumns + col];
+                for (int i = 0; i < cell.size(); i++) {
+                    RectangleComponent c = cell.get(i);
+                    if (Rect.intersects(mEntries.get(c).bounds, r) && !contains(out, start, c)) {
+                        out.add(c);
+                    }
+                }
+            }
+        }
+    }
+
+    private void insert(RectangleComponent c, Entry entry) {
+        entry.left = column(entry.bounds.left);
+        entry.right = column(entry.bounds.right);
+        entry.top = row(entry.bounds.top);
+        entry.bottom = row(entry.bounds.bottom);
+        for (int row = entry.top; row <= entry.bottom; row++) {
+            for (int col = entry.left; col <= entry.right; col++) {
+                mCells[row * mColumns + col].add(c);
+            }
+        }
+    }
+
+    private void erase(RectangleComponent c, Entry entry) {
+        for (int row = entry.top; row <= entry.bottom; row++) {
+            for (int col = entry.left; col <= entry.right; col++) {
+                mCells[row * mColumns + col].remove(c);
+            }
+        }
+    }
+
+    private int column(int x) {
+        return Math.min(Math.max(x / mCellSize, 0), mColumns - 1);
+    }
+
+    private int row(int y) {
+        return Math.min(Math.max(y / mCellSize, 0), mRows - 1);
+    }
+
+    private static boolean contains(List<Component> list, int start, Component c) {
+        for (int i = start; i < list.size(); i++) {
+            if (list.get(i) == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
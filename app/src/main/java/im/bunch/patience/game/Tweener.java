@@ -0,0 +1,142 @@
+package im.bunch.patience.game;
+
+import android.graphics.Rect;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves components smoothly to new bounds instead of letting them jump. Every frame the renderer
+ * passes the bounds each component wants to be drawn at, and the tweener replaces them with a
+ * position between where the component was drawn and where it is going.
+ *
+ * The tweener only ever sees bounds that the components already hold, so an animation never
+ * reads the model or takes a lock. It is only used on the GL thread.
+ *
+ * @author Creston Bunch
+ */
+public class Tweener {
+
+    /** How long a component takes to reach its new bounds, in nanoseconds. */
+    public static final long DURATION = 200 * 1000000L;
+
+    private final Map<Component, Motion> mMotions;
+    private List<Component> mComponents;
+    private long mNow;
+    private boolean mAnimate;
+    private int mMoving;
+
+    /**
+     * Where a component is going, and where it came from if it is still on its way.
+     */
+    private static class Motion {
+        final Rect from = new Rect();
+        final Rect target = new Rect();
+        long start;
+        boolean moving;
+    }
+
+    public Tweener() {
+        mMotions = new IdentityHashMap<>();
+    }
+
+    /**
+     * Start a frame.
+     *
+     * @param now     The time of the frame, from System.nanoTime().
+     * @param animate Whether components that changed bounds since the last frame should move to
+     *                them smoothly. If not, they jump, for example while being dragged.
+     */
+    public void begin(long now, boolean animate) {
+        mNow = now;
+        mAnimate = animate;
+        mMoving = 0;
+    }
+
+    /**
+     * Replace the bounds a component wants to be drawn at with the bounds it should be drawn at
+     * in this frame.
+     */
+    public void apply(Component c, Rect bounds) {
+        Motion m = mMotions.get(c);
+        if (m == null) {
+            // a new component appears where it is
+            m = new Motion();
+            m.target.set(bounds);
+            mMotions.put(c, m);
+            return;
+        }
+
+        if (!m.target.equals(bounds)) {
+            if (mAnimate) {
+                // start from wherever the component is drawn right now
+                if (m.moving) {
+                    interpolate(m, m.from);
+                } else {
+                    m.from.set(m.target);
+                }
+                m.start = mNow;
+                m.moving = true;
+            } else {
+                m.moving = false;
+            }
+            m.target.set(bounds);
+        }
+
+        if (m.moving) {
+            if (mNow - m.start >= DURATION) {
+                m.moving = false;
+            } else {
+                interpolate(m, bounds);
+                mMoving++;
+            }
+        }
+    }
+
+    /**
+     * Finish a frame, forgetting components that are gone.
+     *
+     * @param components The components that were drawn.
+     * @return true if anything is still moving.
+     */
+    public boolean end(List<Component> components) {
+        // the snapshot only changes when components are registered or unregistered
+        if (components != mComponents) {
+            mComponents = components;
+            Iterator<Component> it = mMotions.keySet().iterator();
+            while (it.hasNext()) {
+                if (!components.contains(it.next())) {
+                    it.remove();
+                }
+            }
+        }
+        return mMoving > 0;
+    }
+
+    /**
+     * Forget every motion, so that every component jumps to its bounds in the next frame.
+     */
+    public void clear() {
+        mMotions.clear();
+        mComponents = null;
+    }
+
+    /**
+     * Put the position of a moving component into a rectangle. Each edge is read before it is
+     * written, so the rectangle may be the start of the motion itself.
+     */
+    private void interpolate(Motion m, Rect out) {
+        float t = Math.min(1.0f, (mNow - m.start) / (float) DURATION);
+        // ease out, fast at first and slowing down as it arrives
+        float u = 1.0f - t;
+        float e = 1.0f - u * u * u;
+        out.set(
+                m.from.left + Math.round((m.target.left - m.from.left) * e),
+                m.from.top + Math.round((m.target.top - m.from.top) * e),
+                m.from.right + Math.round((m.target.right - m.from.right) * e),
+                m.from.bottom + Math.round((m.target.bottom - m.from.bottom) * e)
+        );
+    }
+}
@@ -0,0 +1,151 @@
+package im.bunch.patience.game.graphics;
+
+import android.opengl.GLES20;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tracks the GL objects of one EGL context. Shader programs are compiled once per context and
+ * shared by everything that draws with them. Textures and buffers are reference counted, so an
+ * object shared by several owners is only deleted once the last one releases it.
+ *
+ * When the context is lost its objects are gone with it. A new context needs a new GlResources,
+ * and the old one should be abandoned without deleting anything. Every method must be called on
+ * the GL thread of the context.
+ *
+ * @author Creston Bunch
+ */
+public class GlResources {
+
+    public static final String LOG_TAG = "GlResources";
+
+    private final Map<String, ShaderProgram> mPrograms;
+    private final SparseIntArray mTextures;
+    private final SparseIntArray mBuffers;
+    private final int[] mHandle;
+
+    public GlResources() {
+        mPrograms = new HashMap<>();
+        mTextures = new SparseIntArray();
+        mBuffers = new SparseIntArray();
+        mHandle = new int[1];
+    }
+
+    /**
+     * Get the program built from a pair of shaders, compiling it the first time it is asked for.
+     */
+    public ShaderProgram getProgram(String vertexShaderCode, String fragmentShaderCode) {
+        String key = vertexShaderCode + '\0' + fragmentShaderCode;
+        ShaderProgram program = mPrograms.get(key);
+        if (program == null) {
+            program = new ShaderProgram(vertexShaderCode, fragmentShaderCode);
+            mPrograms.put(key, program);
+            Log.i(LOG_TAG, "Compiled program " + program.getHandle() + ".");
+        }
+        return program;
+    }
+
+    /**
+     * Create a texture with a reference count of one.
+     */
+    public int createTexture() {
+        GLES20.glGenTextures(1, mHandle, 0);
+        if (mHandle[0] == 0) {
+            throw new RuntimeException("Error creating texture.");
+        }
+        mTextures.put(mHandle[0], 1);
+        return mHandle[0];
+    }
+
+    /**
+     * Add a reference to a texture.
+     */
+    public void retainTexture(int texture) {
+        mTextures.put(texture, mTextures.get(texture) + 1);
+    }
+
+    /**
+     * Remove a reference to a texture, deleting it when nothing references it anymore.
+     */
+    public void releaseTexture(int texture) {
+        int count = mTextures.get(texture) - 1;
+        if (count > 0) {
+            mTextures.put(texture, count);
+        } else if (count == 0) {
+            mTextures.delete(texture);
+            mHandle[0] = texture;
+            GLES20.glDeleteTextures(1, mHandle, 0);
+        }
+    }
+
+    /**
+     * Create a buffer with a reference count of one.
+     */
+    public int createBuffer() {
+        GLES20.glGenBuffers(1, mHandle, 0);
+        if (mHandle[0] == 0) {
+            throw new RuntimeException("Error creating buffer.");
+        }
+        mBuffers.put(mHandle[0], 1);
+        return mHandle[0];
+    }
+
+    /**
+     * Add a reference to a buffer.
+     */
+    public void retainBuffer(int buffer) {
+        mBuffers.put(buffer, mBuffers.get(buffer) + 1);
+    }
+
+    /**
+     * Remove a reference to a buffer, deleting it when nothing references it anymore.
+     */
+    public void releaseBuffer(int buffer) {
+        int count = mBuffers.get(buffer) - 1;
+        if (count > 0) {
+            mBuffers.put(buffer, count);
+        } else if (count == 0) {
+            mBuffers.delete(buffer);
+            mHandle[0] = buffer;
+            GLES20.glDeleteBuffers(1, mHandle, 0);
+        }
+    }
+
+    /**
+     * Get the number of live textures.
+     */
+    public int getTextureCount() {
+        return mTextures.size();
+    }
+
+    /**
+     * Get the number of live buffers.
+     */
+    public int getBufferCount() {
+        return mBuffers.size();
+    }
+
+    /**
+     * Delete every program, texture and buffer, whatever their reference counts are. Only needed
+     * while the context is still alive.
+     */
+    public void destroy() {
+        for (ShaderProgram program : mPrograms.values()) {
+            program.delete();
+        }
+        mPrograms.clear();
+        for (int i = 0; i < mTextures.size(); i++) {
+            mHandle[0] = mTextures.keyAt(i);
+            GLES20.glDeleteTextures(1, mHandle, 0);
+        }
+        mTextures.clear();
+        for (int i = 0; i < mBuffers.size(); i++) {
+            mHandle[0] = mBuffers.keyAt(i);
+            GLES20.glDeleteBuffers(1, mHandle, 0);
+        }
+        mBuffers.clear();
+    }
+}
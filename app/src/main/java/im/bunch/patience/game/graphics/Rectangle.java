@@ -1,238 +1,53 @@
 package im.bunch.patience.game.graphics;
 
-import android.graphics.Bitmap;
-import android.opengl.GLES20;
-import android.opengl.GLUtils;
-import android.util.Log;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-
-import im.bunch.patience.game.GameRenderer;
+import android.graphics.Rect;
 
 /**
- * A rectangle made of up two triangles.
+ * A rectangle textured with a region of a TextureAtlas page. Rectangles are drawn as sprites in
+ * a SpriteBatch, so they own no GL objects; the page texture belongs to the atlas.
  *
  * @author Creston
  */
 public class Rectangle {
 
-    private FloatBuffer vertexBuffer;
-    private ShortBuffer drawListBuffer;
-
-    // number of coordinates per vertex in this array
-    static final int COORDS_PER_VERTEX = 3;
-
-    static float rectCoords[] = {
-            0.0f,  0.0f, 0.0f,   // top left
-            0.0f,  1.0f, 0.0f,   // bottom left
-            1.0f,  1.0f, 0.0f,   // bottom right
-            1.0f,  0.0f, 0.0f }; // top right
-
-
     // Set color with red, green, blue and alpha (opacity) values
     float color[] = { 1.0f, 1.0f, 1.0f, 1.0f };
 
-    private short drawOrder[] = { 0, 1, 2, 0, 2, 3 }; // order to draw vertices
-    private final int mVertexShader;
-    private final int mFragmentShader;
-    private final int mProgram;
-
-    // Use to access and set the view transformation
-    private int mMVPMatrixHandle;
-
-    private final String vertexShaderCode =
-            "attribute vec4 vPosition;" +
-            // This matrix member variable provides a hook to manipulate
-            // the coordinates of the objects that use this vertex shader
-            "uniform mat4 uMVPMatrix;" +
-            //Test
-            "attribute vec2 a_TexCoordinate;" +
-            "varying vec2 v_TexCoordinate;" +
-            //End Test
-
-            "void main() {" +
-            "  gl_Position = uMVPMatrix * vPosition;" +
-            //Test
-            "  v_TexCoordinate = a_TexCoordinate;" +
-            //End Test
-            "}";
-
-    private final String fragmentShaderCode =
-            "precision mediump float;" +
-            "uniform vec4 vColor;" +
-            //Test
-            "uniform sampler2D u_Texture;" +
-            "varying vec2 v_TexCoordinate;" +
-            //End Test
-            "void main() {" +
-            "  gl_FragColor = (vColor * texture2D(u_Texture, v_TexCoordinate));" +
-            //"  gl_FragColor = vColor;" +
-            "}";
-
-    private int mPositionHandle;
-    private int mColorHandle;
-
-    private FloatBuffer mTexCoordsBuffer;
-
-    private final int vertexStride = COORDS_PER_VERTEX * 4; // 4 bytes per vertex
-
-    private int[] textureDataHandle;
-    private int mTextureUniformHandle;
-    private int mTextureCoordinateHandle;
-
-    public Rectangle(Bitmap texture) {
-
-         mVertexShader = GameRenderer.loadShader(GLES20.GL_VERTEX_SHADER,
-                vertexShaderCode);
-         mFragmentShader = GameRenderer.loadShader(GLES20.GL_FRAGMENT_SHADER,
-                fragmentShaderCode);
-
-        final float[] texCoords = {
-                0.0f, 0.0f,
-                0.0f, 1.0f,
-                1.0f, 1.0f,
-                1.0f, 0.0f
-        };
-
-        mTexCoordsBuffer = ByteBuffer.allocateDirect(texCoords.length * 4)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
-        mTexCoordsBuffer.put(texCoords).position(0);
-
-        // create empty OpenGL ES Program
-        mProgram = GLES20.glCreateProgram();
-
-        // add the vertex shader to program
-        GLES20.glAttachShader(mProgram, mVertexShader);
-
-        // add the fragment shader to program
-        GLES20.glAttachShader(mProgram, mFragmentShader);
-
-        // creates OpenGL ES program executables
-        GLES20.glLinkProgram(mProgram);
-
-        // initialize vertex byte buffer for shape coordinates
-        ByteBuffer bb = ByteBuffer.allocateDirect(
-                // (# of coordinate values * 4 bytes per float)
-                rectCoords.length * 4);
-        bb.order(ByteOrder.nativeOrder());
-        vertexBuffer = bb.asFloatBuffer();
-        vertexBuffer.put(rectCoords);
-        vertexBuffer.position(0);
-
-        // initialize byte buffer for the draw list
-        ByteBuffer dlb = ByteBuffer.allocateDirect(
-                // (# of coordinate values * 2 bytes per short)
-                drawOrder.length * 2);
-        dlb.order(ByteOrder.nativeOrder());
-        drawListBuffer = dlb.asShortBuffer();
-        drawListBuffer.put(drawOrder);
-        drawListBuffer.position(0);
-
-        //Texture Code
-        GLES20.glBindAttribLocation(mProgram, 0, "a_TexCoordinate");
-        GLES20.glLinkProgram(mProgram);
-
-        //Load the texture
-        //mTextureDataHandle = loadTexture(mActivityContext, R.drawable.brick);
+    private final TextureAtlas.Region mRegion;
 
-        //Load the texture
-        this.textureDataHandle = loadTexture(texture);
+    public Rectangle(TextureAtlas.Region region) {
+        mRegion = region;
     }
 
-    public void draw(float[] mvpMatrix) {
-        // Add program to OpenGL ES environment
-        GLES20.glUseProgram(mProgram);
-
-        // get handle to vertex shader's vPosition member
-        mPositionHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
-
-        // Enable a handle to the triangle vertices
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
-
-        // Prepare the triangle coordinate data
-        GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX,
-                GLES20.GL_FLOAT, false,
-                vertexStride, vertexBuffer);
-
-        // get handle to fragment shader's vColor member
-        mColorHandle = GLES20.glGetUniformLocation(mProgram, "vColor");
-
-        // Set color for drawing the triangle
-        GLES20.glUniform4fv(mColorHandle, 1, color, 0);
-
-        //Set Texture Handles and bind Texture
-        mTextureUniformHandle = GLES20.glGetAttribLocation(mProgram, "u_Texture");
-        mTextureCoordinateHandle = GLES20.glGetAttribLocation(mProgram, "a_TexCoordinate");
-
-        //Set the active texture unit to texture unit 0.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-
-        //Bind the texture to this unit.
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureDataHandle[0]);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-
-        //Tell the texture uniform sampler to use this texture in the shader by binding to texture unit 0.
-        GLES20.glUniform1i(mTextureUniformHandle, 0);
-
-        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-        GLES20.glEnable(GLES20.GL_BLEND);
-
-        //Pass in the texture coordinate information
-        mTexCoordsBuffer.position(0);
-        GLES20.glVertexAttribPointer(mTextureCoordinateHandle, 2, GLES20.GL_FLOAT, false, 0, mTexCoordsBuffer);
-        GLES20.glEnableVertexAttribArray(mTextureCoordinateHandle);
-
-        // get handle to shape's transformation matrix
-        mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
-
-        // Pass the projection and view transformation to the shader
-        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
-
-        // Draw the triangle
-        //GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, drawOrder.length);
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, drawOrder.length, GLES20.GL_UNSIGNED_SHORT, drawListBuffer);
-
-        // Disable vertex array
-        GLES20.glDisableVertexAttribArray(mPositionHandle);
-
+    /**
+     * Get the atlas region drawn by this rectangle.
+     */
+    public TextureAtlas.Region getRegion() {
+        return mRegion;
     }
 
-    public void destroy() {
-        GLES20.glDeleteTextures(1, textureDataHandle, 0);
-        GLES20.glDeleteShader(mFragmentShader);
-        GLES20.glDeleteShader(mVertexShader);
-        GLES20.glDeleteProgram(mProgram);
+    /**
+     * Add this rectangle to a sprite batch, stretched over some bounds in surface pixels.
+     */
+    public void draw(SpriteBatch batch, Rect bounds) {
+        batch.draw(
+                mRegion, bounds.left, bounds.top, bounds.width(), bounds.height(), 0.0f, color
+        );
     }
 
-    public static int[] loadTexture(Bitmap bitmap) {
-        final int[] textureHandle = new int[1];
-
-        GLES20.glGenTextures(1, textureHandle, 0);
-
-        if (textureHandle[0] != 0) {
-
-            // Bind to the texture in OpenGL
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
-
-            // Set filtering
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
-
-            // Load the bitmap into the bound texture.
-            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
-
-            // Recycle the bitmap, since its data has been loaded into OpenGL.
-            bitmap.recycle();
-        }
-
-        if (textureHandle[0] == 0) {
-            throw new RuntimeException("Error loading texture.");
-        }
+    /**
+     * Add only the top of this rectangle to a sprite batch, for when the rest of it is hidden.
+     *
+     * @param visibleHeight How many pixels from the top of the bounds to draw.
+     */
+    public void draw(SpriteBatch batch, Rect bounds, int visibleHeight) {
+        batch.draw(
+                mRegion, bounds.left, bounds.top, bounds.width(), bounds.height(),
+                Math.min(visibleHeight, bounds.height()), 0.0f, color
+        );
+    }
 
-        return textureHandle;
+    public void destroy() {
+        // nothing to delete, the texture belongs to the atlas
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,113 @@
+package im.bunch.patience.game.graphics;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A linked GLES program along with the locations of its attributes and uniforms. Locations are
+ * looked up by name once and remembered, so drawing never asks GL for them again.
+ *
+ * Programs are created and owned by GlResources, which keeps one of each per EGL context.
+ *
+ * @author Creston Bunch
+ */
+public class ShaderProgram {
+
+    public static final String LOG_TAG = "ShaderProgram";
+
+    private final int mProgram;
+    private final int mVertexShader;
+    private final int mFragmentShader;
+    private final Map<String, Integer> mAttributes;
+    private final Map<String, Integer> mUniforms;
+
+    /**
+     * Compile and link a program. Must be called on the GL thread.
+     */
+    ShaderProgram(String vertexShaderCode, String fragmentShaderCode) {
+        mVertexShader = compile(GLES20.GL_VERTEX_SHADER, vertexShaderCode);
+        mFragmentShader = compile(GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
+        mAttributes = new HashMap<>();
+        mUniforms = new HashMap<>();
+
+        mProgram = GLES20.glCreateProgram();
+        GLES20.glAttachShader(mProgram, mVertexShader);
+        GLES20.glAttachShader(mProgram, mFragmentShader);
+        GLES20.glLinkProgram(mProgram);
+
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(mProgram, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetProgramInfoLog(mProgram);
+            delete();
+            throw new RuntimeException("Error linking program: " + log);
+        }
+    }
+
+    /**
+     * Get the GL name of this program.
+     */
+    public int getHandle() {
+        return mProgram;
+    }
+
+    /**
+     * Make this the current program.
+     */
+    public void use() {
+        GLES20.glUseProgram(mProgram);
+    }
+
+    /**
+     * Get the location of an attribute.
+     */
+    public int getAttribute(String name) {
+        Integer location = mAttributes.get(name);
+        if (location == null) {
+            location = GLES20.glGetAttribLocation(mProgram, name);
+            mAttributes.put(name, location);
+        }
+        return location;
+    }
+
+    /**
+     * Get the location of a uniform.
+     */
+    public int getUniform(String name) {
+        Integer location = mUniforms.get(name);
+        if (location == null) {
+            location = GLES20.glGetUniformLocation(mProgram, name);
+            mUniforms.put(name, location);
+        }
+        return location;
+    }
+
+    /**
+     * Delete the program and its shaders. Must be called on the GL thread.
+     */
+    void delete() {
+        GLES20.glDeleteShader(mFragmentShader);
+        GLES20.glDeleteShader(mVertexShader);
+        GLES20.glDeleteProgram(mProgram);
+    }
+
+    private static int compile(int type, String shaderCode) {
+        // create a vertex shader type (GLES20.GL_VERTEX_SHADER)
+        // or a fragment shader type (GLES20.GL_FRAGMENT_SHADER)
+        int shader = GLES20.glCreateShader(type);
+
+        // add the source code to the shader and compile it
+        GLES20.glShaderSource(shader, shaderCode);
+        GLES20.glCompileShader(shader);
+
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            Log.e(LOG_TAG, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shader));
+        }
+        return shader;
+    }
+}
@@ -0,0 +1,258 @@
+package im.bunch.patience.game.graphics;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Draws many textured rectangles, called sprites, with as few draw calls as possible. Sprites are
+ * written into one dynamic vertex buffer in the order they are drawn, and the buffer is only
+ * flushed to the GPU when the texture changes, when it is full or at the end of the frame. With
+ * every card image in one atlas page, a whole board is usually a single draw call.
+ *
+ * Positions are in surface pixels. Like the rest of the renderer, they are divided by the surface
+ * width so that the projection matrix sees the surface as one unit wide.
+ *
+ * A sprite batch belongs to one GL context and must only be used on its GL thread. Its program
+ * and buffers come from the GlResources of that context.
+ *
+ * @author Creston Bunch
+ */
+public class SpriteBatch {
+
+    /** The number of sprites that fit in the vertex buffer before it has to be flushed. */
+    public static final int MAX_SPRITES = 512;
+
+    // x, y, z, u, v, r, g, b, a
+    private static final int FLOATS_PER_VERTEX = 9;
+    private static final int FLOATS_PER_SPRITE = FLOATS_PER_VERTEX * 4;
+    private static final int STRIDE = FLOATS_PER_VERTEX * 4;
+    private static final int INDICES_PER_SPRITE = 6;
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 uMVPMatrix;" +
+            "attribute vec4 a_Position;" +
+            "attribute vec2 a_TexCoordinate;" +
+            "attribute vec4 a_Color;" +
+            "varying vec2 v_TexCoordinate;" +
+            "varying vec4 v_Color;" +
+            "void main() {" +
+            "  gl_Position = uMVPMatrix * a_Position;" +
+            "  v_TexCoordinate = a_TexCoordinate;" +
+            "  v_Color = a_Color;" +
+            "}";
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;" +
+            "uniform sampler2D u_Texture;" +
+            "varying vec2 v_TexCoordinate;" +
+            "varying vec4 v_Color;" +
+            "void main() {" +
+            "  gl_FragColor = v_Color * texture2D(u_Texture, v_TexCoordinate);" +
+            "}";
+
+    private final float[] mVertices;
+    private final FloatBuffer mVertexBuffer;
+    private final GlResources mResources;
+    private final ShaderProgram mProgram;
+    private final int mVertexBufferHandle;
+    private final int mIndexBufferHandle;
+    private final int mPositionHandle;
+    private final int mTexCoordHandle;
+    private final int mColorHandle;
+    private final int mMVPMatrixHandle;
+    private final int mTextureHandle;
+
+    private float mScale;
+    private int mCount;
+    private int mTexture;
+    private int mDrawCalls;
+
+    /**
+     * Get the sprite program and create the vertex and index buffers. Must be called on the GL
+     * thread.
+     */
+    public SpriteBatch(GlResources resources) {
+        mResources = resources;
+        mProgram = resources.getProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        mPositionHandle = mProgram.getAttribute("a_Position");
+        mTexCoordHandle = mProgram.getAttribute("a_TexCoordinate");
+        mColorHandle = mProgram.getAttribute("a_Color");
+        mMVPMatrixHandle = mProgram.getUniform("uMVPMatrix");
+        mTextureHandle = mProgram.getUniform("u_Texture");
+
+        mVertices = new float[MAX_SPRITES * FLOATS_PER_SPRITE];
+        mVertexBuffer = ByteBuffer.allocateDirect(mVertices.length * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+
+        // every sprite is two triangles: top left, bottom left, bottom right, top right
+        short[] indices = new short[MAX_SPRITES * INDICES_PER_SPRITE];
+        for (int i = 0; i < MAX_SPRITES; i++) {
+            short v = (short) (i * 4);
+            int o = i * INDICES_PER_SPRITE;
+            indices[o] = v;
+            indices[o + 1] = (short) (v + 1);
+            indices[o + 2] = (short) (v + 2);
+            indices[o + 3] = v;
+            indices[o + 4] = (short) (v + 2);
+            indices[o + 5] = (short) (v + 3);
+        }
+        ShortBuffer indexBuffer = ByteBuffer.allocateDirect(indices.length * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        indexBuffer.put(indices).position(0);
+
+        mVertexBufferHandle = resources.createBuffer();
+        mIndexBufferHandle = resources.createBuffer();
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferHandle);
+        GLES20.glBufferData(
+                GLES20.GL_ARRAY_BUFFER, mVertices.length * 4, null, GLES20.GL_DYNAMIC_DRAW
+        );
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferHandle);
+        GLES20.glBufferData(
+                GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.length * 2, indexBuffer,
+                GLES20.GL_STATIC_DRAW
+        );
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Start a frame. Every sprite drawn until end() is transformed by the same matrix.
+     *
+     * @param mvpMatrix    The combined projection and view matrix.
+     * @param surfaceWidth The width of the surface in pixels.
+     */
+    public void begin(float[] mvpMatrix, int surfaceWidth) {
+        mScale = 1.0f / surfaceWidth;
+        mCount = 0;
+        mTexture = 0;
+        mDrawCalls = 0;
+
+        mProgram.use();
+        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glUniform1i(mTextureHandle, 0);
+        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        GLES20.glEnable(GLES20.GL_BLEND);
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVertexBufferHandle);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mIndexBufferHandle);
+        GLES20.glEnableVertexAttribArray(mPositionHandle);
+        GLES20.glVertexAttribPointer(mPositionHandle, 3, GLES20.GL_FLOAT, false, STRIDE, 0);
+        GLES20.glEnableVertexAttribArray(mTexCoordHandle);
+        GLES20.glVertexAttribPointer(mTexCoordHandle, 2, GLES20.GL_FLOAT, false, STRIDE, 3 * 4);
+        GLES20.glEnableVertexAttribArray(mColorHandle);
+        GLES20.glVertexAttribPointer(mColorHandle, 4, GLES20.GL_FLOAT, false, STRIDE, 5 * 4);
+    }
+
+    /**
+     * Add a sprite to the batch.
+     *
+     * @param region The atlas region to draw.
+     * @param left   The left of the sprite in surface pixels.
+     * @param top    The top of the sprite in surface pixels.
+     * @param width  The width of the sprite in surface pixels.
+     * @param height The height of the sprite in surface pixels.
+     * @param z      The depth of the sprite, 0 is the surface.
+     * @param tint   The red, green, blue and alpha the texture is multiplied by.
+     */
+    public void draw(
+            TextureAtlas.Region region, float left, float top, float width, float height,
+            float z, float[] tint
+    ) {
+        draw(region, left, top, width, height, height, z, tint);
+    }
+
+    /**
+     * Add the top of a sprite to the batch. The texture is cut off at the same place as the
+     * sprite, so the part that is drawn is not stretched.
+     *
+     * @param visibleHeight How much of the height to draw, from the top, in surface pixels.
+     * @see #draw(TextureAtlas.Region, float, float, float, float, float, float[])
+     */
+    public void draw(
+            TextureAtlas.Region region, float left, float top, float width, float height,
+            float visibleHeight, float z, float[] tint
+    ) {
+        if (region.texture != mTexture || mCount == MAX_SPRITES) {
+            flush();
+            mTexture = region.texture;
+        }
+        float x0 = left * mScale;
+        float y0 = top * mScale;
+        float x1 = (left + width) * mScale;
+        float y1 = (top + visibleHeight) * mScale;
+        float v1 = region.v0 + (region.v1 - region.v0) * (visibleHeight / height);
+
+        int o = mCount * FLOATS_PER_SPRITE;
+        o = vertex(o, x0, y0, z, region.u0, region.v0, tint);
+        o = vertex(o, x0, y1, z, region.u0, v1, tint);
+        o = vertex(o, x1, y1, z, region.u1, v1, tint);
+        vertex(o, x1, y0, z, region.u1, region.v0, tint);
+        mCount++;
+    }
+
+    /**
+     * Draw everything left in the batch and finish the frame.
+     */
+    public void end() {
+        flush();
+        GLES20.glDisableVertexAttribArray(mPositionHandle);
+        GLES20.glDisableVertexAttribArray(mTexCoordHandle);
+        GLES20.glDisableVertexAttribArray(mColorHandle);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Get the number of draw calls made since begin().
+     */
+    public int getDrawCalls() {
+        return mDrawCalls;
+    }
+
+    /**
+     * Release the buffers. The program stays cached for other batches. Must be called on the GL
+     * thread.
+     */
+    public void destroy() {
+        mResources.releaseBuffer(mVertexBufferHandle);
+        mResources.releaseBuffer(mIndexBufferHandle);
+    }
+
+    private int vertex(int o, float x, float y, float z, float u, float v, float[] tint) {
+        mVertices[o] = x;
+        mVertices[o + 1] = y;
+        mVertices[o + 2] = z;
+        mVertices[o + 3] = u;
+        mVertices[o + 4] = v;
+        mVertices[o + 5] = tint[0];
+        mVertices[o + 6] = tint[1];
+        mVertices[o + 7] = tint[2];
+        mVertices[o + 8] = tint[3];
+        return o + FLOATS_PER_VERTEX;
+    }
+
+    /**
+     * Upload the sprites in the batch and draw them with one call.
+     */
+    private void flush() {
+        if (mCount == 0) {
+            return;
+        }
+        int floats = mCount * FLOATS_PER_SPRITE;
+        mVertexBuffer.clear();
+        mVertexBuffer.put(mVertices, 0, floats).position(0);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, floats * 4, mVertexBuffer);
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture);
+        GLES20.glDrawElements(
+                GLES20.GL_TRIANGLES, mCount * INDICES_PER_SPRITE, GLES20.GL_UNSIGNED_SHORT, 0
+        );
+        mDrawCalls++;
+        mCount = 0;
+    }
+}
@@ -0,0 +1,305 @@
+package im.bunch.patience.game.graphics;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Packs every card face, the card back and the empty pile placeholders into one or a few large
+ * textures, called pages. Each image is a region of a page, so drawing a whole board only needs
+ * the page textures instead of a texture per card.
+ *
+ * Images are packed at the size cards are drawn at. They are decoded in the background by the
+ * TextureLoader and uploaded a few at a time by upload(), which the renderer calls once per
+ * frame, so building an atlas never stalls a frame. While a new set of pages is being built the
+ * old pages are still drawn, and the new ones replace them once every image is uploaded.
+ *
+ * Pages are as large as the GPU allows, up to MAX_PAGE_SIZE. All images have the same size, so
+ * they are packed in a simple grid with a small gutter between them to keep linear filtering
+ * from bleeding neighbouring images into each other.
+ *
+ * An atlas belongs to one GL context and must only be used on its GL thread. Its pages are
+ * textures of the GlResources of that context.
+ *
+ * @author Creston Bunch
+ */
+public class TextureAtlas {
+
+    public static final String LOG_TAG = "TextureAtlas";
+
+    /** The largest page we will allocate, even if the GPU supports more. */
+    public static final int MAX_PAGE_SIZE = 2048;
+
+    /** Empty pixels between images on a page. */
+    private static final int GUTTER = 2;
+
+    private static final String[] SUITS = { "c", "d", "h", "s" };
+    private static final String[] RANKS = {
+            "a", "2", "3", "4", "5", "6", "7", "8", "9", "10", "j", "q", "k"
+    };
+    private static final String[] EXTRAS = { "card_back", "card_blank", "ace_blank", "king_blank" };
+
+    private final GlResources mResources;
+    private final TextureLoader mLoader;
+    private final List<Integer> mIds;
+    private SparseArray<Region> mRegions;
+    private final SparseArray<Rectangle> mRectangles;
+    private int[] mPages;
+    private int mWidth;
+    private int mHeight;
+
+    // the pages being built, see setImageSize()
+    private Queue<TextureLoader.Decoded> mQueue;
+    private SparseArray<Region> mPendingRegions;
+    private int[] mPendingPages;
+    private int mUploaded;
+    private int mColumns;
+    private int mPerPage;
+    private int mCellWidth;
+    private int mCellHeight;
+    private int mPageWidth;
+    private int mPageHeight;
+
+    /**
+     * The location of an image in the atlas.
+     */
+    public static class Region {
+        /** The GL texture of the page the image is on. */
+        public final int texture;
+        public final float u0;
+        public final float v0;
+        public final float u1;
+        public final float v1;
+
+        Region(int texture, float u0, float v0, float u1, float v1) {
+            this.texture = texture;
+            this.u0 = u0;
+            this.v0 = v0;
+            this.u1 = u1;
+            this.v1 = v1;
+        }
+    }
+
+    public TextureAtlas(Context context, GlResources resources) {
+        mResources = resources;
+        mLoader = TextureLoader.get(context);
+        mIds = getResources(context);
+        mRegions = new SparseArray<>();
+        mRectangles = new SparseArray<>();
+        mPages = new int[0];
+    }
+
+    /**
+     * Get the drawable resource of every image that goes in the atlas.
+     */
+    public static List<Integer> getResources(Context context) {
+        Resources resources = context.getResources();
+        String pkg = context.getPackageName();
+        List<Integer> ids = new ArrayList<>();
+        for (String suit : SUITS) {
+            for (String rank : RANKS) {
+                ids.add(resources.getIdentifier(suit + rank, "drawable", pkg));
+            }
+        }
+        for (String extra : EXTRAS) {
+            ids.add(resources.getIdentifier(extra, "drawable", pkg));
+        }
+        return ids;
+    }
+
+    /**
+     * Set the size images should be packed at, usually the size of a card. If it changed, start
+     * building new pages at that size in the background.
+     */
+    public void setImageSize(int width, int height) {
+        if (width <= 0 || height <= 0 || (width == mWidth && height == mHeight)) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        abandon();
+
+        mQueue = new ConcurrentLinkedQueue<>();
+        int[] size = mLoader.load(mIds, width, height, mQueue);
+        mCellWidth = size[0] + GUTTER;
+        mCellHeight = size[1] + GUTTER;
+
+        int[] max = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, max, 0);
+        int limit = Math.min(max[0] > 0 ? max[0] : MAX_PAGE_SIZE, MAX_PAGE_SIZE);
+        mColumns = Math.max(1, Math.min(mIds.size(), limit / mCellWidth));
+        int rows = Math.max(1, Math.min(
+                (mIds.size() + mColumns - 1) / mColumns, limit / mCellHeight
+        ));
+        mPerPage = mColumns * rows;
+        mPageWidth = mColumns * mCellWidth;
+        mPageHeight = rows * mCellHeight;
+
+        mPendingRegions = new SparseArray<>();
+        mPendingPages = new int[(mIds.size() + mPerPage - 1) / mPerPage];
+        mUploaded = 0;
+        for (int p = 0; p < mPendingPages.length; p++) {
+            int page = mResources.createTexture();
+            mPendingPages[p] = page;
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, page);
+            GLES20.glTexParameteri(
+                    GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR
+            );
+            GLES20.glTexParameteri(
+                    GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR
+            );
+            // pages do not have to be a power of two as long as they are clamped
+            GLES20.glTexParameteri(
+                    GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE
+            );
+            GLES20.glTexParameteri(
+                    GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE
+            );
+            GLES20.glTexImage2D(
+                    GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mPageWidth, mPageHeight, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null
+            );
+        }
+    }
+
+    /**
+     * Upload at most a number of decoded images to the pages being built. Once every image is
+     * uploaded, the new pages replace the old ones.
+     *
+     * @return true if the atlas is still waiting for images.
+     */
+    public boolean upload(int budget) {
+        if (mQueue == null) {
+            return false;
+        }
+        for (int n = 0; n < budget; n++) {
+            TextureLoader.Decoded decoded = mQueue.poll();
+            if (decoded == null) {
+                break;
+            }
+            Bitmap bitmap = decoded.bitmap;
+            if (bitmap == null) {
+                // the image failed to decode, leave its cell empty and draw without it
+                mUploaded++;
+                continue;
+            }
+            int page = mPendingPages[mUploaded / mPerPage];
+            int cell = mUploaded % mPerPage;
+            int x = (cell % mColumns) * mCellWidth;
+            int y = (cell / mColumns) * mCellHeight;
+
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, page);
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, x, y, bitmap);
+
+            // sample from the middle of the edge texels so neighbours never bleed in
+            mPendingRegions.put(decoded.resId, new Region(
+                    page,
+                    (x + 0.5f) / mPageWidth,
+                    (y + 0.5f) / mPageHeight,
+                    (x + bitmap.getWidth() - 0.5f) / mPageWidth,
+                    (y + bitmap.getHeight() - 0.5f) / mPageHeight
+            ));
+            mUploaded++;
+        }
+
+        if (mUploaded == mIds.size()) {
+            // every image is uploaded, switch to the new pages
+            release();
+            mPages = mPendingPages;
+            mRegions = mPendingRegions;
+            mQueue = null;
+            mPendingPages = null;
+            mPendingRegions = null;
+            Log.i(LOG_TAG, "Packed " + mIds.size() + " images into " + mPages.length
+                    + " pages of " + mPageWidth + "x" + mPageHeight + ".");
+        }
+        return mQueue != null;
+    }
+
+    /**
+     * Check if new pages are still being built.
+     */
+    public boolean isLoading() {
+        return mQueue != null;
+    }
+
+    /**
+     * Get the region of a drawable resource, or null if it is not in the atlas.
+     */
+    public Region getRegion(int resId) {
+        return mRegions.get(resId);
+    }
+
+    /**
+     * Get a rectangle that draws a drawable resource from the atlas. Rectangles are shared by
+     * every component that draws the same image.
+     */
+    public Rectangle getRectangle(int resId) {
+        Rectangle rectangle = mRectangles.get(resId);
+        if (rectangle == null) {
+            Region region = mRegions.get(resId);
+            if (region == null) {
+                return null;
+            }
+            rectangle = new Rectangle(region);
+            mRectangles.put(resId, rectangle);
+        }
+        return rectangle;
+    }
+
+    /**
+     * Get the number of pages in the atlas.
+     */
+    public int getPageCount() {
+        return mPages.length;
+    }
+
+    /**
+     * Release every page, including any being built, and forget every rectangle made from
+     * them. Must be called on the GL thread.
+     */
+    public void destroy() {
+        abandon();
+        release();
+        mWidth = 0;
+        mHeight = 0;
+    }
+
+    /**
+     * Release the pages being drawn and forget their rectangles.
+     */
+    private void release() {
+        for (int i = 0; i < mRectangles.size(); i++) {
+            mRectangles.valueAt(i).destroy();
+        }
+        mRectangles.clear();
+        mRegions.clear();
+        for (int page : mPages) {
+            mResources.releaseTexture(page);
+        }
+        mPages = new int[0];
+    }
+
+    /**
+     * Stop building new pages. Images that are still being decoded for them are ignored.
+     */
+    private void abandon() {
+        if (mPendingPages != null) {
+            for (int page : mPendingPages) {
+                mResources.releaseTexture(page);
+            }
+        }
+        mQueue = null;
+        mPendingPages = null;
+        mPendingRegions = null;
+    }
+}
@@ -0,0 +1,217 @@
+package im.bunch.patience.game.graphics;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decodes card images on a background thread, scaled down to the size cards are actually drawn
+ * at. Card images are stored at a much higher resolution than most boards draw them, so decoding
+ * them at full size wastes time and memory.
+ *
+ * Decoded images are kept in a cache shared by the whole process. Images can be decoded ahead of
+ * time with prewarm(), for example while the list of games is shown, so that a game starts with
+ * its images ready. The GL thread never decodes anything; it only uploads images handed to it.
+ *
+ * @author Creston Bunch
+ */
+public class TextureLoader {
+
+    public static final String LOG_TAG = "TextureLoader";
+
+    /**
+     * Cached images are used for any size down to this fraction of their own size, and up to a
+     * little larger, instead of decoding them again.
+     */
+    public static final float MIN_SCALE = 1.0f / 1.5f;
+    public static final float MAX_SCALE = 1.0f / 0.9f;
+
+    private static TextureLoader sInstance;
+
+    private final Context mContext;
+    private final ExecutorService mExecutor;
+    // decoded images by resource id, sized in kilobytes to an eighth of the heap
+    private final LruCache<Integer, Bitmap> mBitmaps;
+
+    /**
+     * An image decoded for an atlas.
+     */
+    public static class Decoded {
+        public final int resId;
+        /** The image, or null if it could not be decoded. */
+        public final Bitmap bitmap;
+
+        Decoded(int resId, Bitmap bitmap) {
+            this.resId = resId;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private TextureLoader(Context context) {
+        mContext = context.getApplicationContext();
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, LOG_TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mBitmaps = new LruCache<Integer, Bitmap>(
+                (int) (Runtime.getRuntime().maxMemory() / 1024 / 8)
+        ) {
+            @Override
+            protected int sizeOf(Integer key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /**
+     * Get the texture loader of this process.
+     */
+    public static synchronized TextureLoader get(Context context) {
+        if (sInstance == null) {
+            sInstance = new TextureLoader(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Start decoding every atlas image at about the given size, without waiting for them.
+     */
+    public void prewarm(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        final List<Integer> ids = TextureAtlas.getResources(mContext);
+        final int[] size = chooseSize(ids, width, height);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int resId : ids) {
+                    load(resId, size[0], size[1]);
+                }
+                Log.i(LOG_TAG, "Prewarmed " + ids.size() + " images at "
+                        + size[0] + "x" + size[1] + ".");
+            }
+        });
+    }
+
+    /**
+     * Decode a set of images in the background, each into a queue as soon as it is ready. Every
+     * image is delivered at the same size, which is returned. If all of the images are already
+     * cached at a size close enough to the one asked for, that size is used instead. Every image
+     * is always delivered, with a null bitmap if it failed to decode, so a batch always finishes.
+     *
+     * @return The width and height the images will have.
+     */
+    public int[] load(List<Integer> ids, int width, int height, final Queue<Decoded> out) {
+        final int[] size = chooseSize(ids, width, height);
+        for (final int resId : ids) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Bitmap bitmap = null;
+                    try {
+                        bitmap = load(resId, size[0], size[1]);
+                    } catch (RuntimeException | OutOfMemoryError e) {
+                        Log.e(LOG_TAG, "Failed to load image " + resId + ".", e);
+                    }
+                    out.add(new Decoded(resId, bitmap));
+                }
+            });
+        }
+        return size;
+    }
+
+    /**
+     * Pick the size to deliver a set of images at. Must agree with the cache for every image, so
+     * that images decoded in an earlier batch can be used.
+     */
+    private synchronized int[] chooseSize(List<Integer> ids, int width, int height) {
+        Bitmap cached = mBitmaps.get(ids.get(0));
+        if (cached != null && isCloseEnough(cached, width)) {
+            for (int resId : ids) {
+                Bitmap b = mBitmaps.get(resId);
+                if (b == null || b.getWidth() != cached.getWidth()
+                        || b.getHeight() != cached.getHeight()) {
+                    return new int[] { width, height };
+                }
+            }
+            return new int[] { cached.getWidth(), cached.getHeight() };
+        }
+        return new int[] { width, height };
+    }
+
+    private static boolean isCloseEnough(Bitmap bitmap, int width) {
+        float scale = (float) width / bitmap.getWidth();
+        return scale >= MIN_SCALE && scale <= MAX_SCALE;
+    }
+
+    /**
+     * Get an image at exactly the given size, from the cache or by decoding it, or null if it
+     * cannot be decoded. Runs on the loader thread.
+     */
+    private Bitmap load(int resId, int width, int height) {
+        Bitmap bitmap = mBitmaps.get(resId);
+        if (bitmap != null && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+            return bitmap;
+        }
+        bitmap = decode(resId, width, height);
+        if (bitmap != null) {
+            mBitmaps.put(resId, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decode an image, skipping as many source pixels as possible, then scale it to size. Returns
+     * null if the image cannot be decoded.
+     */
+    private Bitmap decode(int resId, int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;   // No pre-scaling
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(mContext.getResources(), resId, options);
+
+        // the largest power of two that keeps the image at least as large as it will be drawn
+        int sample = 1;
+        while (options.outWidth / (sample * 2) >= width
+                && options.outHeight / (sample * 2) >= height) {
+            sample *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sample;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), resId, options);
+        if (bitmap == null) {
+            Log.w(LOG_TAG, "Could not decode image " + resId + ".");
+            return null;
+        }
+
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+            }
+            bitmap = scaled;
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,114 @@
+package im.bunch.patience.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the most recent samples of a measurement, like the time taken to draw each frame, in a
+ * ring buffer. Recording a sample never blocks and never allocates, so it can be done from the
+ * GL thread, the UI thread and the model thread at once. Percentiles are only computed when a
+ * snapshot is taken.
+ *
+ * @author Creston Bunch
+ */
+public class Histogram {
+
+    /** The number of samples kept, a power of two. */
+    public static final int CAPACITY = 1024;
+
+    private final String mName;
+    private final String mUnit;
+    private final AtomicLongArray mSamples;
+    private final AtomicLong mCount;
+
+    /**
+     * A summary of the samples in a histogram at some point in time.
+     */
+    public static class Snapshot {
+        public final String name;
+        public final String unit;
+        /** The number of samples ever recorded, not only the ones kept. */
+        public final long count;
+        public final long p50;
+        public final long p95;
+        public final long p99;
+        public final long max;
+
+        Snapshot(String name, String unit, long count, long p50, long p95, long p99, long max) {
+            this.name = name;
+            this.unit = unit;
+            this.count = count;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": n=" + count + " p50=" + p50 + unit + " p95=" + p95 + unit
+                    + " p99=" + p99 + unit + " max=" + max + unit;
+        }
+    }
+
+    /**
+     * @param name The name the histogram is reported under.
+     * @param unit The unit of the samples, appended to every value that is reported.
+     */
+    public Histogram(String name, String unit) {
+        mName = name;
+        mUnit = unit;
+        mSamples = new AtomicLongArray(CAPACITY);
+        mCount = new AtomicLong();
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Record a sample, replacing the oldest one if the buffer is full.
+     */
+    public void record(long value) {
+        long index = mCount.getAndIncrement();
+        mSamples.set((int) (index & (CAPACITY - 1)), value);
+    }
+
+    /**
+     * Forget every sample.
+     */
+    public void clear() {
+        mCount.set(0);
+    }
+
+    /**
+     * Summarize the samples kept right now. Samples recorded while the snapshot is taken may or
+     * may not be part of it.
+     */
+    public Snapshot snapshot() {
+        long count = mCount.get();
+        int size = (int) Math.min(count, CAPACITY);
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = mSamples.get(i);
+        }
+        Arrays.sort(values);
+        if (size == 0) {
+            return new Snapshot(mName, mUnit, 0, 0, 0, 0, 0);
+        }
+        return new Snapshot(
+                mName, mUnit, count,
+                percentile(values, 0.50), percentile(values, 0.95), percentile(values, 0.99),
+                values[size - 1]
+        );
+    }
+
+    /**
+     * Get a percentile of sorted values, by the nearest rank.
+     */
+    private static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,108 @@
+package im.bunch.patience.metrics;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings of the game loop, collected for the whole process. The renderer, the component manager
+ * and the model thread record into these histograms as they work, in nanoseconds from
+ * System.nanoTime(). Nothing is logged while recording; a report of every histogram can be taken
+ * on demand and written to a file, so that jank can be diagnosed from a field report.
+ *
+ * @author Creston Bunch
+ */
+public final class Metrics {
+
+    public static final String LOG_TAG = "Metrics";
+
+    /** Time taken to draw a frame on the GL thread. */
+    public static final Histogram RENDER = new Histogram("render", "ns");
+
+    /** Time taken by an update cycle of the component manager. */
+    public static final Histogram UPDATE = new Histogram("update", "ns");
+
+    /** Time taken by a command on the model thread, which is all of the V8 work. */
+    public static final Histogram MODEL_CALL = new Histogram("model call", "ns");
+
+    /** Time spent waiting for the component manager lock before handling an event. */
+    public static final Histogram LOCK_WAIT = new Histogram("lock wait", "ns");
+
+    /** The number of model thread commands run between two frames. */
+    public static final Histogram MODEL_CALLS_PER_FRAME =
+            new Histogram("model calls per frame", "");
+
+    private static final Histogram[] HISTOGRAMS = {
+            RENDER, UPDATE, MODEL_CALL, LOCK_WAIT, MODEL_CALLS_PER_FRAME
+    };
+
+    private static final AtomicLong sModelCalls = new AtomicLong();
+
+    private Metrics() {
+    }
+
+    /**
+     * Count a command run on the model thread, and record how long it took.
+     */
+    public static void recordModelCall(long nanos) {
+        sModelCalls.incrementAndGet();
+        MODEL_CALL.record(nanos);
+    }
+
+    /**
+     * Get the number of commands ever run on a model thread.
+     */
+    public static long getModelCalls() {
+        return sModelCalls.get();
+    }
+
+    /**
+     * Summarize every histogram, one per line.
+     */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Histogram histogram : HISTOGRAMS) {
+            sb.append(histogram.snapshot()).append('\n');
+        }
+        sb.append("model calls: ").append(getModelCalls()).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Write a report to a new file in a directory.
+     *
+     * @return The file written.
+     */
+    public static File dump(File dir) throws IOException {
+        String time = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        File file = new File(dir, "metrics-" + time + ".txt");
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(Build.MANUFACTURER + " " + Build.MODEL + ", Android "
+                    + Build.VERSION.RELEASE + "\n");
+            writer.write(report());
+        } finally {
+            writer.close();
+        }
+        Log.i(LOG_TAG, "Wrote metrics to " + file + ".");
+        return file;
+    }
+
+    /**
+     * Forget every sample.
+     */
+    public static void clear() {
+        for (Histogram histogram : HISTOGRAMS) {
+            histogram.clear();
+        }
+        sModelCalls.set(0);
+    }
+}
@@ -0,0 +1,170 @@
+package im.bunch.patience.model;
+
+import com.eclipsesource.v8.V8Array;
+
+/**
+ * A frame is a packed snapshot of every card in a JavaScript model. It is read from the V8 runtime
+ * with a single call so that views can query card state without touching V8. The layout of each
+ * card record must match FRAME in common.js. Every pile in the game also has a version in the
+ * frame, which changes whenever the cards in the pile change.
+ *
+ * A frame never changes once it is read, so it can be handed to any thread; the model publishes a
+ * new frame for every snapshot. Card positions are owned by the Java view and kept in a Placement
+ * shared by every frame of the model.
+ *
+ * @author Creston Bunch
+ */
+public class Frame {
+
+    public static final int HEADER = 2;
+    public static final int STRIDE = 5;
+    public static final int FLAGS = 0;
+    public static final int OFFSET_X = 1;
+    public static final int OFFSET_Y = 2;
+    public static final int SUIT = 3;
+    public static final int RANK = 4;
+
+    public static final int FLAG_ALIVE = 1;
+    public static final int FLAG_VISIBLE = 2;
+    public static final int FLAG_SELECTED = 4;
+
+    private final double[] mData;
+    private final Placement mPlacement;
+    private final int mSize;
+    private final int mPiles;
+    private final int mGeneration;
+    private final int mModelVersion;
+
+    /**
+     * Construct an empty frame.
+     */
+    public Frame(Placement placement) {
+        mData = new double[0];
+        mPlacement = placement;
+        mSize = 0;
+        mPiles = 0;
+        mGeneration = 0;
+        mModelVersion = -1;
+    }
+
+    /**
+     * Copy a packed frame array returned by the snapshot function.
+     *
+     * @param data       The V8 array of packed card records.
+     * @param placement  The placements of the model, shared with every other frame.
+     * @param generation The generation of the frame, see getGeneration().
+     * @param modelVersion The version of the model the snapshot was read at.
+     */
+    Frame(V8Array data, Placement placement, int generation, int modelVersion) {
+        int length = data.length();
+        mData = new double[length];
+        if (length > 0) {
+            data.getDoubles(0, length, mData);
+        }
+        mSize = length >= HEADER ? (int) mData[0] : 0;
+        mPiles = length >= HEADER ? (int) mData[1] : 0;
+        mPlacement = placement;
+        mGeneration = generation;
+        mModelVersion = modelVersion;
+    }
+
+    /**
+     * Get a number that changes every time a new snapshot is read. Views can cache anything they
+     * read from the model for as long as the generation stays the same.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Get the version of the model this frame was read at, see JavascriptModel.invalidateFrame().
+     */
+    int getModelVersion() {
+        return mModelVersion;
+    }
+
+    /**
+     * Store where a card has been laid out. Must only be called by view components.
+     */
+    public void setPlacement(int id, int x, int y, int z) {
+        mPlacement.set(id, x, y, z);
+    }
+
+    /**
+     * Check if a pile id has a version in this frame. Piles that are not part of the game, like
+     * piles being dragged, have no version.
+     */
+    public boolean containsPile(int pileId) {
+        return pileId >= 0 && pileId < mPiles;
+    }
+
+    /**
+     * Get the version of a pile. It changes whenever cards are added to, removed from or
+     * reordered in the pile, or its layout changes.
+     */
+    public int getPileVersion(int pileId) {
+        return (int) mData[HEADER + mSize * STRIDE + pileId];
+    }
+
+    /**
+     * Get the number of cards in this frame.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Check if a card id has a record in this frame.
+     */
+    public boolean contains(int id) {
+        return id >= 0 && id < mSize;
+    }
+
+    public int getX(int id) {
+        return mPlacement.getX(id);
+    }
+
+    public int getY(int id) {
+        return mPlacement.getY(id);
+    }
+
+    public int getZ(int id) {
+        return mPlacement.getZ(id);
+    }
+
+    public double getOffsetX(int id) {
+        return mData[HEADER + id * STRIDE + OFFSET_X];
+    }
+
+    public double getOffsetY(int id) {
+        return mData[HEADER + id * STRIDE + OFFSET_Y];
+    }
+
+    public int getSuit(int id) {
+        return (int) mData[HEADER + id * STRIDE + SUIT];
+    }
+
+    public int getRank(int id) {
+        return (int) mData[HEADER + id * STRIDE + RANK];
+    }
+
+    public boolean isAlive(int id) {
+        return hasFlag(id, FLAG_ALIVE);
+    }
+
+    public boolean isVisible(int id) {
+        return hasFlag(id, FLAG_VISIBLE);
+    }
+
+    public boolean isSelected(int id) {
+        return hasFlag(id, FLAG_SELECTED);
+    }
+
+    public int getFlags(int id) {
+        return (int) mData[HEADER + id * STRIDE + FLAGS];
+    }
+
+    private boolean hasFlag(int id, int flag) {
+        return (getFlags(id) & flag) != 0;
+    }
+}
@@ -0,0 +1,228 @@
+package im.bunch.patience.model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes game states as bytes, for the history, the database and saved instance state.
+ * The first byte of a state is its format:
+ *
+ * FORMAT_JSON: the rest is the UTF-8 JSON of the whole game, which is how games were saved before
+ * states were packed. Such states are only ever read.
+ *
+ * FORMAT_PACKED: the number of card codes and the codes as varints, then the UTF-8 JSON of
+ * everything else in the game. The codes and the JSON are made by pack() in common.js, most cards
+ * take a single byte.
+ *
+ * FORMAT_DEFLATED: the rest is a state in another format, compressed with a Deflater.
+ *
+ * @author Creston Bunch
+ */
+public final class GameStateCodec {
+
+    public static final byte FORMAT_JSON = 0;
+    public static final byte FORMAT_PACKED = 1;
+    public static final byte FORMAT_DEFLATED = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * A state read back from bytes. The codes are null for a state in FORMAT_JSON, where the JSON
+     * holds the whole game.
+     */
+    public static class Unpacked {
+        public final int[] codes;
+        public final String json;
+
+        Unpacked(int[] codes, String json) {
+            this.codes = codes;
+            this.json = json;
+        }
+    }
+
+    private GameStateCodec() {
+    }
+
+    /**
+     * Write the card codes and the JSON returned by pack() in common.js.
+     */
+    public static byte[] pack(int[] codes, String json) {
+        byte[] text = json.getBytes(UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(codes.length + text.length + 8);
+        out.write(FORMAT_PACKED);
+        writeVarInt(out, codes.length);
+        for (int code : codes) {
+            writeVarInt(out, code);
+        }
+        out.write(text, 0, text.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Wrap the JSON of a whole game, as saved before states were packed.
+     */
+    public static byte[] fromJson(String json) {
+        byte[] text = json.getBytes(UTF_8);
+        byte[] state = new byte[text.length + 1];
+        state[0] = FORMAT_JSON;
+        System.arraycopy(text, 0, state, 1, text.length);
+        return state;
+    }
+
+    /**
+     * Read a state in any format.
+     *
+     * @throws IllegalArgumentException if the bytes are not a state.
+     */
+    public static Unpacked unpack(byte[] state) {
+        if (state == null || state.length == 0) {
+            throw new IllegalArgumentException("Empty state.");
+        }
+        switch (state[0]) {
+            case FORMAT_JSON:
+                return new Unpacked(null, new String(state, 1, state.length - 1, UTF_8));
+            case FORMAT_PACKED:
+                try {
+                    ByteBuffer in = ByteBuffer.wrap(state, 1, state.length - 1);
+                    int count = readVarInt(in);
+                    // every code takes at least a byte, so a larger count is corrupt
+                    if (count < 0 || count > in.remaining()) {
+                        throw new IllegalArgumentException("Truncated state.");
+                    }
+                    int[] codes = new int[count];
+                    for (int i = 0; i < codes.length; i++) {
+                        codes[i] = readVarInt(in);
+                    }
+                    String json = new String(state, in.position(), in.remaining(), UTF_8);
+                    return new Unpacked(codes, json);
+                } catch (BufferUnderflowException e) {
+                    throw new IllegalArgumentException("Truncated state.", e);
+                }
+            case FORMAT_DEFLATED:
+                return unpack(inflate(state, 1));
+            default:
+                throw new IllegalArgumentException("Unknown state format " + state[0] + ".");
+        }
+    }
+
+    /**
+     * Compress a state for storage. The state is returned as it is when compressing does not make
+     * it smaller.
+     */
+    public static byte[] compress(byte[] state) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(state.length);
+        out.write(FORMAT_DEFLATED);
+        deflate(state, out);
+        return out.size() < state.length ? out.toByteArray() : state;
+    }
+
+    /**
+     * Undo compress(), so that states can be compared or delta encoded.
+     */
+    public static byte[] expand(byte[] state) {
+        while (state.length > 0 && state[0] == FORMAT_DEFLATED) {
+            state = inflate(state, 1);
+        }
+        return state;
+    }
+
+    /**
+     * Compress bytes to the end of a stream.
+     */
+    static void deflate(byte[] data, ByteArrayOutputStream out) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompress bytes written by deflate(), starting at an offset.
+     *
+     * @throws IllegalArgumentException if the bytes are corrupt or cut short.
+     */
+    static byte[] inflate(byte[] data, int offset) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated compressed data.");
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed data.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Write a non-negative number in as few bytes as it needs, seven bits at a time.
+     */
+    static void writeVarInt(ByteArrayOutputStream out, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative varint " + value + ".");
+        }
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Read a number written by writeVarInt().
+     */
+    static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.get() & 0xff;
+            value |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint.");
+    }
+
+    /**
+     * Write a length and then the bytes.
+     */
+    static void writeBytes(ByteArrayOutputStream out, byte[] data) {
+        writeVarInt(out, data.length);
+        out.write(data, 0, data.length);
+    }
+
+    /**
+     * Read bytes written by writeBytes().
+     */
+    static byte[] readBytes(ByteBuffer in) {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Truncated bytes.");
+        }
+        byte[] data = new byte[length];
+        in.get(data);
+        return data;
+    }
+}
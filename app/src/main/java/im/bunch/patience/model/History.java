@@ -0,0 +1,470 @@
+package im.bunch.patience.model;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Type;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The undo history of a game. Instead of keeping a complete serialized game for every move, the
+ * history keeps a full checkpoint every CHECKPOINT_INTERVAL states and stores every other state as
+ * a delta against the state before it. Consecutive game states are nearly identical, so a delta
+ * is usually a few copy instructions and a handful of changed bytes.
+ *
+ * Appending a state only ever compares it against the latest state, and any state can be rebuilt
+ * from its nearest checkpoint with at most CHECKPOINT_INTERVAL - 1 deltas. Entries are never
+ * modified once added, so copies of a history share them.
+ *
+ * States are the bytes of GameStateCodec. A history is stored with toBytes(), which compresses
+ * every entry at once; histories stored as JSON by older versions can still be read.
+ *
+ * @author Creston Bunch
+ */
+public class History {
+
+    /** How often a full state is stored instead of a delta. */
+    public static final int CHECKPOINT_INTERVAL = 16;
+
+    /** The first byte of a history written by toBytes(). */
+    public static final byte FORMAT = 1;
+
+    /** The length of the blocks used to find matching bytes in the previous state. */
+    private static final int BLOCK = 16;
+    private static final int HASH_BASE = 31;
+
+    /** Marks a run of literal bytes in the ops of a delta. */
+    private static final int LITERAL = -1;
+
+    private static final int KIND_CHECKPOINT = 0;
+    private static final int KIND_DELTA = 1;
+
+    private static final Gson GSON = new Gson();
+
+    private final ArrayList<Entry> mEntries;
+    private byte[] mHead;
+
+    /**
+     * A single state in the history. A checkpoint holds the full state, anything else holds a
+     * delta against the previous state: pairs of (offset, length) copied from the previous state,
+     * or (LITERAL, length) taken from the literal bytes.
+     */
+    private static class Entry {
+        byte[] checkpoint;
+        int[] ops;
+        byte[] literal;
+        int length;
+    }
+
+    /**
+     * The JSON form of a history written by older versions, where states were JSON text.
+     */
+    private static class LegacyHistory {
+        ArrayList<LegacyEntry> mEntries;
+    }
+
+    private static class LegacyEntry {
+        String checkpoint;
+        int[] ops;
+        String literal;
+        int length;
+    }
+
+    /**
+     * Construct an empty history.
+     */
+    public History() {
+        mEntries = new ArrayList<>();
+    }
+
+    /**
+     * Construct a copy of another history. The entries themselves are shared.
+     */
+    public History(History other) {
+        mEntries = new ArrayList<>(other.mEntries);
+        mHead = other.mHead;
+    }
+
+    /**
+     * Build a history from a list of full states, oldest first.
+     */
+    public static History fromStates(List<byte[]> states) {
+        History history = new History();
+        for (byte[] state : states) {
+            history.add(state);
+        }
+        return history;
+    }
+
+    /**
+     * Read a history stored as JSON by an older version, either a delta encoded history or a
+     * plain JSON list of states. Every state is kept as JSON in FORMAT_JSON of GameStateCodec.
+     *
+     * @throws JsonParseException if the json is not a history.
+     */
+    public static History fromJson(String json) {
+        History history = new History();
+        if (json == null) {
+            return history;
+        }
+        if (json.trim().startsWith("[")) {
+            Type collectionType = new TypeToken<List<String>>(){}.getType();
+            List<String> states = GSON.fromJson(json, collectionType);
+            for (String state : states) {
+                history.add(GameStateCodec.fromJson(state));
+            }
+            return history;
+        }
+        LegacyHistory legacy = GSON.fromJson(json, LegacyHistory.class);
+        if (legacy == null || legacy.mEntries == null) {
+            throw new JsonParseException("Not a history.");
+        }
+        String state = null;
+        for (LegacyEntry entry : legacy.mEntries) {
+            state = entry.checkpoint != null ? entry.checkpoint : decodeLegacy(state, entry);
+            history.add(GameStateCodec.fromJson(state));
+        }
+        return history;
+    }
+
+    /**
+     * Read a history written by toBytes().
+     *
+     * @throws IllegalArgumentException if the bytes are not a history.
+     */
+    public static History fromBytes(byte[] data) {
+        if (data == null || data.length == 0 || data[0] != FORMAT) {
+            throw new IllegalArgumentException("Not a history.");
+        }
+        History history = new History();
+        try {
+            ByteBuffer in = ByteBuffer.wrap(GameStateCodec.inflate(data, 1));
+            int count = GameStateCodec.readVarInt(in);
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry();
+                boolean checkpoint = GameStateCodec.readVarInt(in) == KIND_CHECKPOINT;
+                if (checkpoint != (i % CHECKPOINT_INTERVAL == 0)) {
+                    throw new IllegalArgumentException("Checkpoint out of place.");
+                }
+                if (checkpoint) {
+                    entry.checkpoint = GameStateCodec.readBytes(in);
+                    entry.length = entry.checkpoint.length;
+                } else {
+                    entry.length = GameStateCodec.readVarInt(in);
+                    int ops = GameStateCodec.readVarInt(in);
+                    // every op takes at least a byte, so a larger count is corrupt
+                    if (ops < 0 || ops > in.remaining()) {
+                        throw new IllegalArgumentException("Truncated history.");
+                    }
+                    entry.ops = new int[ops];
+                    for (int j = 0; j < entry.ops.length; j++) {
+                        // offsets are stored one higher so that LITERAL is not negative
+                        entry.ops[j] = GameStateCodec.readVarInt(in) - (j % 2 == 0 ? 1 : 0);
+                    }
+                    entry.literal = GameStateCodec.readBytes(in);
+                }
+                history.mEntries.add(entry);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated history.", e);
+        }
+        if (!history.mEntries.isEmpty()) {
+            try {
+                history.mHead = history.rebuild(history.mEntries.size() - 1);
+            } catch (IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Corrupt history.", e);
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Write this history in its compact form.
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        GameStateCodec.writeVarInt(body, mEntries.size());
+        for (Entry entry : mEntries) {
+            if (entry.checkpoint != null) {
+                GameStateCodec.writeVarInt(body, KIND_CHECKPOINT);
+                GameStateCodec.writeBytes(body, entry.checkpoint);
+            } else {
+                GameStateCodec.writeVarInt(body, KIND_DELTA);
+                GameStateCodec.writeVarInt(body, entry.length);
+                GameStateCodec.writeVarInt(body, entry.ops.length);
+                for (int j = 0; j < entry.ops.length; j++) {
+                    GameStateCodec.writeVarInt(body, entry.ops[j] + (j % 2 == 0 ? 1 : 0));
+                }
+                GameStateCodec.writeBytes(body, entry.literal);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() / 2);
+        out.write(FORMAT);
+        GameStateCodec.deflate(body.toByteArray(), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Append a new state. Compressed states are expanded first so that they can be delta encoded.
+     */
+    public void add(byte[] state) {
+        state = GameStateCodec.expand(state);
+        Entry entry;
+        if (mEntries.size() % CHECKPOINT_INTERVAL == 0) {
+            entry = new Entry();
+            entry.checkpoint = state;
+            entry.length = state.length;
+        } else {
+            entry = encode(mHead, state);
+        }
+        mEntries.add(entry);
+        mHead = state;
+    }
+
+    /**
+     * Remove the latest state and return the state before it, which is the new latest state.
+     * Returns null if the history is empty afterwards.
+     */
+    public byte[] pop() {
+        if (mEntries.isEmpty()) {
+            return null;
+        }
+        mEntries.remove(mEntries.size() - 1);
+        mHead = mEntries.isEmpty() ? null : rebuild(mEntries.size() - 1);
+        return mHead;
+    }
+
+    /**
+     * Get the latest state, or null if the history is empty.
+     */
+    public byte[] peek() {
+        return mHead;
+    }
+
+    /**
+     * Rebuild the state at a given index.
+     */
+    public byte[] get(int index) {
+        if (index == mEntries.size() - 1 && mHead != null) {
+            return mHead;
+        }
+        return rebuild(index);
+    }
+
+    /**
+     * Rebuild a state from its nearest checkpoint.
+     */
+    private byte[] rebuild(int index) {
+        int checkpoint = index - index % CHECKPOINT_INTERVAL;
+        byte[] state = mEntries.get(checkpoint).checkpoint;
+        for (int i = checkpoint + 1; i <= index; i++) {
+            state = decode(state, mEntries.get(i));
+        }
+        return state;
+    }
+
+    /**
+     * Get the number of states in the history.
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Check if there are no states in the history.
+     */
+    public boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    /**
+     * Estimate the number of bytes of heap used by the stored states, not counting the cached
+     * latest state.
+     */
+    public long memoryUsage() {
+        long bytes = 0;
+        for (Entry entry : mEntries) {
+            // object headers and references
+            bytes += 32;
+            if (entry.checkpoint != null) {
+                bytes += 16 + entry.checkpoint.length;
+            } else {
+                bytes += 16 + 4L * entry.ops.length;
+                bytes += 16 + entry.literal.length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Encode a state as a delta against the state before it. Blocks of the previous state are
+     * hashed, then the new state is scanned with a rolling hash to find runs of bytes that can be
+     * copied instead of stored.
+     */
+    private static Entry encode(byte[] base, byte[] target) {
+        int baseLength = base.length;
+        int targetLength = target.length;
+
+        // index the hash of every whole block in the base
+        int blocks = baseLength / BLOCK;
+        int capacity = Integer.highestOneBit(Math.max(blocks, 1) * 2) * 2;
+        int mask = capacity - 1;
+        int[] offsets = new int[capacity];
+        int[] hashes = new int[capacity];
+        Arrays.fill(offsets, -1);
+        for (int b = 0; b < blocks; b++) {
+            int offset = b * BLOCK;
+            int hash = hash(base, offset);
+            int slot = hash & mask;
+            while (offsets[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            offsets[slot] = offset;
+            hashes[slot] = hash;
+        }
+
+        // HASH_BASE ^ (BLOCK - 1), to roll the first byte out of the window
+        int power = 1;
+        for (int i = 1; i < BLOCK; i++) {
+            power *= HASH_BASE;
+        }
+
+        int[] ops = new int[16];
+        int count = 0;
+        ByteArrayOutputStream literal = new ByteArrayOutputStream();
+        int literalStart = 0;
+        int i = 0;
+        int hash = targetLength >= BLOCK ? hash(target, 0) : 0;
+
+        while (i + BLOCK <= targetLength) {
+            int match = -1;
+            for (int slot = hash & mask; offsets[slot] >= 0; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash && regionMatches(base, offsets[slot], target, i)) {
+                    match = offsets[slot];
+                    break;
+                }
+            }
+
+            if (match < 0) {
+                // roll the window forward one byte
+                if (i + BLOCK < targetLength) {
+                    hash = (hash - (target[i] & 0xff) * power) * HASH_BASE
+                            + (target[i + BLOCK] & 0xff);
+                }
+                i++;
+                continue;
+            }
+
+            // grow the match in both directions
+            int start = i;
+            int baseStart = match;
+            while (start > literalStart && baseStart > 0
+                    && base[baseStart - 1] == target[start - 1]) {
+                start--;
+                baseStart--;
+            }
+            int end = i + BLOCK;
+            int baseEnd = match + BLOCK;
+            while (end < targetLength && baseEnd < baseLength && base[baseEnd] == target[end]) {
+                end++;
+                baseEnd++;
+            }
+
+            if (count + 4 > ops.length) {
+                ops = Arrays.copyOf(ops, ops.length * 2);
+            }
+            if (start > literalStart) {
+                literal.write(target, literalStart, start - literalStart);
+                ops[count++] = LITERAL;
+                ops[count++] = start - literalStart;
+            }
+            ops[count++] = baseStart;
+            ops[count++] = end - start;
+
+            i = end;
+            literalStart = end;
+            if (i + BLOCK <= targetLength) {
+                hash = hash(target, i);
+            }
+        }
+
+        if (literalStart < targetLength) {
+            if (count + 2 > ops.length) {
+                ops = Arrays.copyOf(ops, ops.length + 2);
+            }
+            literal.write(target, literalStart, targetLength - literalStart);
+            ops[count++] = LITERAL;
+            ops[count++] = targetLength - literalStart;
+        }
+
+        Entry entry = new Entry();
+        entry.ops = Arrays.copyOf(ops, count);
+        entry.literal = literal.toByteArray();
+        entry.length = targetLength;
+        return entry;
+    }
+
+    /**
+     * Apply a delta to the state before it.
+     */
+    private static byte[] decode(byte[] base, Entry entry) {
+        if (entry.checkpoint != null) {
+            return entry.checkpoint;
+        }
+        byte[] state = new byte[entry.length];
+        int position = 0;
+        int literalOffset = 0;
+        for (int i = 0; i < entry.ops.length; i += 2) {
+            int length = entry.ops[i + 1];
+            if (entry.ops[i] == LITERAL) {
+                System.arraycopy(entry.literal, literalOffset, state, position, length);
+                literalOffset += length;
+            } else {
+                System.arraycopy(base, entry.ops[i], state, position, length);
+            }
+            position += length;
+        }
+        return state;
+    }
+
+    /**
+     * Apply a delta of a history stored as JSON to the text state before it.
+     */
+    private static String decodeLegacy(String base, LegacyEntry entry) {
+        StringBuilder builder = new StringBuilder(entry.length);
+        int literalOffset = 0;
+        for (int i = 0; i < entry.ops.length; i += 2) {
+            int length = entry.ops[i + 1];
+            if (entry.ops[i] == LITERAL) {
+                builder.append(entry.literal, literalOffset, literalOffset + length);
+                literalOffset += length;
+            } else {
+                builder.append(base, entry.ops[i], entry.ops[i] + length);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean regionMatches(byte[] base, int baseOffset, byte[] target, int offset) {
+        for (int i = 0; i < BLOCK; i++) {
+            if (base[baseOffset + i] != target[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int hash = 0;
+        for (int i = offset; i < offset + BLOCK; i++) {
+            hash = hash * HASH_BASE + (data[i] & 0xff);
+        }
+        return hash;
+    }
+}
@@ -1,23 +1,19 @@
 package im.bunch.patience.model;
 
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.util.Log;
 
 import com.eclipsesource.v8.JavaVoidCallback;
-import com.eclipsesource.v8.Releasable;
 import com.eclipsesource.v8.V8;
 import com.eclipsesource.v8.V8Array;
 import com.eclipsesource.v8.V8Object;
-import com.eclipsesource.v8.utils.V8Executor;
-import com.eclipsesource.v8.utils.V8Runnable;
-
-import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import im.bunch.patience.game.Component;
 import im.bunch.patience.game.ComponentManager;
@@ -30,6 +26,12 @@ import im.bunch.patience.view.Pile;
  * A javascript model holds the game state in a V8 runtime. This class exposes some APIs for the
  * Java view to get information and update the state.
  *
+ * The V8 runtime is owned by a dedicated model thread and every piece of V8 work is executed there.
+ * The public methods of this class can be called from any thread; they send a command to the
+ * model thread and wait for its result. Code that needs to touch V8 objects directly, like view
+ * components talking to their JavaScript piles and cards, must do so inside run(), call(),
+ * submit() or post().
+ *
  * @author Creston Bunch
  */
 public class JavascriptModel {
@@ -38,13 +40,21 @@ public class JavascriptModel {
     private String mScript;
     private Context mContext;
     private V8 mRuntime;
+    private RuntimePool.Lease mLease;
+    private ModelThread mThread;
     private List<Runnable> mScoreListeners;
     private List<Runnable> mSaveListeners;
     private List<Runnable> mEndListeners;
-    private List<String> mHistory;
+    private History mHistory;
+    private Placement mPlacement;
+    private volatile Frame mFrame;
+    private final AtomicInteger mModelVersion;
+    private int mGeneration;
 
     /**
-     * Construct a Javascript model from a given application context and a script.
+     * Construct a Javascript model from a given application context and a script. The V8 runtime
+     * is leased from the RuntimePool, so release() must be called once the model is no longer
+     * needed.
      *
      * @param ctx    The application context that is loading the model.
      * @param script The script to use for creating the model.
@@ -56,28 +66,25 @@ public class JavascriptModel {
         mScoreListeners = new ArrayList<>();
         mSaveListeners = new ArrayList<>();
         mEndListeners = new ArrayList<>();
-        mRuntime = V8.createV8Runtime("", "/tmp");
-        mHistory = new ArrayList<>();
-
-        final AssetManager am = ctx.getAssets();
-        String common = IOUtils.toString(am.open("common.js"));
-
-        JavaVoidCallback callback = new JavaVoidCallback() {
-            public void invoke(final V8Object receiver, final V8Array parameters) {
-                if (parameters.length() > 0) {
-                    Object arg1 = parameters.get(0);
-                    System.out.println(arg1);
-                    if (arg1 instanceof Releasable) {
-                        ((Releasable) arg1).release();
-                    }
-                }
+        mLease = RuntimePool.get(ctx).obtain(script);
+        mRuntime = mLease.getRuntime();
+        mHistory = new History();
+        mPlacement = new Placement();
+        mFrame = new Frame(mPlacement);
+        mModelVersion = new AtomicInteger();
+
+        // the model thread holds the V8 lock for as long as it owns the runtime
+        mThread = new ModelThread();
+        mThread.start();
+        mThread.post(new Runnable() {
+            @Override
+            public void run() {
+                mRuntime.getLocker().acquire();
             }
-        };
+        });
 
-        // allow printing
-        mRuntime.registerJavaMethod(callback, "print");
-
-        callback = new JavaVoidCallback() {
+        // JavaScript callbacks are always invoked on the model thread
+        JavaVoidCallback callback = new JavaVoidCallback() {
             public void invoke(final V8Object receiver, final V8Array parameters) {
                 if (parameters.length() > 0) {
                     try {
@@ -96,7 +103,7 @@ public class JavascriptModel {
         };
 
         // function for adding score
-        mRuntime.registerJavaMethod(callback, "score");
+        mLease.setCallback("score", callback);
 
         callback = new JavaVoidCallback() {
             public void invoke(final V8Object receiver, final V8Array parameters) {
@@ -111,8 +118,8 @@ public class JavascriptModel {
         };
 
         // function for executing win/lose listeners
-        mRuntime.registerJavaMethod(callback, "win");
-        mRuntime.registerJavaMethod(callback, "lose");
+        mLease.setCallback("win", callback);
+        mLease.setCallback("lose", callback);
 
         callback = new JavaVoidCallback() {
             public void invoke(final V8Object receiver, final V8Array parameters) {
@@ -129,7 +136,7 @@ public class JavascriptModel {
         };
 
         // function to update history
-        mRuntime.registerJavaMethod(callback, "history");
+        mLease.setCallback("history", callback);
 
         callback = new JavaVoidCallback() {
             public void invoke(final V8Object receiver, final V8Array parameters) {
@@ -145,73 +152,168 @@ public class JavascriptModel {
         };
 
         // function to save the game
-        mRuntime.registerJavaMethod(callback, "save");
+        mLease.setCallback("save", callback);
+    }
 
+    /**
+     * Run a command on the model thread and wait for it to finish.
+     */
+    public void run(final Runnable command) {
+        mThread.call(new Callable<Void>() {
+            @Override
+            public Void call() {
+                command.run();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Run a command on the model thread and wait for its result.
+     */
+    public <T> T call(Callable<T> command) {
+        return mThread.call(command);
+    }
 
-        synchronized (this) {
-            acquireLock();
-            mRuntime.executeScript(common);
-            mRuntime.executeScript(script);
-            releaseLock();
+    /**
+     * Queue a command on the model thread and get a future for its result.
+     */
+    public <T> Future<T> submit(Callable<T> command) {
+        return mThread.submit(command);
+    }
+
+    /**
+     * Queue a command on the model thread without waiting for it.
+     */
+    public void post(Runnable command) {
+        mThread.post(command);
+    }
+
+    /**
+     * Release the JavaScript game and return the V8 runtime to the pool. Any view built from this
+     * model must be cleared first, and the model must not be used afterwards.
+     */
+    public synchronized void release() {
+        if (mLease == null) {
+            return;
         }
+        run(new Runnable() {
+            @Override
+            public void run() {
+                if (mGame != null) {
+                    mGame.release();
+                    mGame = null;
+                }
+                mRuntime.getLocker().release();
+            }
+        });
+        mThread.quit();
+        mLease.release();
+        mLease = null;
     }
 
     /**
      * Initialize an empty game from the model.
      */
-    public synchronized void initialize() {
-        acquireLock();
-        V8Array parameters = new V8Array(mRuntime);
-        mGame = mRuntime.executeObjectFunction("init", parameters);
-        mHistory.add(serialize());
-        parameters.release();
-        releaseLock();
+    public void initialize() {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                V8Array parameters = new V8Array(mRuntime);
+                mGame = mRuntime.executeObjectFunction("init", parameters);
+                mHistory.add(serialize());
+                parameters.release();
+                invalidateFrame();
+            }
+        });
     }
 
     /**
-     * Calls the serialize function defined in JavaScript on the current game state so that it can
-     * be safely preserved.
+     * Packs the current game state with pack() from common.js so that it can be safely preserved.
+     * Every card is stored as a code of a byte or two, see GameStateCodec.
      *
-     * @return
+     * @return The packed state, which is not compressed.
      */
-    public synchronized String serialize() {
-        V8Array parameters = new V8Array(mRuntime);
-        parameters.push(mGame);
-        String result = mRuntime.executeStringFunction("serialize", parameters);
-        return result;
+    public byte[] serialize() {
+        return call(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                V8Array parameters = new V8Array(mRuntime);
+                parameters.push(mGame);
+                V8Object packed = mRuntime.executeObjectFunction("pack", parameters);
+                V8Array codes = packed.getArray("codes");
+                byte[] state = GameStateCodec.pack(
+                        codes.getIntegers(0, codes.length()), packed.getString("json")
+                );
+                codes.release();
+                packed.release();
+                parameters.release();
+                return state;
+            }
+        });
     }
 
     /**
-     * Calls the deserialize function defined in JavaScript on a JSON string so that the game state
-     * can be rebuilt from a previously serialized state.
+     * Rebuilds the game state from a state returned by serialize(), compressed or not, or from
+     * the JSON state of an older save wrapped by GameStateCodec.
      *
-     * @param json The serialized json from serialize
+     * @param state The serialized state.
      */
-    public synchronized void deserialize(String json) {
-        acquireLock();
-        V8Array parameters = new V8Array(mRuntime);
-        parameters.push(json);
-        mGame = mRuntime.executeObjectFunction("deserialize", parameters);
-        parameters.release();
-        releaseLock();
+    public void deserialize(final byte[] state) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                load(state);
+            }
+        });
     }
 
     /**
-     * Calls the deserialize function defined in JavaScript on a JSON string so that the game state
-     * can be rebuilt from a previously serialized state. Also updates the history from a given
-     * history list.
+     * Rebuilds the game state from a state returned by serialize(), and updates the history from a
+     * given history.
      *
-     * @param json    The serialized json from serialize
-     * @param history The history list to load.
+     * @param state   The serialized state.
+     * @param history The history to load.
      */
-    public synchronized void deserialize(String json, List<String> history) {
-        acquireLock();
+    public void deserialize(final byte[] state, final History history) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                load(state);
+                mHistory = new History(history);
+            }
+        });
+    }
+
+    /**
+     * Replace the game with a deserialized one. Packed states are unpacked into a game object by
+     * unpack() in common.js first; the deserialize function of the script then reattaches the
+     * functions of the game. Must be called on the model thread.
+     */
+    private void load(byte[] state) {
+        GameStateCodec.Unpacked unpacked = GameStateCodec.unpack(state);
         V8Array parameters = new V8Array(mRuntime);
-        parameters.push(json);
+        if (unpacked.codes == null) {
+            parameters.push(unpacked.json);
+        } else {
+            V8Array codes = new V8Array(mRuntime);
+            for (int code : unpacked.codes) {
+                codes.push(code);
+            }
+            V8Array arguments = new V8Array(mRuntime);
+            arguments.push(codes).push(unpacked.json);
+            V8Object game = mRuntime.executeObjectFunction("unpack", arguments);
+            parameters.push(game);
+            game.release();
+            arguments.release();
+            codes.release();
+        }
+        if (mGame != null) {
+            mGame.release();
+        }
         mGame = mRuntime.executeObjectFunction("deserialize", parameters);
         parameters.release();
-        mHistory = history;
-        releaseLock();
+        invalidateFrame();
     }
 
     /**
@@ -224,178 +326,235 @@ public class JavascriptModel {
     /**
      * Get the name of the game from the script.
      */
-    public synchronized String getName() {
-        acquireLock();
-        String name = mRuntime.getObject("properties").getString("name");
-        releaseLock();
-        return name;
+    public String getName() {
+        return getProperty("name");
     }
 
     /**
      * Get the game description from the script.
      */
-    public synchronized String getDescription() {
-        acquireLock();
-        String name = mRuntime.getObject("properties").getString("description");
-        releaseLock();
-        return name;
+    public String getDescription() {
+        return getProperty("description");
     }
 
     /**
      * Get the game rules from the script.
      */
-    public synchronized String getRules() {
-        acquireLock();
-        String name = mRuntime.getObject("properties").getString("rules");
-        releaseLock();
-        return name;
+    public String getRules() {
+        return getProperty("rules");
     }
 
     /**
-     * Get the JavaScript game model.
+     * Read a string from the properties object of the script.
      */
-    public synchronized V8Object getGame() {
+    private String getProperty(final String key) {
+        return call(new Callable<String>() {
+            @Override
+            public String call() {
+                V8Object properties = mRuntime.getObject("properties");
+                String value = properties.getString(key);
+                properties.release();
+                return value;
+            }
+        });
+    }
+
+    /**
+     * Get the JavaScript game model. It may only be used on the model thread.
+     */
+    public V8Object getGame() {
         return mGame;
     }
 
     /**
      * Get the current score.
      */
-    public synchronized int getScore() {
-        acquireLock();
-        int score = mGame.getInteger("score");
-        releaseLock();
-        return score;
+    public int getScore() {
+        return call(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return mGame.getInteger("score");
+            }
+        });
     }
 
     /**
      * Check if the game is won
      */
-    public synchronized boolean hasWon() {
-        acquireLock();
-        boolean won = mGame.getBoolean("won");
-        releaseLock();
-        return won;
+    public boolean hasWon() {
+        return call(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mGame.getBoolean("won");
+            }
+        });
     }
 
     /**
      * Check if the game is lost.
      */
-    public synchronized boolean hasLost() {
-        acquireLock();
-        boolean lost = mGame.getBoolean("lost");
-        releaseLock();
-        return lost;
+    public boolean hasLost() {
+        return call(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mGame.getBoolean("lost");
+            }
+        });
     }
 
     /**
-     * Get options.
+     * Get options. The returned object may only be used on the model thread.
      */
-    public synchronized V8Object getOptions() {
-        acquireLock();
-        V8Object options = mGame.getObject("options");
-        releaseLock();
-        return options;
+    public V8Object getOptions() {
+        return call(new Callable<V8Object>() {
+            @Override
+            public V8Object call() {
+                return mGame.getObject("options");
+            }
+        });
     }
 
     /**
      * Check if there are any customizations for this game.
      */
-    public synchronized boolean hasOptions() {
-        acquireLock();
-        V8Object options = mGame.getObject("options");
-        boolean result = options.getKeys().length > 0;
-        releaseLock();
-        return result;
+    public boolean hasOptions() {
+        return call(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                V8Object options = mGame.getObject("options");
+                boolean result = options.getKeys().length > 0;
+                options.release();
+                return result;
+            }
+        });
     }
 
     /**
      * Set a game option.
      */
-    public synchronized void setOption(String key, boolean value) {
-        acquireLock();
-        V8Object options = mGame.getObject("options");
-        V8Object option = options.getObject(key);
-        option.add("value", value);
-        V8Array parameters = new V8Array(mRuntime);
-        parameters.push(mGame);
-        mRuntime.executeVoidFunction("updateOptions", parameters);
-        parameters.release();
-        releaseLock();
+    public void setOption(final String key, final boolean value) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                V8Object options = mGame.getObject("options");
+                V8Object option = options.getObject(key);
+                option.add("value", value);
+                V8Array parameters = new V8Array(mRuntime);
+                parameters.push(mGame);
+                mRuntime.executeVoidFunction("updateOptions", parameters);
+                // options may change the layout of any pile
+                mRuntime.executeVoidFunction("touchAll", parameters);
+                parameters.release();
+                option.release();
+                options.release();
+                invalidateFrame();
+            }
+        });
     }
 
     /**
      * Check if this game allows undos
      */
-    public synchronized boolean canUndo() {
-        acquireLock();
-        boolean result = mGame.getBoolean("undo");
-        releaseLock();
-        return result;
+    public boolean canUndo() {
+        return call(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mGame.getBoolean("undo");
+            }
+        });
     }
 
     /**
-     * Get the model history.
+     * Get a copy of the model history.
      */
-    public synchronized  List<String> getHistory() {
-        return mHistory;
+    public History getHistory() {
+        return call(new Callable<History>() {
+            @Override
+            public History call() {
+                return new History(mHistory);
+            }
+        });
     }
 
     /**
      * Pop off the history last history state and rebuild the view.
      */
     public void back(ComponentManager componentManager) {
-        Log.d("Model", Integer.toString(mHistory.size()));
-        if (mHistory.size() > 0) {
-            synchronized (this) {
-                acquireLock();
-                for (Component c : new ArrayList<>(componentManager.getComponents())) {
-                    componentManager.unregisterComponent(c);
-                }
-                releaseLock();
+        boolean changed = call(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return mHistory.size() > 0;
             }
-            // remove last state
-            if (mHistory.size() > 1) {
-                mHistory.remove(mHistory.size() - 1);
-            }
-            // return to old state
-            deserialize(mHistory.get(mHistory.size() - 1));
+        });
+        if (changed) {
+            clearView(componentManager);
+            run(new Runnable() {
+                @Override
+                public void run() {
+                    // remove last state
+                    if (mHistory.size() > 1) {
+                        mHistory.pop();
+                    }
+                    // return to old state
+                    load(mHistory.peek());
+                }
+            });
 
             buildView(componentManager);
         }
     }
 
     /**
-     * Calls a function whenever a card gets tapped.
+     * Unregisters every view component built from this model, releasing the JavaScript objects
+     * they hold.
+     *
+     * @param componentManager The component manager the view was built with.
      */
-    public synchronized void tapCard(V8Object card) {
-        acquireLock();
-        if (mRuntime.contains("tapCard")) {
-            V8Array parameters = new V8Array(mRuntime);
-            parameters.push(mGame).push(card);
-            mRuntime.executeVoidFunction("tapCard", parameters);
-            parameters.release();
-        } else {
-            // do nothing
+    public void clearView(ComponentManager componentManager) {
+        for (Component c : componentManager.getComponents()) {
+            componentManager.unregisterComponent(c);
         }
-        releaseLock();
+    }
+
+    /**
+     * Calls a function whenever a card gets tapped.
+     */
+    public void tapCard(final V8Object card) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                if (mRuntime.contains("tapCard")) {
+                    V8Array parameters = new V8Array(mRuntime);
+                    parameters.push(mGame).push(card);
+                    mRuntime.executeVoidFunction("tapCard", parameters);
+                    parameters.release();
+                    invalidateFrame();
+                } else {
+                    // do nothing
+                }
+            }
+        });
     }
 
     /**
      * Calls the bonus score calculation.
      */
-    public synchronized void bonus(long time) {
-        acquireLock();
-        if (mRuntime.contains("bonus")) {
-            V8Array parameters = new V8Array(mRuntime);
-            parameters.push(time);
-            int score = mGame.getInteger("score");
-            mGame.add("score", score + mRuntime.executeIntegerFunction("bonus", parameters));
-            parameters.release();
-        } else {
-            Log.i("Model", "No bonus function defined.");
-        }
-        releaseLock();
+    public void bonus(final long time) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                if (mRuntime.contains("bonus")) {
+                    V8Array parameters = new V8Array(mRuntime);
+                    parameters.push(time);
+                    int score = mGame.getInteger("score");
+                    mGame.add("score",
+                            score + mRuntime.executeIntegerFunction("bonus", parameters));
+                    parameters.release();
+                } else {
+                    Log.i("Model", "No bonus function defined.");
+                }
+            }
+        });
 
         for (Runnable r: mScoreListeners) {
             r.run();
@@ -405,15 +564,60 @@ public class JavascriptModel {
     /**
      * Called when the screen size changes.
      */
-    public synchronized void resize(int width, int height) {
-        acquireLock();
-        if (mRuntime.contains("resize")) {
-            V8Array parameters = new V8Array(mRuntime);
-            parameters.push(mGame).push(width).push(height);
-            mRuntime.executeVoidFunction("resize", parameters);
-            parameters.release();
+    public void resize(final int width, final int height) {
+        run(new Runnable() {
+            @Override
+            public void run() {
+                if (mRuntime.contains("resize")) {
+                    V8Array parameters = new V8Array(mRuntime);
+                    parameters.push(mGame).push(width).push(height);
+                    mRuntime.executeVoidFunction("resize", parameters);
+                    parameters.release();
+                    // resizing may change the layout of any pile
+                    parameters = new V8Array(mRuntime);
+                    parameters.push(mGame);
+                    mRuntime.executeVoidFunction("touchAll", parameters);
+                    parameters.release();
+                    invalidateFrame();
+                }
+            }
+        });
+    }
+
+    /**
+     * Get a packed snapshot of every card in the game. The snapshot is only read from the V8
+     * runtime again after something invalidates it, so every view component can read from it in
+     * the same update cycle for the cost of a single JavaScript call. A fresh frame is returned
+     * without going through the model thread at all.
+     */
+    public Frame getFrame() {
+        Frame frame = mFrame;
+        if (frame.getModelVersion() == mModelVersion.get()) {
+            return frame;
         }
-        releaseLock();
+        return call(new Callable<Frame>() {
+            @Override
+            public Frame call() {
+                // read first, so that an invalidation during the snapshot is not lost
+                int version = mModelVersion.get();
+                if (mFrame.getModelVersion() != version) {
+                    V8Array parameters = new V8Array(mRuntime);
+                    V8Array data = mRuntime.executeArrayFunction("snapshot", parameters);
+                    mFrame = new Frame(data, mPlacement, ++mGeneration, version);
+                    data.release();
+                    parameters.release();
+                }
+                return mFrame;
+            }
+        });
+    }
+
+    /**
+     * Mark the current frame as out of date, for example after cards have been laid out again.
+     * The next call to getFrame() will read a new snapshot, after every command already queued.
+     */
+    public void invalidateFrame() {
+        mModelVersion.incrementAndGet();
     }
 
     /**
@@ -438,84 +642,86 @@ public class JavascriptModel {
     }
 
     /**
-     * Get the column width of the board. This function is not thread safe.
+     * Get the column width of the board.
      */
     public int getColumns() {
-        V8Object board = mGame.getObject("board");
-        int columns = board.getInteger("cols");
-        return columns;
+        return getBoardProperty("cols");
     }
 
     /**
-     * Get the row height of the board. This function is not thread safe.
+     * Get the row height of the board.
      */
     public int getRows() {
-        acquireLock();
-        V8Object board = mGame.getObject("board");
-        int rows = board.getInteger("rows");
-        return rows;
+        return getBoardProperty("rows");
+    }
+
+    private int getBoardProperty(final String key) {
+        return call(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                V8Object board = mGame.getObject("board");
+                int value = board.getInteger(key);
+                board.release();
+                return value;
+            }
+        });
     }
 
     /**
      * Builds a view from this model. Constructs a Board object, Piles, and Cards and registers
      * them all with a component manager. Returns a Game object.
      *
+     * The components are created on the model thread, but registered on the calling thread so
+     * that the model thread never waits on the component manager.
+     *
      * @param componentManager The componentManager that will manage view components.
      * @return
      */
-    public synchronized Game buildView(ComponentManager componentManager) {
-        
+    public Game buildView(ComponentManager componentManager) {
+
         Game game = new Game(this, componentManager);
 
-        acquireLock();
+        List<Component> components = call(new Callable<List<Component>>() {
+            @Override
+            public List<Component> call() {
+                List<Component> result = new ArrayList<>();
 
-        V8Object jsBoard = mGame.getObject("board");
-        Board board = new Board(this, jsBoard);
-        componentManager.registerComponent(board);
+                // give every card an id so that it can be found in a frame
+                V8Array parameters = new V8Array(mRuntime);
+                parameters.push(mGame);
+                mRuntime.executeIntegerFunction("index", parameters);
+                parameters.release();
+                invalidateFrame();
 
-        V8Object jsPilesMap = mGame.getObject("piles");
+                V8Object jsBoard = mGame.getObject("board");
+                result.add(new Board(JavascriptModel.this, jsBoard));
 
-        for (String key : jsPilesMap.getKeys()) {
-            V8Object jsPile = jsPilesMap.getObject(key);
+                V8Object jsPilesMap = mGame.getObject("piles");
 
-            V8Array cards = jsPile.getArray("cards");
+                for (String key : jsPilesMap.getKeys()) {
+                    V8Object jsPile = jsPilesMap.getObject(key);
 
-            for (String index : cards.getKeys()) {
-                V8Object jsCard = cards.getObject(index);
+                    V8Array cards = jsPile.getArray("cards");
 
-                Card card = new Card(this, jsCard);
-                componentManager.registerComponent(card);
-            }
+                    for (String index : cards.getKeys()) {
+                        V8Object jsCard = cards.getObject(index);
+                        result.add(new Card(JavascriptModel.this, jsCard));
+                    }
+                    cards.release();
 
-            Pile pile = new Pile(this, jsPile);
-            componentManager.registerComponent(pile);
-        }
-        releaseLock();
-        
-        return game;
-    }
+                    result.add(new Pile(JavascriptModel.this, jsPile));
+                }
+                jsPilesMap.release();
 
-    /**
-     * Acquires the V8 runtime thread lock. You'll notice that we acquire and release this lock
-     * A LOT. It is also necessary to synchronize the JavaScript model in addition to acquiring
-     * and releasing the lock so that we do not attempt to acquire a lock in use.
-     */
-    public synchronized void acquireLock() {
-        mRuntime.getLocker().acquire();
-    }
+                return result;
+            }
+        });
 
-    /**
-     * Releases the V8 runtime thread lock.
-     */
-    public synchronized void releaseLock() {
-        mRuntime.getLocker().release();
-    }
+        for (Component c : components) {
+            componentManager.registerComponent(c);
+        }
 
-    /**
-     * Check if this thread has the lock.
-     */
-    public synchronized boolean hasLock() {
-        return mRuntime.getLocker().hasLock();
+        return game;
     }
 
 }
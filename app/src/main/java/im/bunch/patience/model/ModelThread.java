@@ -0,0 +1,158 @@
+package im.bunch.patience.model;
+
+import android.util.Log;
+
+import im.bunch.patience.metrics.Metrics;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A thread that owns a V8 runtime and executes every command sent to it in order. Commands are
+ * passed through a lock-free queue, so callers on the UI thread, the GL thread and background
+ * tasks never have to hand the V8 lock back and forth between each other.
+ *
+ * @author Creston Bunch
+ */
+public class ModelThread extends Thread {
+
+    public static final String LOG_TAG = "ModelThread";
+
+    private final ConcurrentLinkedQueue<Runnable> mQueue;
+    private volatile boolean mRunning;
+    private volatile boolean mFinished;
+
+    /**
+     * A command submitted for its result, which can be failed if it will never run.
+     */
+    private static class Command<T> extends FutureTask<T> {
+        Command(Callable<T> callable) {
+            super(callable);
+        }
+
+        void fail(Exception e) {
+            setException(e);
+        }
+    }
+
+    public ModelThread() {
+        super("Model");
+        mQueue = new ConcurrentLinkedQueue<>();
+        mRunning = true;
+    }
+
+    @Override
+    public void run() {
+        while (mRunning || !mQueue.isEmpty()) {
+            Runnable command = mQueue.poll();
+            if (command == null) {
+                // sleep until the next command is posted
+                LockSupport.park(this);
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Command failed.", e);
+            }
+            Metrics.recordModelCall(System.nanoTime() - start);
+        }
+        // anything posted from now on is rejected by post() itself
+        mFinished = true;
+        drain();
+    }
+
+    /**
+     * Reject every command left in the queue, so nobody waits on a future that will never run.
+     */
+    private void drain() {
+        Runnable command;
+        while ((command = mQueue.poll()) != null) {
+            reject(command);
+        }
+    }
+
+    private static void reject(Runnable command) {
+        if (command instanceof Command) {
+            ((Command<?>) command).fail(new IllegalStateException("The model thread has quit."));
+        } else {
+            Log.w(LOG_TAG, "Dropped a command posted after quitting.");
+        }
+    }
+
+    /**
+     * Check if the calling thread is this model thread.
+     */
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == this;
+    }
+
+    /**
+     * Queue a command without waiting for it to finish. Commands posted after quit() are dropped.
+     */
+    public void post(Runnable command) {
+        if (!mRunning) {
+            reject(command);
+            return;
+        }
+        mQueue.offer(command);
+        LockSupport.unpark(this);
+        // the thread may have finished between the check above and the offer
+        if (mFinished) {
+            drain();
+        }
+    }
+
+    /**
+     * Queue a command and get a future for its result. The future fails with an
+     * IllegalStateException if the thread quits before the command runs.
+     */
+    public <T> Future<T> submit(Callable<T> command) {
+        Command<T> future = new Command<>(command);
+        post(future);
+        return future;
+    }
+
+    /**
+     * Run a command on this thread and wait for its result. Commands issued from the model thread
+     * itself, like those made from JavaScript callbacks, run immediately.
+     *
+     * @throws IllegalStateException if the thread has quit before the command could run.
+     */
+    public <T> T call(Callable<T> command) {
+        try {
+            if (isCurrentThread()) {
+                return command.call();
+            }
+            return submit(command).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stop the thread once every command already queued has run.
+     */
+    public void quit() {
+        mRunning = false;
+        LockSupport.unpark(this);
+    }
+}
@@ -0,0 +1,55 @@
+package im.bunch.patience.model;
+
+import java.util.Arrays;
+
+/**
+ * Where every card of a game was last laid out, by card id. Placements are owned by the Java view:
+ * they are only read and written by view components, under the lock of the component manager, and
+ * never by the model thread. Every frame of a model shares the same placements, so reading a new
+ * snapshot keeps the last placement of every card.
+ *
+ * @author Creston Bunch
+ */
+public class Placement {
+
+    private static final int STRIDE = 3;
+
+    private int[] mData;
+
+    public Placement() {
+        mData = new int[0];
+    }
+
+    /**
+     * Store where a card has been laid out.
+     */
+    public void set(int id, int x, int y, int z) {
+        int o = id * STRIDE;
+        if (mData.length < o + STRIDE) {
+            mData = Arrays.copyOf(mData, Math.max(o + STRIDE, mData.length * 2));
+        }
+        mData[o] = x;
+        mData[o + 1] = y;
+        mData[o + 2] = z;
+    }
+
+    public int getX(int id) {
+        return get(id, 0);
+    }
+
+    public int getY(int id) {
+        return get(id, 1);
+    }
+
+    public int getZ(int id) {
+        return get(id, 2);
+    }
+
+    /**
+     * Cards that were never laid out are placed at the origin.
+     */
+    private int get(int id, int field) {
+        int o = id * STRIDE + field;
+        return o < mData.length ? mData[o] : 0;
+    }
+}
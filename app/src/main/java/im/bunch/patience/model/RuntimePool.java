@@ -0,0 +1,333 @@
+package im.bunch.patience.model;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import com.eclipsesource.v8.JavaVoidCallback;
+import com.eclipsesource.v8.Releasable;
+import com.eclipsesource.v8.V8;
+import com.eclipsesource.v8.V8Array;
+import com.eclipsesource.v8.V8Object;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A pool of warm V8 runtimes that have already executed common.js and a game script. Creating a
+ * runtime and compiling the scripts is expensive, so instead of creating a new runtime for every
+ * model we lease one from the pool and return it when we're done with it. Idle runtimes are
+ * released when the system runs low on memory.
+ *
+ * A runtime is only ever owned by one lease at a time, and every call to obtain() hands out a new
+ * lease, so an old owner can never reach a runtime after it was given to someone else. Runtimes
+ * are handed out and taken back without their V8 lock held, so the owner must acquire the lock
+ * before using them.
+ *
+ * @author Creston Bunch
+ */
+public class RuntimePool implements ComponentCallbacks2 {
+
+    public static final String LOG_TAG = "RuntimePool";
+
+    /** The most idle runtimes kept warm at once, across all scripts. */
+    public static final int MAX_IDLE = 6;
+
+    /** Callbacks that game scripts may call, forwarded to whoever currently owns the runtime. */
+    private static final String[] CALLBACKS = {"score", "win", "lose", "history", "save"};
+
+    private static RuntimePool sInstance;
+
+    private final Context mContext;
+    private final LinkedHashMap<String, Deque<PooledRuntime>> mIdle;
+    private int mIdleCount;
+    private String mCommon;
+
+    /**
+     * Get the runtime pool for this application.
+     *
+     * @param ctx Any context in the application.
+     */
+    public static synchronized RuntimePool get(Context ctx) {
+        if (sInstance == null) {
+            sInstance = new RuntimePool(ctx.getApplicationContext());
+            ctx.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    private RuntimePool(Context context) {
+        mContext = context;
+        // access ordered so that the least recently used script is trimmed first
+        mIdle = new LinkedHashMap<>(16, 0.75f, true);
+        mIdleCount = 0;
+    }
+
+    /**
+     * Lease a runtime that has already executed common.js and the given script. A warm runtime is
+     * reused when one is available, otherwise a new one is created.
+     *
+     * @param script The game script.
+     * @throws IOException if common.js cannot be loaded.
+     */
+    public Lease obtain(String script) throws IOException {
+        synchronized (this) {
+            Deque<PooledRuntime> idle = mIdle.get(script);
+            if (idle != null && !idle.isEmpty()) {
+                PooledRuntime runtime = idle.pop();
+                mIdleCount--;
+                if (idle.isEmpty()) {
+                    mIdle.remove(script);
+                }
+                Log.d(LOG_TAG, "Reusing warm runtime.");
+                return new Lease(this, runtime);
+            }
+        }
+
+        return new Lease(this, create(script));
+    }
+
+    /**
+     * Create a warm runtime for a script ahead of time so the next call to obtain() is cheap.
+     *
+     * @param script The game script.
+     * @throws IOException if common.js cannot be loaded.
+     */
+    public void prewarm(String script) throws IOException {
+        synchronized (this) {
+            Deque<PooledRuntime> idle = mIdle.get(script);
+            if (idle != null && !idle.isEmpty()) {
+                return;
+            }
+        }
+        keep(create(script));
+    }
+
+    /**
+     * Release every idle runtime.
+     */
+    public synchronized void trim() {
+        for (Deque<PooledRuntime> idle : mIdle.values()) {
+            for (PooledRuntime runtime : idle) {
+                runtime.destroy();
+            }
+        }
+        mIdle.clear();
+        mIdleCount = 0;
+        Log.i(LOG_TAG, "Released idle runtimes.");
+    }
+
+    /**
+     * Take back a runtime from its owner, forget the cards and piles of the owner's game and keep
+     * the runtime warm. A runtime that cannot be reset is released instead.
+     */
+    private void recycle(PooledRuntime runtime) {
+        runtime.mCallbacks.clear();
+
+        V8 v8 = runtime.mRuntime;
+        v8.getLocker().acquire();
+        try {
+            v8.executeVoidScript("FRAME.cards = []; FRAME.piles = [];");
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "Could not reset runtime, releasing it.", e);
+            v8.release(false);
+            return;
+        }
+        v8.getLocker().release();
+
+        keep(runtime);
+    }
+
+    /**
+     * Keep an idle runtime warm, or release it if the pool is full.
+     */
+    private synchronized void keep(PooledRuntime runtime) {
+        Deque<PooledRuntime> idle = mIdle.get(runtime.mScript);
+        if (idle == null) {
+            idle = new ArrayDeque<>();
+            mIdle.put(runtime.mScript, idle);
+        }
+        idle.push(runtime);
+        mIdleCount++;
+
+        // evict the least recently used runtimes
+        Iterator<Map.Entry<String, Deque<PooledRuntime>>> it = mIdle.entrySet().iterator();
+        while (mIdleCount > MAX_IDLE && it.hasNext()) {
+            Deque<PooledRuntime> oldest = it.next().getValue();
+            while (mIdleCount > MAX_IDLE && !oldest.isEmpty()) {
+                oldest.removeLast().destroy();
+                mIdleCount--;
+            }
+            if (oldest.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Create a new runtime and execute common.js and the game script in it. The runtime lock is
+     * released before returning.
+     */
+    private PooledRuntime create(String script) throws IOException {
+        String common = getCommon();
+
+        V8 runtime = V8.createV8Runtime("", "/tmp");
+        final PooledRuntime pooled = new PooledRuntime(script, runtime);
+
+        JavaVoidCallback callback = new JavaVoidCallback() {
+            public void invoke(final V8Object receiver, final V8Array parameters) {
+                if (parameters.length() > 0) {
+                    Object arg1 = parameters.get(0);
+                    System.out.println(arg1);
+                    if (arg1 instanceof Releasable) {
+                        ((Releasable) arg1).release();
+                    }
+                }
+            }
+        };
+
+        // allow printing
+        runtime.registerJavaMethod(callback, "print");
+
+        // forward game callbacks to the current owner
+        for (final String name : CALLBACKS) {
+            callback = new JavaVoidCallback() {
+                public void invoke(final V8Object receiver, final V8Array parameters) {
+                    JavaVoidCallback target = pooled.mCallbacks.get(name);
+                    if (target != null) {
+                        target.invoke(receiver, parameters);
+                    } else {
+                        parameters.release();
+                    }
+                }
+            };
+            runtime.registerJavaMethod(callback, name);
+        }
+
+        runtime.executeScript(common);
+        runtime.executeScript(script);
+        runtime.getLocker().release();
+
+        Log.d(LOG_TAG, "Created runtime.");
+
+        return pooled;
+    }
+
+    private synchronized String getCommon() throws IOException {
+        if (mCommon == null) {
+            mCommon = IOUtils.toString(mContext.getAssets().open("common.js"));
+        }
+        return mCommon;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trim();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+
+    }
+
+    /**
+     * A runtime kept by the pool, along with the callbacks of its current owner.
+     */
+    private static class PooledRuntime {
+
+        private final String mScript;
+        private final V8 mRuntime;
+        private final Map<String, JavaVoidCallback> mCallbacks;
+
+        PooledRuntime(String script, V8 runtime) {
+            mScript = script;
+            mRuntime = runtime;
+            mCallbacks = new HashMap<>();
+        }
+
+        void destroy() {
+            mRuntime.getLocker().acquire();
+            mRuntime.release(false);
+        }
+    }
+
+    /**
+     * A runtime owned by a single user of the pool. The owner must call release() when it is done
+     * with the runtime and must not touch the runtime afterwards. A lease is only good for one
+     * owner, obtain() always hands out a new one.
+     */
+    public static class Lease {
+
+        private final RuntimePool mPool;
+        private final PooledRuntime mRuntime;
+        private boolean mReleased;
+
+        private Lease(RuntimePool pool, PooledRuntime runtime) {
+            mPool = pool;
+            mRuntime = runtime;
+        }
+
+        /**
+         * Get the leased runtime.
+         *
+         * @throws IllegalStateException if the lease was released.
+         */
+        public synchronized V8 getRuntime() {
+            checkLeased();
+            return mRuntime.mRuntime;
+        }
+
+        /**
+         * Get the script this runtime has executed.
+         */
+        public String getScript() {
+            return mRuntime.mScript;
+        }
+
+        /**
+         * Handle a function called by the game script (score, win, lose, history or save) for as
+         * long as this lease is held.
+         *
+         * @throws IllegalStateException if the lease was released.
+         */
+        public synchronized void setCallback(String name, JavaVoidCallback callback) {
+            checkLeased();
+            mRuntime.mCallbacks.put(name, callback);
+        }
+
+        /**
+         * Return the runtime to the pool. The caller must not hold the runtime lock. Releasing a
+         * lease more than once does nothing.
+         */
+        public void release() {
+            synchronized (this) {
+                if (mReleased) {
+                    return;
+                }
+                mReleased = true;
+            }
+            mPool.recycle(mRuntime);
+        }
+
+        private void checkLeased() {
+            if (mReleased) {
+                throw new IllegalStateException("The runtime lease was released.");
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package im.bunch.patience.storage;
+
+/**
+ * The statistics of every game played with one script, read from the database in one go.
+ *
+ * @author Creston Bunch
+ */
+public class GameStats {
+
+    /** The statistics of a script that has never been played. */
+    public static final GameStats NONE = new GameStats(0, 0, -1, -1, 0, 0);
+
+    public final int played;
+    public final int won;
+    /** The highest score of a won game, or -1 if no game was won. */
+    public final int highScore;
+    /** The shortest play time of a won game in milliseconds, or -1 if no game was won. */
+    public final long bestTime;
+    public final long totalScore;
+    public final long totalTime;
+
+    public GameStats(
+            int played, int won, int highScore, long bestTime, long totalScore, long totalTime
+    ) {
+        this.played = played;
+        this.won = won;
+        this.highScore = highScore;
+        this.bestTime = bestTime;
+        this.totalScore = totalScore;
+        this.totalTime = totalTime;
+    }
+
+    /**
+     * Get the percentage of games that were won, rounded down, or -1 if none were played.
+     */
+    public int getWinPercentage() {
+        if (played <= 0) {
+            return -1;
+        }
+        return (int) (((float) won / played) * 100);
+    }
+}
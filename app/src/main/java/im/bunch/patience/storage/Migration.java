@@ -0,0 +1,31 @@
+package im.bunch.patience.storage;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A step that upgrades a database from the version before it to its own version. Migrations are
+ * run in order inside the transaction of SQLiteOpenHelper, so a migration that fails leaves the
+ * database at the version it started from.
+ *
+ * @author Creston Bunch
+ */
+public abstract class Migration {
+
+    private final int mVersion;
+
+    /**
+     * @param version The version of the database after this migration.
+     */
+    public Migration(int version) {
+        mVersion = version;
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Upgrade a database at the previous version to this version.
+     */
+    public abstract void apply(SQLiteDatabase db);
+}
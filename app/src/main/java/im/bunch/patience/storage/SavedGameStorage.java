@@ -5,15 +5,15 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.os.SystemClock;
 import android.provider.BaseColumns;
 import android.util.Log;
 
-import com.google.gson.Gson;
-
-import java.util.ArrayList;
 import java.util.List;
 
+import im.bunch.patience.model.GameStateCodec;
+import im.bunch.patience.model.History;
 import im.bunch.patience.model.JavascriptModel;
 
 /**
@@ -28,12 +28,14 @@ public class SavedGameStorage extends SQLiteOpenHelper {
     public static final String LOG_TAG = "SavedGameStorage";
 
     public static final String DATABASE_NAME = "patience";
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 3;
 
     private static final String TEXT_TYPE = " TEXT";
     private static final String INT_TYPE = " INTEGER";
     private static final String COMMA_SEP = ",";
-    private static final String SQL_CREATE_TABLE =
+
+    // the first version of the table, later versions are reached by running the migrations
+    static final String SQL_CREATE_TABLE =
             "CREATE TABLE " + SavedGameEntry.TABLE_NAME + " (" +
                     SavedGameEntry._ID + INT_TYPE + " PRIMARY KEY," +
                     SavedGameEntry.COLUMN_NAME_NAME + TEXT_TYPE + COMMA_SEP +
@@ -48,14 +50,183 @@ public class SavedGameStorage extends SQLiteOpenHelper {
                     SavedGameEntry.COLUMN_NAME_DELETED + INT_TYPE +
                     " )";
 
+    /** The number of saved games in a page of the saved games list. */
+    public static final int PAGE_SIZE = 50;
+
+    /** The columns of the saved games list, see getCursor(). */
+    public static final String[] SUMMARY_PROJECTION = {
+            SavedGameEntry._ID,
+            SavedGameEntry.COLUMN_NAME_NAME,
+            SavedGameEntry.COLUMN_NAME_SCRIPT,
+            SavedGameEntry.COLUMN_NAME_TIMESTAMP,
+            SavedGameEntry.COLUMN_NAME_SCORE,
+            SavedGameEntry.COLUMN_NAME_PLAY_TIME,
+            SavedGameEntry.COLUMN_NAME_WON
+    };
+
     private static final String SQL_DELETE_ENTRIES =
             "DROP TABLE IF EXISTS " + SavedGameEntry.TABLE_NAME;
 
+    private static final String ALL_COLUMNS =
+            SavedGameEntry._ID + COMMA_SEP +
+                    SavedGameEntry.COLUMN_NAME_NAME + COMMA_SEP +
+                    SavedGameEntry.COLUMN_NAME_SCRIPT + COMMA_SEP +
+                    SavedGameEntry.COLUMN_NAME_STATE + COMMA_SEP +
+                    SavedGameEntry.COLUMN_NAME_TIMESTAMP + COMMA_SEP +
+                    SavedGameEntry.COLUMN_NAME_HISTORY + COMMA_SEP +
+                    SavedGameEntry.COLUMN_NAME_SCORE + COMMA_SEP +
+                    SavedGameEntry.COLUMN_NAME_PLAY_TIME + COMMA_SEP +
+                    SavedGameEntry.COLUMN_NAME_WON + COMMA_SEP +
+                    SavedGameEntry.COLUMN_NAME_ARCHIVED + COMMA_SEP +
+                    SavedGameEntry.COLUMN_NAME_DELETED;
+
+    /**
+     * Every change to the schema since the first version, in order. To change the schema, add a
+     * migration to the end and bump DATABASE_VERSION to its version.
+     */
+    static final Migration[] MIGRATIONS = {
+            // version 2 stores scores as integers, so they sort numerically, and indexes every
+            // column that the saved games list and the game statistics look rows up by
+            new Migration(2) {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    String tmp = SavedGameEntry.TABLE_NAME + "_v2";
+                    db.execSQL("CREATE TABLE " + tmp + " (" +
+                            SavedGameEntry._ID + INT_TYPE + " PRIMARY KEY," +
+                            SavedGameEntry.COLUMN_NAME_NAME + TEXT_TYPE + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_SCRIPT + TEXT_TYPE + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_STATE + TEXT_TYPE + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_TIMESTAMP + INT_TYPE + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_HISTORY + TEXT_TYPE + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_SCORE + INT_TYPE + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_PLAY_TIME + INT_TYPE + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_WON + INT_TYPE + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_ARCHIVED + INT_TYPE + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_DELETED + INT_TYPE +
+                            " )");
+                    // SQLite cannot change the type of a column, so copy every row over
+                    db.execSQL("INSERT INTO " + tmp + " (" + ALL_COLUMNS + ") SELECT " +
+                            SavedGameEntry._ID + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_NAME + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_SCRIPT + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_STATE + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_TIMESTAMP + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_HISTORY + COMMA_SEP +
+                            "CAST(" + SavedGameEntry.COLUMN_NAME_SCORE + " AS INTEGER)" +
+                            COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_PLAY_TIME + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_WON + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_ARCHIVED + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_DELETED +
+                            " FROM " + SavedGameEntry.TABLE_NAME);
+                    db.execSQL("DROP TABLE " + SavedGameEntry.TABLE_NAME);
+                    db.execSQL("ALTER TABLE " + tmp + " RENAME TO " + SavedGameEntry.TABLE_NAME);
+
+                    // the saved games list, newest first
+                    db.execSQL("CREATE INDEX " + SavedGameEntry.INDEX_ARCHIVED_TIMESTAMP +
+                            " ON " + SavedGameEntry.TABLE_NAME + " (" +
+                            SavedGameEntry.COLUMN_NAME_ARCHIVED + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_TIMESTAMP + ")");
+                    // games played, games won and the high score
+                    db.execSQL("CREATE INDEX " + SavedGameEntry.INDEX_SCRIPT_WON_SCORE +
+                            " ON " + SavedGameEntry.TABLE_NAME + " (" +
+                            SavedGameEntry.COLUMN_NAME_SCRIPT + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_WON + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_SCORE + ")");
+                    // the best time
+                    db.execSQL("CREATE INDEX " + SavedGameEntry.INDEX_SCRIPT_WON_TIME +
+                            " ON " + SavedGameEntry.TABLE_NAME + " (" +
+                            SavedGameEntry.COLUMN_NAME_SCRIPT + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_WON + COMMA_SEP +
+                            SavedGameEntry.COLUMN_NAME_PLAY_TIME + ")");
+                }
+            },
+            // version 3 keeps the statistics of every game in their own table, so they can be
+            // looked up without going through every saved game
+            new Migration(3) {
+                @Override
+                public void apply(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + GameStatsEntry.TABLE_NAME + " (" +
+                            GameStatsEntry.COLUMN_NAME_SCRIPT + TEXT_TYPE + " PRIMARY KEY," +
+                            GameStatsEntry.COLUMN_NAME_PLAYED + INT_TYPE + COMMA_SEP +
+                            GameStatsEntry.COLUMN_NAME_WON + INT_TYPE + COMMA_SEP +
+                            GameStatsEntry.COLUMN_NAME_HIGH_SCORE + INT_TYPE + COMMA_SEP +
+                            GameStatsEntry.COLUMN_NAME_BEST_TIME + INT_TYPE + COMMA_SEP +
+                            GameStatsEntry.COLUMN_NAME_TOTAL_SCORE + INT_TYPE + COMMA_SEP +
+                            GameStatsEntry.COLUMN_NAME_TOTAL_TIME + INT_TYPE +
+                            " )");
+                    // the high score and best time only count games that were won
+                    db.execSQL("INSERT INTO " + GameStatsEntry.TABLE_NAME + " SELECT " +
+                            SavedGameEntry.COLUMN_NAME_SCRIPT + COMMA_SEP +
+                            "COUNT(*)" + COMMA_SEP +
+                            "SUM(" + SavedGameEntry.COLUMN_NAME_WON + ")" + COMMA_SEP +
+                            "MAX(CASE WHEN " + SavedGameEntry.COLUMN_NAME_WON + " = 1 THEN " +
+                            SavedGameEntry.COLUMN_NAME_SCORE + " END)" + COMMA_SEP +
+                            "MIN(CASE WHEN " + SavedGameEntry.COLUMN_NAME_WON + " = 1 THEN " +
+                            SavedGameEntry.COLUMN_NAME_PLAY_TIME + " END)" + COMMA_SEP +
+                            "SUM(" + SavedGameEntry.COLUMN_NAME_SCORE + ")" + COMMA_SEP +
+                            "SUM(" + SavedGameEntry.COLUMN_NAME_PLAY_TIME + ")" +
+                            " FROM " + SavedGameEntry.TABLE_NAME +
+                            " GROUP BY " + SavedGameEntry.COLUMN_NAME_SCRIPT);
+                }
+            },
+    };
+
+    // add one saved game to the statistics of its script
+    private static final String SQL_ADD_STATS =
+            "UPDATE " + GameStatsEntry.TABLE_NAME + " SET " +
+                    GameStatsEntry.COLUMN_NAME_PLAYED + " = " +
+                    GameStatsEntry.COLUMN_NAME_PLAYED + " + 1" + COMMA_SEP +
+                    GameStatsEntry.COLUMN_NAME_WON + " = " +
+                    GameStatsEntry.COLUMN_NAME_WON + " + ?1" + COMMA_SEP +
+                    GameStatsEntry.COLUMN_NAME_HIGH_SCORE + " = CASE WHEN ?1 = 1 AND (" +
+                    GameStatsEntry.COLUMN_NAME_HIGH_SCORE + " IS NULL OR ?2 > " +
+                    GameStatsEntry.COLUMN_NAME_HIGH_SCORE + ") THEN ?2 ELSE " +
+                    GameStatsEntry.COLUMN_NAME_HIGH_SCORE + " END" + COMMA_SEP +
+                    GameStatsEntry.COLUMN_NAME_BEST_TIME + " = CASE WHEN ?1 = 1 AND (" +
+                    GameStatsEntry.COLUMN_NAME_BEST_TIME + " IS NULL OR ?3 < " +
+                    GameStatsEntry.COLUMN_NAME_BEST_TIME + ") THEN ?3 ELSE " +
+                    GameStatsEntry.COLUMN_NAME_BEST_TIME + " END" + COMMA_SEP +
+                    GameStatsEntry.COLUMN_NAME_TOTAL_SCORE + " = " +
+                    GameStatsEntry.COLUMN_NAME_TOTAL_SCORE + " + ?2" + COMMA_SEP +
+                    GameStatsEntry.COLUMN_NAME_TOTAL_TIME + " = " +
+                    GameStatsEntry.COLUMN_NAME_TOTAL_TIME + " + ?3" +
+                    " WHERE " + GameStatsEntry.COLUMN_NAME_SCRIPT + " = ?4";
+
+    // take one saved game out of the statistics of its script, except for the high score and
+    // best time, which have to be looked up again
+    private static final String SQL_REMOVE_STATS =
+            "UPDATE " + GameStatsEntry.TABLE_NAME + " SET " +
+                    GameStatsEntry.COLUMN_NAME_PLAYED + " = " +
+                    GameStatsEntry.COLUMN_NAME_PLAYED + " - 1" + COMMA_SEP +
+                    GameStatsEntry.COLUMN_NAME_WON + " = " +
+                    GameStatsEntry.COLUMN_NAME_WON + " - ?1" + COMMA_SEP +
+                    GameStatsEntry.COLUMN_NAME_TOTAL_SCORE + " = " +
+                    GameStatsEntry.COLUMN_NAME_TOTAL_SCORE + " - ?2" + COMMA_SEP +
+                    GameStatsEntry.COLUMN_NAME_TOTAL_TIME + " = " +
+                    GameStatsEntry.COLUMN_NAME_TOTAL_TIME + " - ?3" +
+                    " WHERE " + GameStatsEntry.COLUMN_NAME_SCRIPT + " = ?4";
+
+    // look up the high score and best time of a script, each with one seek of an index
+    private static final String SQL_REFRESH_BEST =
+            "UPDATE " + GameStatsEntry.TABLE_NAME + " SET " +
+                    GameStatsEntry.COLUMN_NAME_HIGH_SCORE + " = (SELECT MAX(" +
+                    SavedGameEntry.COLUMN_NAME_SCORE + ") FROM " + SavedGameEntry.TABLE_NAME +
+                    " WHERE " + SavedGameEntry.COLUMN_NAME_SCRIPT + " = ?1 AND " +
+                    SavedGameEntry.COLUMN_NAME_WON + " = 1)" + COMMA_SEP +
+                    GameStatsEntry.COLUMN_NAME_BEST_TIME + " = (SELECT MIN(" +
+                    SavedGameEntry.COLUMN_NAME_PLAY_TIME + ") FROM " + SavedGameEntry.TABLE_NAME +
+                    " WHERE " + SavedGameEntry.COLUMN_NAME_SCRIPT + " = ?1 AND " +
+                    SavedGameEntry.COLUMN_NAME_WON + " = 1)" +
+                    " WHERE " + GameStatsEntry.COLUMN_NAME_SCRIPT + " = ?1";
+
     public static class SavedGameEntry implements BaseColumns {
         public static final String TABLE_NAME = "saved_games";
 
         public static final String COLUMN_NAME_NAME = "name";
         public static final String COLUMN_NAME_SCRIPT = "script_filename";
+        // the state and history are blobs of GameStateCodec and History, or JSON text in games
+        // that have not been saved again since states were packed
         public static final String COLUMN_NAME_STATE = "game_state";
         public static final String COLUMN_NAME_TIMESTAMP = "timestamp";
         public static final String COLUMN_NAME_HISTORY = "history";
@@ -64,6 +235,25 @@ public class SavedGameStorage extends SQLiteOpenHelper {
         public static final String COLUMN_NAME_WON = "won";
         public static final String COLUMN_NAME_ARCHIVED = "archived";
         public static final String COLUMN_NAME_DELETED = "deleted";
+
+        public static final String INDEX_ARCHIVED_TIMESTAMP = "saved_games_archived_timestamp";
+        public static final String INDEX_SCRIPT_WON_SCORE = "saved_games_script_won_score";
+        public static final String INDEX_SCRIPT_WON_TIME = "saved_games_script_won_time";
+    }
+
+    /**
+     * The statistics of every script that has been played, kept up to date as games are saved.
+     */
+    public static class GameStatsEntry {
+        public static final String TABLE_NAME = "game_stats";
+
+        public static final String COLUMN_NAME_SCRIPT = "script_filename";
+        public static final String COLUMN_NAME_PLAYED = "played";
+        public static final String COLUMN_NAME_WON = "won";
+        public static final String COLUMN_NAME_HIGH_SCORE = "high_score";
+        public static final String COLUMN_NAME_BEST_TIME = "best_time";
+        public static final String COLUMN_NAME_TOTAL_SCORE = "total_score";
+        public static final String COLUMN_NAME_TOTAL_TIME = "total_time";
     }
 
     public SavedGameStorage(Context context) {
@@ -71,14 +261,28 @@ public class SavedGameStorage extends SQLiteOpenHelper {
         mContext = context;
     }
 
+    /**
+     * Create the first version of the schema and migrate it to the current one, so that new and
+     * upgraded databases always end up with the same schema.
+     */
     @Override
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_TABLE);
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
+    /**
+     * Run every migration after the old version, up to and including the new version, in order.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-
+        for (Migration migration : MIGRATIONS) {
+            int version = migration.getVersion();
+            if (version > oldVersion && version <= newVersion) {
+                Log.i(LOG_TAG, "Migrating database to version " + version + ".");
+                migration.apply(db);
+            }
+        }
     }
 
     /**
@@ -92,36 +296,12 @@ public class SavedGameStorage extends SQLiteOpenHelper {
             SQLiteDatabase db, String filename, final JavascriptModel model, long gameTime
     ) {
         String name = model.getName();
-        // TODO: can we do this without Gson?
-        Gson gson = new Gson();
-        String history = gson.toJson(new ArrayList<>(model.getHistory()));
+        byte[] history = model.getHistory().toBytes();
         int score = model.getScore();
         int won = model.hasWon() ? 1 : 0;
-        long timestamp = System.currentTimeMillis() / 1000;
-
-        synchronized (model) {
-            model.acquireLock();
-            String json = model.serialize();
-            model.releaseLock();
-
-            // Create a new map of values, where column names are the keys
-            ContentValues values = new ContentValues();
-            values.put(SavedGameEntry.COLUMN_NAME_NAME, name);
-            values.put(SavedGameEntry.COLUMN_NAME_SCRIPT, filename);
-            values.put(SavedGameEntry.COLUMN_NAME_STATE, json);
-            values.put(SavedGameEntry.COLUMN_NAME_TIMESTAMP, timestamp);
-            values.put(SavedGameEntry.COLUMN_NAME_HISTORY, history);
-            values.put(SavedGameEntry.COLUMN_NAME_SCORE, score);
-            values.put(SavedGameEntry.COLUMN_NAME_PLAY_TIME, gameTime);
-            values.put(SavedGameEntry.COLUMN_NAME_WON, won);
-            values.put(SavedGameEntry.COLUMN_NAME_ARCHIVED, 0);
-            values.put(SavedGameEntry.COLUMN_NAME_DELETED, 0);
+        byte[] state = GameStateCodec.compress(model.serialize());
 
-            Log.i(LOG_TAG, "Saved game!");
-
-            // Insert the new row, returning the primary key value of the new row
-            return db.insert(SavedGameEntry.TABLE_NAME, null, values);
-        }
+        return insertGame(db, filename, name, state, history, score, gameTime, won);
     }
 
     /**
@@ -134,45 +314,109 @@ public class SavedGameStorage extends SQLiteOpenHelper {
     public synchronized long saveGame(
             SQLiteDatabase db, long id, String filename, final JavascriptModel model, long gameTime
     ) {
+        // the model hands out a copy of its history, so it is safe to serialize here
+        byte[] history = model.getHistory().toBytes();
+
+        String name = model.getName();
+        int score = model.getScore();
+        int won = model.hasWon() ? 1 : 0;
+        byte[] state = GameStateCodec.compress(model.serialize());
+
+        return updateGame(db, id, filename, name, state, history, score, gameTime, won);
+    }
+
+    /**
+     * Insert a new saved game and add it to the statistics of its script, in one transaction.
+     */
+    synchronized long insertGame(
+            SQLiteDatabase db, String filename, String name, byte[] state, byte[] history,
+            int score, long gameTime, int won
+    ) {
+        long timestamp = System.currentTimeMillis() / 1000;
+
         // Create a new map of values, where column names are the keys
         ContentValues values = new ContentValues();
+        values.put(SavedGameEntry.COLUMN_NAME_NAME, name);
+        values.put(SavedGameEntry.COLUMN_NAME_SCRIPT, filename);
+        values.put(SavedGameEntry.COLUMN_NAME_STATE, state);
+        values.put(SavedGameEntry.COLUMN_NAME_TIMESTAMP, timestamp);
+        values.put(SavedGameEntry.COLUMN_NAME_HISTORY, history);
+        values.put(SavedGameEntry.COLUMN_NAME_SCORE, score);
+        values.put(SavedGameEntry.COLUMN_NAME_PLAY_TIME, gameTime);
+        values.put(SavedGameEntry.COLUMN_NAME_WON, won);
+        values.put(SavedGameEntry.COLUMN_NAME_ARCHIVED, 0);
+        values.put(SavedGameEntry.COLUMN_NAME_DELETED, 0);
 
-        // TODO: can we do this without Gson?
-        // Gson is a slow pile of shit
-        Gson gson = new Gson();
-        // copy the array list to avoid ConcurrentModification exceptions
-        String history = gson.toJson(new ArrayList<>(model.getHistory()));
-
-        synchronized (model) {
-            String name = model.getName();
-            long timestamp = System.currentTimeMillis() / 1000;
-            int score = model.getScore();
-            int won = model.hasWon() ? 1 : 0;
-
-            model.acquireLock();
-            String json = model.serialize();
-            model.releaseLock();
-
-            values.put(SavedGameEntry.COLUMN_NAME_NAME, name);
-            values.put(SavedGameEntry.COLUMN_NAME_SCRIPT, filename);
-            values.put(SavedGameEntry.COLUMN_NAME_STATE, json);
-            values.put(SavedGameEntry.COLUMN_NAME_TIMESTAMP, timestamp);
-            values.put(SavedGameEntry.COLUMN_NAME_HISTORY, history);
-            values.put(SavedGameEntry.COLUMN_NAME_SCORE, score);
-            values.put(SavedGameEntry.COLUMN_NAME_PLAY_TIME, gameTime);
-            values.put(SavedGameEntry.COLUMN_NAME_WON, won);
+        db.beginTransaction();
+        try {
+            // Insert the new row, returning the primary key value of the new row
+            long id = db.insert(SavedGameEntry.TABLE_NAME, null, values);
+            if (id != -1) {
+                addStats(db, filename, score, gameTime, won);
+            }
+            db.setTransactionSuccessful();
+            Log.i(LOG_TAG, "Saved game!");
+            return id;
+        } finally {
+            db.endTransaction();
         }
+    }
+
+    /**
+     * Update a saved game and move its statistics from its old values to the new ones, in one
+     * transaction.
+     */
+    synchronized long updateGame(
+            SQLiteDatabase db, long id, String filename, String name, byte[] state,
+            byte[] history, int score, long gameTime, int won
+    ) {
+        long timestamp = System.currentTimeMillis() / 1000;
+
+        // Create a new map of values, where column names are the keys
+        ContentValues values = new ContentValues();
+        values.put(SavedGameEntry.COLUMN_NAME_NAME, name);
+        values.put(SavedGameEntry.COLUMN_NAME_SCRIPT, filename);
+        values.put(SavedGameEntry.COLUMN_NAME_STATE, state);
+        values.put(SavedGameEntry.COLUMN_NAME_TIMESTAMP, timestamp);
+        values.put(SavedGameEntry.COLUMN_NAME_HISTORY, history);
+        values.put(SavedGameEntry.COLUMN_NAME_SCORE, score);
+        values.put(SavedGameEntry.COLUMN_NAME_PLAY_TIME, gameTime);
+        values.put(SavedGameEntry.COLUMN_NAME_WON, won);
 
         // Which row to update, based on the ID
         String selection = SavedGameEntry._ID + " = ?";
         String[] selectionArgs = { String.valueOf(id) };
+        String[] projection = {
+                SavedGameEntry.COLUMN_NAME_SCRIPT,
+                SavedGameEntry.COLUMN_NAME_SCORE,
+                SavedGameEntry.COLUMN_NAME_PLAY_TIME,
+                SavedGameEntry.COLUMN_NAME_WON
+        };
 
-        db.update(
-            SavedGameEntry.TABLE_NAME,
-            values,
-            selection,
-            selectionArgs
-        );
+        db.beginTransaction();
+        try {
+            Cursor old = db.query(
+                    SavedGameEntry.TABLE_NAME, projection, selection, selectionArgs,
+                    null, null, null
+            );
+            try {
+                int updated = db.update(
+                    SavedGameEntry.TABLE_NAME,
+                    values,
+                    selection,
+                    selectionArgs
+                );
+                if (updated > 0 && old.moveToFirst()) {
+                    removeStats(db, old.getString(0), old.getInt(1), old.getLong(2), old.getInt(3));
+                    addStats(db, filename, score, gameTime, won);
+                }
+            } finally {
+                old.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
 
         Log.i(LOG_TAG, "Updated saved game!");
 
@@ -180,40 +424,113 @@ public class SavedGameStorage extends SQLiteOpenHelper {
     }
 
     /**
-     * Get a cursor for traversing over the list of saved games.
+     * Add a saved game to the statistics of a script, creating them if it is the first one.
+     */
+    private void addStats(SQLiteDatabase db, String filename, int score, long time, int won) {
+        SQLiteStatement update = db.compileStatement(SQL_ADD_STATS);
+        try {
+            update.bindLong(1, won);
+            update.bindLong(2, score);
+            update.bindLong(3, time);
+            update.bindString(4, filename);
+            if (update.executeUpdateDelete() > 0) {
+                return;
+            }
+        } finally {
+            update.close();
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(GameStatsEntry.COLUMN_NAME_SCRIPT, filename);
+        values.put(GameStatsEntry.COLUMN_NAME_PLAYED, 1);
+        values.put(GameStatsEntry.COLUMN_NAME_WON, won);
+        if (won == 1) {
+            values.put(GameStatsEntry.COLUMN_NAME_HIGH_SCORE, score);
+            values.put(GameStatsEntry.COLUMN_NAME_BEST_TIME, time);
+        }
+        values.put(GameStatsEntry.COLUMN_NAME_TOTAL_SCORE, score);
+        values.put(GameStatsEntry.COLUMN_NAME_TOTAL_TIME, time);
+        db.insert(GameStatsEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Take a saved game out of the statistics of a script. Must be called after the saved game
+     * itself has been changed, since a won game may have held the high score or best time, and
+     * then they are looked up again from the remaining games.
+     */
+    private void removeStats(SQLiteDatabase db, String filename, int score, long time, int won) {
+        SQLiteStatement update = db.compileStatement(SQL_REMOVE_STATS);
+        try {
+            update.bindLong(1, won);
+            update.bindLong(2, score);
+            update.bindLong(3, time);
+            update.bindString(4, filename);
+            update.executeUpdateDelete();
+        } finally {
+            update.close();
+        }
+
+        if (won == 1) {
+            SQLiteStatement refresh = db.compileStatement(SQL_REFRESH_BEST);
+            try {
+                refresh.bindString(1, filename);
+                refresh.executeUpdateDelete();
+            } finally {
+                refresh.close();
+            }
+        }
+    }
+
+    /**
+     * Get a cursor for traversing over the first page of the list of saved games, newest first.
+     * Only the summary columns are read, never the game state or history, which can be very
+     * large. Those are loaded with getSavedGame() when a game is opened.
      *
      * @param db
      */
     public Cursor getCursor(SQLiteDatabase db) {
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
-        String[] projection = {
-                SavedGameEntry._ID,
-                SavedGameEntry.COLUMN_NAME_NAME,
-                SavedGameEntry.COLUMN_NAME_SCRIPT,
-                SavedGameEntry.COLUMN_NAME_STATE,
-                SavedGameEntry.COLUMN_NAME_TIMESTAMP,
-                SavedGameEntry.COLUMN_NAME_HISTORY,
-                SavedGameEntry.COLUMN_NAME_SCORE,
-                SavedGameEntry.COLUMN_NAME_PLAY_TIME,
-                SavedGameEntry.COLUMN_NAME_WON
-        };
-
-        // How you want the results sorted in the resulting Cursor
-        String sortOrder = SavedGameEntry.COLUMN_NAME_TIMESTAMP + " DESC";
-
         // only select games that are not archived
         String selection = SavedGameEntry.COLUMN_NAME_ARCHIVED + " = ?";
         String[] selectionArgs = {"0"};
+        return getPage(db, selection, selectionArgs);
+    }
+
+    /**
+     * Get a cursor for traversing over the page of the list of saved games that comes after a
+     * given saved game. Pages are found from the last row of the page before them, so reading a
+     * page never reads the rows before it.
+     *
+     * @param db
+     * @param timestamp The timestamp of the last saved game of the previous page.
+     * @param id The id of the last saved game of the previous page.
+     */
+    public Cursor getCursorAfter(SQLiteDatabase db, long timestamp, long id) {
+        // the bound on the timestamp alone lets the index seek straight to the page
+        String selection = SavedGameEntry.COLUMN_NAME_ARCHIVED + " = ? AND " +
+                SavedGameEntry.COLUMN_NAME_TIMESTAMP + " <= ? AND (" +
+                SavedGameEntry.COLUMN_NAME_TIMESTAMP + " < ? OR " +
+                SavedGameEntry._ID + " < ?)";
+        String[] selectionArgs = {
+                "0", Long.toString(timestamp), Long.toString(timestamp), Long.toString(id)
+        };
+        return getPage(db, selection, selectionArgs);
+    }
+
+    private Cursor getPage(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        // How you want the results sorted in the resulting Cursor, the index on archived and
+        // timestamp gives this order without sorting
+        String sortOrder = SavedGameEntry.COLUMN_NAME_TIMESTAMP + " DESC, " +
+                SavedGameEntry._ID + " DESC";
 
         Cursor c = db.query(
                 SavedGameEntry.TABLE_NAME,  // The table to query
-                projection,                               // The columns to return
+                SUMMARY_PROJECTION,                       // The columns to return
                 selection,                                // The columns for the WHERE clause
                 selectionArgs,                            // The values for the WHERE clause
                 null,                                     // don't group the rows
                 null,                                     // don't filter by row groups
-                sortOrder                                 // The sort order
+                sortOrder,                                // The sort order
+                Integer.toString(PAGE_SIZE)               // The number of rows
         );
 
         Log.i(LOG_TAG, "Fetched saved game cursror!");
@@ -222,7 +539,7 @@ public class SavedGameStorage extends SQLiteOpenHelper {
     }
 
     /**
-     * Get a specific saved game from a primary key.
+     * Get a specific saved game from a primary key, with its full state and history.
      */
     public Cursor getSavedGame(SQLiteDatabase db, long id) {
         // Define a projection that specifies which columns from the database
@@ -260,6 +577,28 @@ public class SavedGameStorage extends SQLiteOpenHelper {
         return c;
     }
 
+    /**
+     * Read the state of a saved game from a cursor. States saved as JSON text by older versions
+     * are wrapped so that the model can still load them.
+     */
+    public static byte[] getState(Cursor c, int column) {
+        if (c.getType(column) == Cursor.FIELD_TYPE_STRING) {
+            return GameStateCodec.fromJson(c.getString(column));
+        }
+        return c.getBlob(column);
+    }
+
+    /**
+     * Read the history of a saved game from a cursor, whether it was saved as bytes or as JSON
+     * text by an older version.
+     */
+    public static History getHistory(Cursor c, int column) {
+        if (c.getType(column) == Cursor.FIELD_TYPE_BLOB) {
+            return History.fromBytes(c.getBlob(column));
+        }
+        return History.fromJson(c.getString(column));
+    }
+
     /**
      * Set the archive flag to true for a given game id.
      *
@@ -319,102 +658,60 @@ public class SavedGameStorage extends SQLiteOpenHelper {
     }
 
     /**
-     * Get the number of games played for a certain script filename.
+     * Get every statistic of a script with one lookup of its row in the statistics table.
      */
-    public int gamesPlayed(SQLiteDatabase db, String filename) {
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
+    public GameStats getStats(SQLiteDatabase db, String filename) {
         String[] projection = {
-                SavedGameEntry._ID,
+                GameStatsEntry.COLUMN_NAME_PLAYED,
+                GameStatsEntry.COLUMN_NAME_WON,
+                GameStatsEntry.COLUMN_NAME_HIGH_SCORE,
+                GameStatsEntry.COLUMN_NAME_BEST_TIME,
+                GameStatsEntry.COLUMN_NAME_TOTAL_SCORE,
+                GameStatsEntry.COLUMN_NAME_TOTAL_TIME
         };
-
-        String selection = SavedGameEntry.COLUMN_NAME_SCRIPT + " = ?";
+        String selection = GameStatsEntry.COLUMN_NAME_SCRIPT + " = ?";
         String[] selectionArgs = {filename};
 
         Cursor c = db.query(
-                SavedGameEntry.TABLE_NAME,  // The table to query
-                projection,                               // The columns to return
-                selection,                                // The columns for the WHERE clause
-                selectionArgs,                            // The values for the WHERE clause
-                null,                                     // don't group the rows
-                null,                                     // don't filter by row groups
-                null                                      // The sort order
+                GameStatsEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, null
         );
+        try {
+            if (!c.moveToFirst()) {
+                return GameStats.NONE;
+            }
+            // the high score and best time are null until a game is won
+            return new GameStats(
+                    c.getInt(0),
+                    c.getInt(1),
+                    c.isNull(2) ? -1 : c.getInt(2),
+                    c.isNull(3) ? -1 : c.getLong(3),
+                    c.getLong(4),
+                    c.getLong(5)
+            );
+        } finally {
+            c.close();
+        }
+    }
 
-        int num = c.getCount();
-        Log.i(LOG_TAG, String.format("Counted %d games played for %s", num, filename));
-
-        return num;
+    /**
+     * Get the number of games played for a certain script filename.
+     */
+    public int gamesPlayed(SQLiteDatabase db, String filename) {
+        return getStats(db, filename).played;
     }
 
     /**
      * Get the number of games won for a certain script filename.
      */
     public int gamesWon(SQLiteDatabase db, String filename) {
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
-        String[] projection = {
-                SavedGameEntry._ID,
-        };
-
-        // How you want the results sorted in the resulting Cursor
-        //String sortOrder = SavedGameEntry.COLUMN_NAME_TIMESTAMP + " DESC";
-
-        String selection = SavedGameEntry.COLUMN_NAME_SCRIPT + " = ? AND "
-                + SavedGameEntry.COLUMN_NAME_WON + " = ?";
-        String[] selectionArgs = {filename, Integer.toString(1)};
-
-        Cursor c = db.query(
-                SavedGameEntry.TABLE_NAME,  // The table to query
-                projection,                               // The columns to return
-                selection,                                // The columns for the WHERE clause
-                selectionArgs,                            // The values for the WHERE clause
-                null,                                     // don't group the rows
-                null,                                     // don't filter by row groups
-                null                                      // The sort order
-        );
-
-        int num = c.getCount();
-        Log.i(LOG_TAG, String.format("Counted %d games won for %s", num, filename));
-
-        return num;
+        return getStats(db, filename).won;
     }
 
     /**
      * Get the high score of a game.
      */
     public int highScore(SQLiteDatabase db, String filename) {
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
-        String[] projection = {
-                SavedGameEntry.COLUMN_NAME_SCORE,
-        };
-
-        // How you want the results sorted in the resulting Cursor
-        String sortOrder = SavedGameEntry.COLUMN_NAME_SCORE + " DESC";
-        String selection = SavedGameEntry.COLUMN_NAME_SCRIPT + " = ? AND "
-                + SavedGameEntry.COLUMN_NAME_WON + " = 1";
-        String[] selectionArgs = {filename};
-
-        Cursor c = db.query(
-                SavedGameEntry.TABLE_NAME,  // The table to query
-                projection,                               // The columns to return
-                selection,                                // The columns for the WHERE clause
-                selectionArgs,                            // The values for the WHERE clause
-                null,                                     // don't group the rows
-                null,                                     // don't filter by row groups
-                sortOrder                                 // The sort order
-        );
-
-        if (c.getCount() > 0) {
-            c.moveToFirst();
-            int num = c.getInt(0);
-            Log.i(LOG_TAG, String.format("Got high score %d for %s", num, filename));
-
-            return num;
-        } else {
-            return -1;
-        }
+        return getStats(db, filename).highScore;
     }
 
 
@@ -422,37 +719,7 @@ public class SavedGameStorage extends SQLiteOpenHelper {
      * Get the best time of a game.
      */
     public int bestTime(SQLiteDatabase db, String filename) {
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
-        String[] projection = {
-                SavedGameEntry.COLUMN_NAME_PLAY_TIME,
-        };
-
-        // How you want the results sorted in the resulting Cursor
-        String sortOrder = SavedGameEntry.COLUMN_NAME_PLAY_TIME + " ASC";
-        String selection = SavedGameEntry.COLUMN_NAME_SCRIPT + " = ? AND "
-                + SavedGameEntry.COLUMN_NAME_WON + " = 1";
-        String[] selectionArgs = {filename};
-
-        Cursor c = db.query(
-                SavedGameEntry.TABLE_NAME,  // The table to query
-                projection,                               // The columns to return
-                selection,                                // The columns for the WHERE clause
-                selectionArgs,                            // The values for the WHERE clause
-                null,                                     // don't group the rows
-                null,                                     // don't filter by row groups
-                sortOrder                                 // The sort order
-        );
-
-        if (c.getCount() > 0) {
-            c.moveToFirst();
-            int num = c.getInt(0);
-            Log.i(LOG_TAG, String.format("Got best time %d for %s", num, filename));
-
-            return num;
-        } else {
-            return -1;
-        }
+        return (int) getStats(db, filename).bestTime;
     }
 
     /**
@@ -463,8 +730,19 @@ public class SavedGameStorage extends SQLiteOpenHelper {
         String selection = SavedGameEntry.COLUMN_NAME_SCRIPT + " = ?";
         // Specify arguments in placeholder order.
         String[] selectionArgs = { filename };
-        // Issue SQL statement.
-        db.delete(SavedGameEntry.TABLE_NAME, selection, selectionArgs);
+        // Issue SQL statement, forgetting the statistics along with the games.
+        db.beginTransaction();
+        try {
+            db.delete(SavedGameEntry.TABLE_NAME, selection, selectionArgs);
+            db.delete(
+                    GameStatsEntry.TABLE_NAME,
+                    GameStatsEntry.COLUMN_NAME_SCRIPT + " = ?",
+                    selectionArgs
+            );
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
 }
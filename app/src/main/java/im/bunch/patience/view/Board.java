@@ -33,11 +33,11 @@ public class Board implements Component {
     }
 
     public int getRows() {
-        return mJSBoard.getInteger("rows");
+        return mJSModel.getRows();
     }
 
     public int getColumns() {
-        return mJSBoard.getInteger("cols");
+        return mJSModel.getColumns();
     }
 
     @Override
@@ -72,7 +72,12 @@ public class Board implements Component {
 
     @Override
     public void onUnregister(ComponentManager componentManager) {
-
+        mJSModel.post(new Runnable() {
+            @Override
+            public void run() {
+                mJSBoard.release();
+            }
+        });
     }
 
     @Override
@@ -1,24 +1,22 @@
 package im.bunch.patience.view;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Rect;
 import android.util.Log;
 
 import com.eclipsesource.v8.V8Array;
 import com.eclipsesource.v8.V8Object;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import im.bunch.patience.R;
 import im.bunch.patience.game.Component;
 import im.bunch.patience.game.ComponentManager;
 import im.bunch.patience.game.RectangleComponent;
 import im.bunch.patience.game.graphics.Rectangle;
+import im.bunch.patience.game.graphics.TextureAtlas;
 import im.bunch.patience.geometry.Point;
+import im.bunch.patience.model.Frame;
 import im.bunch.patience.model.JavascriptModel;
 
 /**
@@ -28,6 +26,7 @@ import im.bunch.patience.model.JavascriptModel;
  */
 public class Card implements RectangleComponent {
 
+    private int mId;
     private String mSuit;
     private String mRank;
     private JavascriptModel mJSModel;
@@ -39,8 +38,7 @@ public class Card implements RectangleComponent {
     private int mRows;
     private int mCols;
     private ComponentManager mComponentManager;
-    private Rectangle mFace;
-    private Rectangle mBack;
+    private int mFaceRes;
     private int mOrder;
     private Rect mBounds;
     private boolean mVisible;
@@ -48,8 +46,6 @@ public class Card implements RectangleComponent {
     // standard playing cards are 2.5in by 3.5in
     public static final double HEIGHT_WIDTH_RATIO = 3.5 / 2.5;
 
-    private static Map<String, Rectangle> rectangleMap = new HashMap<>();
-
     /**
      * Costruct a card from a JavaScript model.
      * 
@@ -59,10 +55,18 @@ public class Card implements RectangleComponent {
     public Card(JavascriptModel jsModel, V8Object jsCard) {
         mJSModel = jsModel;
         mJSCard = jsCard;
+        mId = mJSCard.getInteger("id");
         mSuit = mJSCard.getString("suit");
         mRank = mJSCard.getString("rank");
     }
 
+    /**
+     * Get the id of this card in the model frame.
+     */
+    public int getId() {
+        return mId;
+    }
+
     /**
      * Get the JavaScript card model.
      */
@@ -71,67 +75,32 @@ public class Card implements RectangleComponent {
     }
 
     /**
-     * Gets a Rectangle used by GLES for drawing this card to the screen.
+     * Gets a Rectangle used by GLES for drawing this card to the screen, either the face or the
+     * back of the card depending on whether it is visible.
      *
      * @return
      */
     @Override
-    public Rectangle getRectangle() {
+    public Rectangle getRectangle(TextureAtlas atlas) {
         if (mVisible) {
-            if (!rectangleMap.containsKey(getResId())) {
-                int res = mComponentManager.getContext().getResources().getIdentifier(
-                        getResId(), "drawable", mComponentManager.getContext().getPackageName()
-                );
-
+            if (mFaceRes == 0) {
                 Context context = mComponentManager.getContext();
-                final BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inScaled = false;   // No pre-scaling
-
-                // Read in the resource
-                final Bitmap bitmap = BitmapFactory.decodeResource(
-                        context.getResources(), res, options
+                mFaceRes = context.getResources().getIdentifier(
+                        getResId(), "drawable", context.getPackageName()
                 );
-
-                Rectangle rectangle = new Rectangle(bitmap);
-                rectangleMap.put(getResId(), rectangle);
-
-                return rectangle;
-            } else {
-                return rectangleMap.get(getResId());
             }
+            return atlas.getRectangle(mFaceRes);
         } else {
-            if (!rectangleMap.containsKey("card_back")) {
-                int res = R.drawable.card_back;
-
-                Context context = mComponentManager.getContext();
-                final BitmapFactory.Options options = new BitmapFactory.Options();
-                options.inScaled = false;   // No pre-scaling
-
-                // Read in the resource
-                final Bitmap bitmap = BitmapFactory.decodeResource(
-                        context.getResources(), res, options
-                );
-
-                Rectangle rectangle = new Rectangle(bitmap);
-
-                rectangleMap.put("card_back", rectangle);
-
-                return rectangle;
-            } else {
-                return rectangleMap.get("card_back");
-            }
+            return atlas.getRectangle(R.drawable.card_back);
         }
     }
 
     /**
-     * Clear the rectangle map to force it to be recreated next draw cycle.
+     * Cards are opaque, face up or face down.
      */
     @Override
-    public void clearRectangle() {
-        for (Rectangle rect : rectangleMap.values()) {
-            rect.destroy();
-        }
-        rectangleMap = new HashMap<>();
+    public boolean isOpaque() {
+        return true;
     }
 
     /**
@@ -141,12 +110,25 @@ public class Card implements RectangleComponent {
      */
     @Override
     public Rect getBounds() {
-        return new Rect(
+        Rect bounds = new Rect();
+        return copyBounds(bounds) ? bounds : null;
+    }
+
+    /**
+     * Copy the bounds of the card into a rectangle, see getBounds().
+     */
+    @Override
+    public boolean copyBounds(Rect out) {
+        if (mBounds == null) {
+            return false;
+        }
+        out.set(
                 mBounds.left + Pile.CARD_MARGIN,
                 mBounds.top + Pile.CARD_MARGIN,
                 mBounds.right - Pile.CARD_MARGIN,
                 mBounds.bottom - Pile.CARD_MARGIN
         );
+        return true;
     }
 
     @Override
@@ -188,54 +170,62 @@ public class Card implements RectangleComponent {
     }
 
     /**
-     * Called when this card gets unregistered with a component manager. We will destroy the
-     * OpenGL objects that are used to draw this card since we no longer need them and they will
-     * consume video memory. We also release the JavaScript card model in the V8 runtime.
+     * Called when this card gets unregistered with a component manager. We release the JavaScript
+     * card model in the V8 runtime.
      * 
      * @param componentManager
      */
     @Override
     public void onUnregister(ComponentManager componentManager) {
-        if (mFace != null) {
-            mFace.destroy();
-        }
-        if (mBack != null) {
-            mBack.destroy();
-        }
-        mFace = null;
-        mBack = null;
-        mJSCard.release();
+        mJSModel.post(new Runnable() {
+            @Override
+            public void run() {
+                mJSCard.release();
+            }
+        });
     }
 
     /**
      * Called periodically before drawing, we update the card bounds to describe where it should
-     * be drawn on the surface.
+     * be drawn on the surface. Card state is read from the model frame, which is shared by every
+     * card in the update cycle, rather than from the V8 card object.
      */
     @Override
     public void onUpdate() {
-        synchronized (mJSModel) {
-            mJSModel.acquireLock();
-            int order = mJSCard.getInteger("z");
+        Frame frame = mJSModel.getFrame();
+        if (!frame.contains(mId)) {
+            return;
+        }
 
-            if (!mJSCard.contains("alive") || mJSCard.getBoolean("alive")) {
-                int x = mJSCard.getInteger("x");
-                int y = mJSCard.getInteger("y");
+        if (frame.isAlive(mId)) {
+            int x = frame.getX(mId);
+            int y = frame.getY(mId);
 
-                // each card can add a unique position offset
-                x += mCardWidth * mJSCard.getDouble("offsetX");
-                y += mCardHeight * mJSCard.getDouble("offsetY");
+            // each card can add a unique position offset
+            x += mCardWidth * frame.getOffsetX(mId);
+            y += mCardHeight * frame.getOffsetY(mId);
 
-                mVisible = mJSCard.getBoolean("visible");
-                mOrder = order;
+            mVisible = frame.isVisible(mId);
+            mOrder = frame.getZ(mId);
+            // only move the card when its pile has laid it out somewhere else
+            if (mBounds == null || mBounds.left != x || mBounds.top != y
+                    || mBounds.width() != mCardWidth || mBounds.height() != mCardHeight) {
                 mBounds = new Rect(x, y, x + mCardWidth, y + mCardHeight);
-            } else {
-                // unregister cards that have been 'killed'
-                if (mComponentManager.getComponents().contains(this)) {
-                    mComponentManager.unregisterComponent(this);
-                }
             }
+        } else {
+            // unregister cards that have been 'killed'
+            if (mComponentManager.isRegistered(this)) {
+                mComponentManager.unregisterComponent(this);
+            }
+        }
+    }
 
-            mJSModel.releaseLock();
+    /**
+     * Move the card without reading the model frame, used while its pile is being dragged.
+     */
+    public void offset(int dx, int dy) {
+        if (mBounds != null) {
+            mBounds.offset(dx, dy);
         }
     }
 
@@ -248,35 +238,23 @@ public class Card implements RectangleComponent {
      */
     @Override
     public void onSurfaceChange(int width, int height) {
-        synchronized (mJSModel) {
-            mJSModel.acquireLock();
-            mSurfaceWidth = width;
-            mSurfaceHeight = height;
-            mRows = mJSModel.getRows();
-            mCols = mJSModel.getColumns();
-
-            // optimize card size for the screen dimensions
-
-            double maxWidth = mSurfaceWidth / (double) mCols;
-            double maxHeight = mSurfaceHeight / (double) mRows;
-            double testHeight = maxWidth * Card.HEIGHT_WIDTH_RATIO;
-            double scaleFactor = Math.min(maxHeight / testHeight, 1.0);
-
-            mCardWidth = (int) (maxWidth * scaleFactor);
-            mCardHeight = (int) (mCardWidth * Card.HEIGHT_WIDTH_RATIO);
-
-            mJSModel.releaseLock();
-        }
-
-        // redraw textures
-        if (mFace != null) {
-            mFace.destroy();
-        }
-        if (mBack != null) {
-            mBack.destroy();
+        mSurfaceWidth = width;
+        mSurfaceHeight = height;
+        mRows = mJSModel.getRows();
+        mCols = mJSModel.getColumns();
+
+        // optimize card size for the screen dimensions
+
+        double maxWidth = mSurfaceWidth / (double) mCols;
+        double maxHeight = mSurfaceHeight / (double) mRows;
+        double testHeight = maxWidth * Card.HEIGHT_WIDTH_RATIO;
+        double scaleFactor = Math.min(maxHeight / testHeight, 1.0);
+
+        mCardWidth = (int) (maxWidth * scaleFactor);
+        mCardHeight = (int) (mCardWidth * Card.HEIGHT_WIDTH_RATIO);
+        if (mComponentManager != null) {
+            mComponentManager.setCardSize(mCardWidth, mCardHeight);
         }
-        mFace = null;
-        mBack = null;
     }
 
     /**
@@ -299,7 +277,8 @@ public class Card implements RectangleComponent {
      */
     @Override
     public boolean collidesWithPoint(Point p) {
-        return getBounds().contains((int) p.x, (int) p.y);
+        Rect bounds = getBounds();
+        return bounds != null && bounds.contains((int) p.x, (int) p.y);
     }
 
     /**
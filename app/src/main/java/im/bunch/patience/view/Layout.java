@@ -0,0 +1,151 @@
+package im.bunch.patience.view;
+
+import im.bunch.patience.model.Frame;
+
+/**
+ * Java implementations of the built in LAYOUTS in common.js. These layouts are plain arithmetic,
+ * so piles that use them are laid out here without calling into V8 or allocating anything. Each
+ * layout must give exactly the same positions as its JavaScript counterpart.
+ *
+ * @author Creston Bunch
+ */
+public final class Layout {
+
+    /** A layout defined by a script, which has to be run in V8. */
+    public static final int CUSTOM = -1;
+
+    // these must match the order of BUILTIN_LAYOUTS in common.js
+    public static final int SQUARED = 0;
+    public static final int FANNED = 1;
+    public static final int FANNED_RIGHT = 2;
+    public static final int PYRAMID = 3;
+
+    private Layout() {
+
+    }
+
+    /**
+     * Check if a layout can be computed in Java.
+     */
+    public static boolean isBuiltin(int layout) {
+        return layout >= SQUARED && layout <= PYRAMID;
+    }
+
+    /**
+     * Lay out the cards of a pile inside of a rectangle. Positions are truncated to whole pixels
+     * the same way JavaScript positions are.
+     *
+     * @param layout One of the built in layout constants.
+     * @param flags  The frame flags of each card in the pile.
+     * @param count  The number of cards in the pile.
+     * @param xs     Receives the x position of each card.
+     * @param ys     Receives the y position of each card.
+     */
+    public static void layout(
+            int layout, int left, int top, int right, int bottom, int width, int height,
+            int[] flags, int count, int[] xs, int[] ys
+    ) {
+        switch (layout) {
+            case SQUARED:
+                squared(left, top, count, xs, ys);
+                break;
+            case FANNED:
+                fanned(left, top, bottom, height, flags, count, xs, ys);
+                break;
+            case FANNED_RIGHT:
+                fannedRight(left, top, right, width, count, xs, ys);
+                break;
+            case PYRAMID:
+                pyramid(left, top, width, height, count, xs, ys);
+                break;
+            default:
+                throw new IllegalArgumentException("Not a built in layout: " + layout);
+        }
+    }
+
+    private static void squared(int left, int top, int count, int[] xs, int[] ys) {
+        for (int i = 0; i < count; i++) {
+            xs[i] = left;
+            ys[i] = top;
+        }
+    }
+
+    private static void fanned(
+            int left, int top, int bottom, int height, int[] flags, int count, int[] xs, int[] ys
+    ) {
+        if (count == 0) { return; }
+        double maxDelta = height / 3.0; // at most one third of the card will show
+        double minDelta = height / 8.0; // at least one eigth of the card will show
+        double totalPileSpace = (bottom - top - height);
+        double spacePerCard = totalPileSpace / count;
+
+        double delta = Math.max(Math.min(spacePerCard, maxDelta), minDelta);
+
+        double dy = 0;
+        for (int i = 0; i < count; i++) {
+            xs[i] = left;
+            ys[i] = (int) (top + dy);
+            if ((flags[i] & Frame.FLAG_VISIBLE) == 0) {
+                // turned-over cards don't get as much space
+                dy += minDelta;
+            } else {
+                dy += delta;
+            }
+        }
+    }
+
+    private static void fannedRight(
+            int left, int top, int right, int width, int count, int[] xs, int[] ys
+    ) {
+        if (count == 0) { return; }
+        double maxDelta = width / 3.0; // at most one third of the card will show
+        double minDelta = width / 8.0; // at least one eigth of the card will show
+        double totalPileSpace = (right - left - width);
+        double spacePerCard = totalPileSpace / count;
+
+        double delta = Math.max(Math.min(spacePerCard, maxDelta), minDelta);
+
+        for (int i = 0; i < count; i++) {
+            xs[i] = (int) (left + i * delta);
+            ys[i] = top;
+        }
+    }
+
+    private static void pyramid(
+            int left, int top, int width, int height, int count, int[] xs, int[] ys
+    ) {
+        // count how many cards will be in the bottom row
+        int row = 0;
+        int next = 1;
+        for (int i = 0; i < count - 1; i++) {
+            row++;
+            // move to the next row
+            if (row == next) {
+                row = 0;
+                next++;
+            }
+        }
+        row++;
+        // calculate the width of the pyramid box
+        double w = row * width;
+        // this is the root of the pyramid
+        double x1 = left + w / 2 - width / 2.0;
+        double y = top;
+        double dx = width / 2.0;
+        double dy = height / 2.0;
+        row = 0;
+        next = 1;
+        for (int i = 0; i < count; i++) {
+            xs[i] = (int) (x1 + row * width);
+            ys[i] = (int) y;
+            row++;
+            // move to the next row
+            if (row == next) {
+                row = 0;
+                next++;
+                x1 = x1 - dx;
+                y = y + dy;
+            }
+        }
+    }
+}
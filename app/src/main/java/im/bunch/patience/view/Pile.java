@@ -1,8 +1,5 @@
 package im.bunch.patience.view;
 
-import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Rect;
 import android.util.Log;
 
@@ -11,15 +8,20 @@ import com.eclipsesource.v8.V8Object;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import im.bunch.patience.R;
 import im.bunch.patience.game.Component;
 import im.bunch.patience.game.ComponentManager;
+import im.bunch.patience.game.Draggable;
 import im.bunch.patience.game.RectangleComponent;
 import im.bunch.patience.game.graphics.Rectangle;
+import im.bunch.patience.game.graphics.TextureAtlas;
 import im.bunch.patience.geometry.Point;
+import im.bunch.patience.model.Frame;
 import im.bunch.patience.model.JavascriptModel;
 
 /**
@@ -27,7 +29,7 @@ import im.bunch.patience.model.JavascriptModel;
  *
  * @author Creston
  */
-public class Pile implements RectangleComponent {
+public class Pile implements RectangleComponent, Draggable {
 
     private final JavascriptModel mJSModel;
     private final V8Object mJSPile;
@@ -48,10 +50,27 @@ public class Pile implements RectangleComponent {
     private Point mAnchor;
     private boolean mDraw;
 
-    private Rectangle mRectangle;
+    // the cards of this pile as last described by JavaScript, see DescribeCommand
+    private int mPileId;
+    private int mVersion;
+    private int mGeneration;
+    private boolean mLayoutDirty;
+    private int mLayout;
+    private int mCount;
+    private int[] mCardIds;
+    private int[] mCardFlags;
+    private int[] mCardXs;
+    private int[] mCardYs;
+    private double[] mBuffer;
+    private Frame mFrame;
+    private List<Card> mDraggedCards;
+    private final Runnable mDescribeCommand;
+    private final Runnable mPositionsCommand;
+
     public static final String LOG_TAG = "Pile";
     public static final int CARD_MARGIN = 5; //px
     public static final int PILE_ORDER = -1;
+    public static final int DRAG_ORDER = 1000;
 
     /**
      * Construct the pile from a given Javascript pile.
@@ -62,6 +81,11 @@ public class Pile implements RectangleComponent {
     public Pile(JavascriptModel jsModel, V8Object jsPile) {
         mJSModel = jsModel;
         mJSPile = jsPile;
+        mPileId = jsPile.contains("id") ? jsPile.getInteger("id") : -1;
+        mDescribeCommand = new DescribeCommand();
+        mPositionsCommand = new PositionsCommand();
+        readStyle();
+        resetLayout();
     }
 
     /**
@@ -89,6 +113,12 @@ public class Pile implements RectangleComponent {
         mSurfaceHeight = surfaceHeight;
         mCardWidth = cardWidth;
         mCardHeight = cardHeight;
+        // piles being dragged are not part of the game, so they have no version in the frame
+        mPileId = -1;
+        mDescribeCommand = new DescribeCommand();
+        mPositionsCommand = new PositionsCommand();
+        readStyle();
+        resetLayout();
     }
 
     /**
@@ -126,39 +156,18 @@ public class Pile implements RectangleComponent {
      * @return
      */
     @Override
-    public Rectangle getRectangle() {
+    public Rectangle getRectangle(TextureAtlas atlas) {
         // can set the draw flag to false to disable drawing a pile placeholder
         if (!mDraw) { return null; }
-        if (mRectangle == null) {
-            int res = mBack; // populated in onSurfaceChanged
-
-            Context context = mComponentManager.getContext();
-            final BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inScaled = false;   // No pre-scaling
-
-            // Read in the resource
-            final Bitmap bitmap = BitmapFactory.decodeResource(
-                    context.getResources(), res, options
-            );
-
-            Rectangle rectangle = new Rectangle(bitmap);
-            mRectangle = rectangle;
-
-            return rectangle;
-        } else {
-            return mRectangle;
-        }
+        return atlas.getRectangle(mBack);
     }
 
     /**
-     * Clear the rectangle map to force it to be recreated next draw cycle.
+     * Pile placeholders are see-through, so they never hide anything.
      */
     @Override
-    public void clearRectangle() {
-        if (mRectangle != null) {
-            mRectangle.destroy();
-            mRectangle = null;
-        }
+    public boolean isOpaque() {
+        return false;
     }
 
     /**
@@ -183,13 +192,25 @@ public class Pile implements RectangleComponent {
      */
     @Override
     public Rect getBounds() {
-        // calculate margins
-        return new Rect(
+        Rect bounds = new Rect();
+        return copyBounds(bounds) ? bounds : null;
+    }
+
+    /**
+     * Copy the bounds of the pile into a rectangle, see getBounds().
+     */
+    @Override
+    public boolean copyBounds(Rect out) {
+        if (mBounds == null) {
+            return false;
+        }
+        out.set(
                 mBounds.left + CARD_MARGIN,
                 mBounds.top + CARD_MARGIN,
                 mBounds.right - CARD_MARGIN,
                 mBounds.bottom - CARD_MARGIN
         );
+        return true;
     }
 
     /**
@@ -200,69 +221,87 @@ public class Pile implements RectangleComponent {
      * @param p
      */
     @Override
-    public void onDragStart(List<Component> targets, Point p) {
-        synchronized (mJSModel) {
-            mJSModel.acquireLock();
+    public void onDragStart(final List<Component> targets, final Point p) {
+        if (!targets.contains(this)) {
+            return;
+        }
 
-            if (targets.contains(this)) {
-                Log.i(LOG_TAG, "Targeting a pile.");
+        Log.i(LOG_TAG, "Targeting a pile.");
+
+        // find the top card under the pointer from where it was last laid out
+        Frame frame = mJSModel.getFrame();
+        Card targetCard = null;
+        for (Component c : targets) {
+            if (c instanceof Card) {
+                Card card = (Card) c;
+                if (targetCard == null
+                        || frame.getZ(card.getId()) > frame.getZ(targetCard.getId())) {
+                    targetCard = card;
+                }
+            }
+        }
 
-                V8Object target = null;
+        // found a target card, ask JavaScript if we can split this pile at the given card
+        if (targetCard == null) {
+            return;
+        }
 
-                for (Component c : targets) {
-                    if (c instanceof Card) {
-                        V8Object card = ((Card) c).getJSCard();
+        final V8Object target = targetCard.getJSCard();
+        int id = targetCard.getId();
+        final Point pos = new Point(frame.getX(id), frame.getY(id));
+        final Point anchor = new Point(p.x - pos.x, p.y - pos.y);
 
-                        if (target == null || card.getInteger("z") > target.getInteger("z")) {
-                            target = card;
-                        }
-                    }
+        // split the JavaScript pile on the model thread, then register the new pile from here
+        Pile newComponent = mJSModel.call(new Callable<Pile>() {
+            @Override
+            public Pile call() {
+                Log.i(LOG_TAG, "Found a card.");
+                V8Array parameters = new V8Array(mJSPile.getRuntime());
+                parameters.push(mJSModel.getGame()).push(mJSPile).push(target);
+                // JavaScript will split the pile and return the part we can drag, or it will
+                // return an empty array if there is nothing to drag.
+                V8Array split = mJSPile.executeArrayFunction("split", parameters);
+                parameters.release();
+                // only drag if there is something to drag
+                if (split.isUndefined() || split.length() == 0) {
+                    split.release();
+                    return null;
                 }
 
-                // found a target card, ask JavaScript if we can split this pile at the given card
-                if (target != null) {
-
-                    Log.i(LOG_TAG, "Found a card.");
-                    V8Array parameters = new V8Array(mJSPile.getRuntime());
-                    parameters.push(mJSModel.getGame()).push(mJSPile).push(target);
-                    // JavaScript will split the pile and return the part we can drag, or it will
-                    // return an empty array if there is nothing to drag.
-                    V8Array split = mJSPile.executeArrayFunction("split", parameters);
-                    // only drag if there is something to drag
-                    if (!split.isUndefined() && split.length() > 0) {
-                        Point anchor = new Point(p.x - target.getInteger("x"),
-                                p.y - target.getInteger("y"));
-
-                        V8Object newPile = new V8Object(mJSPile.getRuntime());
-                        newPile.add("name", mJSPile.getString("name"));
-                        newPile.add("row", mJSPile.getDouble("row"));
-                        newPile.add("col", mJSPile.getDouble("col"));
-                        newPile.add("layout", mJSPile.getObject("layout"));
-                        newPile.add("cards", split);
-                        // disallow splitting and tapping of this pile
-                        newPile.add("split", mJSPile.getRuntime().getObject("noSplit"));
-                        newPile.add("tap", mJSPile.getRuntime().getObject("noTap"));
-                        newPile.add("merge", mJSPile.getRuntime().getObject("noMerge"));
-                        // keep track of the source pile
-                        newPile.add("source", mJSPile);
-
-                        // create a new draggable pile
-                        Point pos = new Point(target.getInteger("x"), target.getInteger("y"));
-                        Pile newComponent = new Pile(
-                                mJSModel, newPile, this, true, pos,
-                                anchor, mSurfaceWidth, mSurfaceHeight,
-                                mCardWidth, mCardHeight
-                        );
-                        // temporarily update the bounds so we don't see a stretched-out
-                        // empty pile underneath everything
-                        mBounds = new Rect(
-                                getX(), getY(), getX() + mCardWidth, getY() + mCardHeight
-                        );
-                        mComponentManager.registerComponent(newComponent);
-                    }
-                }
+                V8Object newPile = new V8Object(mJSPile.getRuntime());
+                newPile.add("name", mJSPile.getString("name"));
+                newPile.add("row", mJSPile.getDouble("row"));
+                newPile.add("col", mJSPile.getDouble("col"));
+                newPile.add("layout", mJSPile.getObject("layout"));
+                newPile.add("cards", split);
+                // disallow splitting and tapping of this pile
+                newPile.add("split", mJSPile.getRuntime().getObject("noSplit"));
+                newPile.add("tap", mJSPile.getRuntime().getObject("noTap"));
+                newPile.add("merge", mJSPile.getRuntime().getObject("noMerge"));
+                // keep track of the source pile
+                newPile.add("source", mJSPile);
+
+                // the cards of this pile have changed
+                touch(mJSPile);
+                mJSModel.invalidateFrame();
+
+                // create a new draggable pile
+                return new Pile(
+                        mJSModel, newPile, Pile.this, true, pos,
+                        anchor, mSurfaceWidth, mSurfaceHeight,
+                        mCardWidth, mCardHeight
+                );
             }
-            mJSModel.releaseLock();
+        });
+
+        if (newComponent != null) {
+            // temporarily update the bounds so we don't see a stretched-out
+            // empty pile underneath everything
+            mBounds = new Rect(
+                    getX(), getY(), getX() + mCardWidth, getY() + mCardHeight
+            );
+            mComponentManager.registerComponent(newComponent);
+            mComponentManager.beginDrag(newComponent);
         }
     }
 
@@ -278,7 +317,66 @@ public class Pile implements RectangleComponent {
         if (mDragging) {
             mPosX = (int) (p.x - mAnchor.x);
             mPosY = (int) (p.y - mAnchor.y);
+            mLayoutDirty = true;
+        }
+    }
+
+    /**
+     * Called by the component manager for each drag event while this pile is being dragged. The
+     * cards are moved along with the pile exactly as they were laid out when the drag started, so
+     * nothing is laid out again and JavaScript is never called.
+     *
+     * @param p
+     */
+    @Override
+    public void onDragMove(Point p) {
+        if (!mDragging || mBounds == null || mFrame == null) {
+            return;
+        }
+        int x = (int) (p.x - mAnchor.x);
+        int y = (int) (p.y - mAnchor.y);
+        int dx = x - mPosX;
+        int dy = y - mPosY;
+        if (dx == 0 && dy == 0) {
+            return;
+        }
+        mPosX = x;
+        mPosY = y;
+
+        if (mDraggedCards == null) {
+            mDraggedCards = findCards();
+        }
+        for (int i = 0; i < mCount; i++) {
+            int id = mCardIds[i];
+            if (mFrame.contains(id)) {
+                mFrame.setPlacement(
+                        id, mFrame.getX(id) + dx, mFrame.getY(id) + dy, mFrame.getZ(id)
+                );
+            }
+        }
+        for (int i = 0; i < mDraggedCards.size(); i++) {
+            mDraggedCards.get(i).offset(dx, dy);
         }
+        mBounds.offset(dx, dy);
+    }
+
+    /**
+     * Find the card components in this pile.
+     */
+    private List<Card> findCards() {
+        List<Card> cards = new ArrayList<>();
+        for (Component c : mComponentManager.getComponents()) {
+            if (c instanceof Card) {
+                int id = ((Card) c).getId();
+                for (int i = 0; i < mCount; i++) {
+                    if (mCardIds[i] == id) {
+                        cards.add((Card) c);
+                        break;
+                    }
+                }
+            }
+        }
+        return cards;
     }
 
     /**
@@ -290,36 +388,46 @@ public class Pile implements RectangleComponent {
      */
     @Override
     public void onDragEnd(List<Component> targets, Point p) {
+        if (!mDragging) {
+            return;
+        }
 
-        synchronized (mJSModel) {
-            mJSModel.acquireLock();
-
-            Pile target = null;
-            // find the pile in the list of targets with the maximum overlap
-            for (Component c : new ArrayList<>(mComponentManager.getComponents())) {
-                if (c != this && c instanceof Pile) {
-                    Pile d = (Pile) c;
-                    if (d.intersection(this) > 0) {
-                        if (target == null || d.intersection(this) > target.intersection(this)) {
-                            target = d;
-                        }
+        Pile target = null;
+        // find the overlapping pile with the maximum overlap
+        Rect bounds = getBounds();
+        List<Component> overlapping = bounds == null
+                ? Collections.<Component>emptyList()
+                : mComponentManager.getComponentsIn(bounds);
+        for (Component c : overlapping) {
+            if (c != this && c instanceof Pile) {
+                Pile d = (Pile) c;
+                if (d.intersection(this) > 0) {
+                    if (target == null || d.intersection(this) > target.intersection(this)) {
+                        target = d;
                     }
                 }
             }
-            if (mDragging) {
+        }
 
+        final Pile mergeTarget = target;
+        mJSModel.run(new Runnable() {
+            @Override
+            public void run() {
                 boolean merged = false;
-                if (target != null) {
-                    V8Object targetJsPile = target.getJSPile();
+                if (mergeTarget != null) {
+                    V8Object targetJsPile = mergeTarget.getJSPile();
                     V8Array parameters = new V8Array(mJSPile.getRuntime());
-                    parameters.push(mJSModel.getGame()).push(target.getJSPile()).push(mJSPile);
+                    parameters.push(mJSModel.getGame()).push(targetJsPile).push(mJSPile);
 
-                    // JavaScript will merge the piles if possible and tell us whether it was successful
-                    // or not.
+                    // JavaScript will merge the piles if possible and tell us whether it was
+                    // successful or not.
                     if (!targetJsPile.isUndefined() && targetJsPile.contains("merge")) {
                         merged = targetJsPile.executeBooleanFunction("merge", parameters);
                     }
                     parameters.release();
+                    if (merged) {
+                        touch(targetJsPile);
+                    }
                     Log.i(LOG_TAG, "Merged attempted.");
                 } else {
                     Log.i(LOG_TAG, "Target is null.");
@@ -332,13 +440,12 @@ public class Pile implements RectangleComponent {
                 } else  {
                     Log.i(LOG_TAG, "Merged!");
                 }
-
-                mComponentManager.unregisterComponent(this);
-                mDragging = false;
+                mJSModel.invalidateFrame();
             }
+        });
 
-            mJSModel.releaseLock();
-        }
+        mComponentManager.unregisterComponent(this);
+        mDragging = false;
     }
 
     /**
@@ -351,14 +458,16 @@ public class Pile implements RectangleComponent {
     @Override
     public void onTap(List<Component> targets, Point p) {
         if (targets.contains(this)) {
-            synchronized (mJSModel) {
-                mJSModel.acquireLock();
-                V8Array parameters = new V8Array(mJSPile.getRuntime());
-                parameters.push(mJSModel.getGame());
-                mJSPile.executeVoidFunction("tap", parameters);
-                parameters.release();
-                mJSModel.releaseLock();
-            }
+            mJSModel.run(new Runnable() {
+                @Override
+                public void run() {
+                    V8Array parameters = new V8Array(mJSPile.getRuntime());
+                    parameters.push(mJSModel.getGame());
+                    mJSPile.executeVoidFunction("tap", parameters);
+                    parameters.release();
+                    mJSModel.invalidateFrame();
+                }
+            });
         }
     }
 
@@ -368,14 +477,16 @@ public class Pile implements RectangleComponent {
     @Override
     public boolean onCancelDrag() {
         if (mDragging) {
-            synchronized (mJSModel) {
-                mJSModel.acquireLock();
-                resetPile();
-                mDragging = false;
-                mComponentManager.unregisterComponent(this);
-                mJSModel.releaseLock();
-                return true;
-            }
+            mJSModel.run(new Runnable() {
+                @Override
+                public void run() {
+                    resetPile();
+                    mJSModel.invalidateFrame();
+                }
+            });
+            mDragging = false;
+            mComponentManager.unregisterComponent(this);
+            return true;
         }
         return false;
     }
@@ -402,11 +513,12 @@ public class Pile implements RectangleComponent {
      */
     @Override
     public void onUnregister(ComponentManager componentManager) {
-        if (mRectangle != null) {
-            mRectangle.destroy();
-        }
-        mRectangle = null;
-        mJSPile.release();
+        mJSModel.post(new Runnable() {
+            @Override
+            public void run() {
+                mJSPile.release();
+            }
+        });
     }
 
     /**
@@ -417,45 +529,59 @@ public class Pile implements RectangleComponent {
     @Override
     public void onUpdate() {
         // if we're dragging a component, don't update any other components
-        for (Component c : new ArrayList<>(mComponentManager.getComponents())) {
-            if (c instanceof Pile) {
-                Pile p = (Pile) c;
-                if (p.isDragging() && p != this) {
-                    return;
+        Draggable dragged = mComponentManager.getDragged();
+        if (dragged != null && dragged != this) {
+            return;
+        }
+
+        Frame frame = mJSModel.getFrame();
+        mFrame = frame;
+        if (frame.getGeneration() != mGeneration) {
+            if (isChanged(frame)) {
+                // read the cards of this pile again, only when they have changed
+                mJSModel.run(mDescribeCommand);
+            } else {
+                mGeneration = frame.getGeneration();
+                // cards may have been flipped over or killed, which can change the layout
+                if (updateFlags(frame) || !Layout.isBuiltin(mLayout)) {
+                    mLayoutDirty = true;
                 }
             }
         }
 
-        // create a rect object for JavaScript. This is how much space the pile has to draw.
-        synchronized (mJSModel) {
-            mJSModel.acquireLock();
-
-            // sometimes piles get released in the middle of an update cycle before the update
-            // cycle gets a chance to update them, so in case that happens we'll do a quick check
-            // to prevent any errors
-            if (!mJSPile.isReleased()) {
-                updateBounds();
-            }
+        // sometimes piles get released in the middle of an update cycle before the update
+        // cycle gets a chance to update them, in which case there is nothing to describe
+        if (mGeneration >= 0 && mLayoutDirty) {
+            updateBounds(frame);
+        }
+    }
 
-            if (mJSPile.contains("draw") && !mJSPile.getBoolean("draw")) {
-                mDraw = false;
-            } else {
-                mDraw = true;
-            }
+    /**
+     * Check if the cards of this pile might have changed since they were last described. Piles
+     * that have no version, like piles being dragged, are described again after every change to
+     * the model.
+     */
+    private boolean isChanged(Frame frame) {
+        if (mGeneration < 0 || mPileId < 0 || !frame.containsPile(mPileId)) {
+            return true;
+        }
+        return frame.getPileVersion(mPileId) != mVersion;
+    }
 
-            // get the card back to draw for empty piles
-            if (mJSPile.contains("back")) {
-                if (mJSPile.getString("back").equals("ace")) {
-                    mBack = R.drawable.ace_blank;
-                } else if (mJSPile.getString("back").equals("king")) {
-                    mBack = R.drawable.king_blank;
-                }
-            } else {
-                mBack = R.drawable.card_blank;
+    /**
+     * Copy the flags of every card in this pile from the frame. Returns true if any of them
+     * changed.
+     */
+    private boolean updateFlags(Frame frame) {
+        boolean changed = false;
+        for (int i = 0; i < mCount; i++) {
+            int id = mCardIds[i];
+            if (frame.contains(id) && frame.getFlags(id) != mCardFlags[i]) {
+                mCardFlags[i] = frame.getFlags(id);
+                changed = true;
             }
-
-            mJSModel.releaseLock();
         }
+        return changed;
     }
 
     /**
@@ -481,24 +607,17 @@ public class Pile implements RectangleComponent {
 
         mCardWidth = (int) (maxWidth * scaleFactor);
         mCardHeight = (int) (mCardWidth * Card.HEIGHT_WIDTH_RATIO);
-
-        synchronized (mJSModel) {
-            mJSModel.acquireLock();
-            if (!mDragging) {
-                mPosX = (int) (mJSPile.getDouble("col") * mCardWidth);
-                mPosY = (int) (mJSPile.getDouble("row") * mCardHeight);
-            }
-
-            mJSModel.releaseLock();
-        }
-
-
-
-        // redraw textures
-        if (mRectangle != null) {
-            mRectangle.destroy();
+        mLayoutDirty = true;
+
+        if (!mDragging) {
+            mJSModel.run(new Runnable() {
+                @Override
+                public void run() {
+                    mPosX = (int) (mJSPile.getDouble("col") * mCardWidth);
+                    mPosY = (int) (mJSPile.getDouble("row") * mCardHeight);
+                }
+            });
         }
-        mRectangle = null;
     }
 
     /**
@@ -543,7 +662,7 @@ public class Pile implements RectangleComponent {
     }
 
     /**
-     * Return a pile to its parent.
+     * Return a pile to its parent. Must be called on the model thread.
      */
     public void resetPile() {
         if (mParent != null) {
@@ -552,59 +671,183 @@ public class Pile implements RectangleComponent {
             for (String key : mJSPile.getArray("cards").getKeys()) {
                 parentJsCards.push(mJSPile.getArray("cards").getObject(key));
             }
+            touch(parentJsPile);
         } else {
             Log.e(LOG_TAG, "Oh god this should never happen.");
         }
     }
 
 
-    private void updateBounds() {
-        int x = getX();
-        int y = getY();
-        int maxX = x;
-        int maxY = y;
+    /**
+     * Read the static drawing style of this pile from JavaScript. These properties never change
+     * during a game, so they are read once instead of every update cycle.
+     */
+    private void readStyle() {
+        mDraw = !mJSPile.contains("draw") || mJSPile.getBoolean("draw");
+
+        // get the card back to draw for empty piles
+        mBack = R.drawable.card_blank;
+        if (mJSPile.contains("back")) {
+            if (mJSPile.getString("back").equals("ace")) {
+                mBack = R.drawable.ace_blank;
+            } else if (mJSPile.getString("back").equals("king")) {
+                mBack = R.drawable.king_blank;
+            }
+        }
+    }
+
+    /**
+     * Mark a JavaScript pile as changed so that it is laid out again. Must be called on the model
+     * thread.
+     */
+    private void touch(V8Object jsPile) {
+        V8Array parameters = new V8Array(jsPile.getRuntime());
+        parameters.push(jsPile);
+        jsPile.getRuntime().executeVoidFunction("touch", parameters);
+        parameters.release();
+    }
 
-        V8Object rect = new V8Object(mJSPile.getRuntime());
-        rect.add("left", x);
-        rect.add("top", y);
-        rect.add("right", mSurfaceWidth - x);
-        rect.add("bottom", mSurfaceHeight - y);
+    /**
+     * Forget everything read from JavaScript so that the pile is described again on the next
+     * update.
+     */
+    private void resetLayout() {
+        mVersion = -1;
+        mGeneration = -1;
+        mLayoutDirty = true;
+        mLayout = Layout.SQUARED;
+        mCount = 0;
+        mCardIds = new int[0];
+        mCardFlags = new int[0];
+        mCardXs = new int[0];
+        mCardYs = new int[0];
+        mBuffer = new double[0];
+    }
 
-        V8Array cards = mJSPile.getArray("cards");
+    /**
+     * Make sure the card arrays can hold a number of cards.
+     */
+    private void ensureCapacity(int count) {
+        if (mCardIds.length < count) {
+            mCardIds = new int[count];
+            mCardFlags = new int[count];
+            mCardXs = new int[count];
+            mCardYs = new int[count];
+        }
+    }
 
-        int num = cards.length();
-        // Ask JavaScript to calculate the position of each card for us
-        V8Array params = new V8Array(mJSPile.getRuntime());
-        params.push(rect).push(mCardWidth).push(mCardHeight).push(mJSPile);
-        V8Array positions = mJSPile.executeArrayFunction("layout", params);
-        params.release();
+    /**
+     * Copy a JavaScript array of numbers into the reusable buffer.
+     */
+    private void readBuffer(V8Array array) {
+        int length = array.length();
+        if (mBuffer.length < length) {
+            mBuffer = new double[length];
+        }
+        if (length > 0) {
+            array.getDoubles(0, length, mBuffer);
+        }
+    }
 
-        mNumCards = cards.length();
+    /**
+     * Lay out the cards of this pile, store their placement in the frame and update the bounds of
+     * the pile. Built in layouts are computed in Java, only custom layouts call into V8.
+     */
+    private void updateBounds(Frame frame) {
+        int x = getX();
+        int y = getY();
 
-        // update card positions from list
-        for (String index : cards.getKeys()) {
-            V8Object card = cards.getObject(index);
-            V8Object pos = positions.getObject(index);
+        if (Layout.isBuiltin(mLayout)) {
+            Layout.layout(
+                    mLayout, x, y, mSurfaceWidth - x, mSurfaceHeight - y, mCardWidth, mCardHeight,
+                    mCardFlags, mCount, mCardXs, mCardYs
+            );
+        } else {
+            mJSModel.run(mPositionsCommand);
+        }
 
+        // draw cards being dragged above everything else
+        int z = mDragging ? DRAG_ORDER : 0;
+        int maxX = x;
+        int maxY = y;
+        for (int i = 0; i < mCount; i++) {
             // skip 'dead' cards
-            if (card.contains("alive") && !card.getBoolean("alive")) {
+            if ((mCardFlags[i] & Frame.FLAG_ALIVE) == 0 || !frame.contains(mCardIds[i])) {
                 continue;
             }
+            frame.setPlacement(mCardIds[i], mCardXs[i], mCardYs[i], z + i);
+            maxX = Math.max(maxX, mCardXs[i]);
+            maxY = Math.max(maxY, mCardYs[i]);
+        }
+        mNumCards = mCount;
 
-            x = pos.getInteger("x");
-            y = pos.getInteger("y");
-            card.add("x", x);
-            card.add("y", y);
-            if (mDragging) {
-                // draw cards being dragged above everything else
-                card.add("z", 1000 + Integer.parseInt(index));
-            } else {
-                card.add("z", Integer.parseInt(index));
+        mBounds = new Rect(x, y, maxX + mCardWidth, maxY + mCardHeight);
+        mLayoutDirty = false;
+    }
+
+    /**
+     * Reads the layout and the cards of this pile from JavaScript. Runs on the model thread.
+     */
+    private class DescribeCommand implements Runnable {
+        @Override
+        public void run() {
+            if (mJSPile.isReleased()) {
+                mGeneration = -1;
+                mCount = 0;
+                return;
+            }
+            Frame frame = mJSModel.getFrame();
+            int generation = frame.getGeneration();
+            int version = mPileId >= 0 && frame.containsPile(mPileId)
+                    ? frame.getPileVersion(mPileId) : -1;
+
+            V8Array parameters = new V8Array(mJSPile.getRuntime());
+            parameters.push(mJSPile);
+            V8Array description = mJSPile.getRuntime().executeArrayFunction(
+                    "describe", parameters
+            );
+            parameters.release();
+            readBuffer(description);
+            description.release();
+
+            mLayout = (int) mBuffer[0];
+            mCount = (int) mBuffer[1];
+            ensureCapacity(mCount);
+            for (int i = 0; i < mCount; i++) {
+                mCardIds[i] = (int) mBuffer[2 + i * 2];
+                mCardFlags[i] = (int) mBuffer[3 + i * 2];
             }
-            maxX = Math.max(maxX, x);
-            maxY = Math.max(maxY, y);
+            mGeneration = generation;
+            mVersion = version;
+            mLayoutDirty = true;
         }
+    }
 
-        mBounds = new Rect(getX(), getY(), maxX + mCardWidth, maxY + mCardHeight);
+    /**
+     * Runs a custom JavaScript layout for this pile. Runs on the model thread.
+     */
+    private class PositionsCommand implements Runnable {
+        @Override
+        public void run() {
+            int x = getX();
+            int y = getY();
+            V8Array parameters = new V8Array(mJSPile.getRuntime());
+            parameters.push(mJSPile).push(x).push(y)
+                    .push(mSurfaceWidth - x).push(mSurfaceHeight - y)
+                    .push(mCardWidth).push(mCardHeight);
+            V8Array positions = mJSPile.getRuntime().executeArrayFunction(
+                    "positions", parameters
+            );
+            parameters.release();
+            readBuffer(positions);
+            int count = Math.min(positions.length() / 2, mCount);
+            positions.release();
+
+            // positions are whole pixels, truncated toward zero
+            for (int i = 0; i < count; i++) {
+                mCardXs[i] = (int) mBuffer[i * 2];
+                mCardYs[i] = (int) mBuffer[i * 2 + 1];
+            }
+        }
     }
 }